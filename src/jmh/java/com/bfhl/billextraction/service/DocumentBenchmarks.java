@@ -0,0 +1,114 @@
+package com.bfhl.billextraction.service;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading and rasterizing PDFs: the CPU- and allocation-heavy front of the pipeline.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DocumentBenchmarks {
+
+	@State(Scope.Benchmark)
+	public static class LoadState {
+		@Param({"1", "10", "50"})
+		int pages;
+
+		@Param({"sparse", "dense", "scan"})
+		String density;
+
+		BillExtractionService service;
+		File pdf;
+
+		@Setup(Level.Trial)
+		public void setUp() throws IOException {
+			service = new BillExtractionService();
+			pdf = SyntheticBills.writePdf(pages, density);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			pdf.delete();
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class RenderState {
+		// DPI tiers of PdfProcessingConfig (huge, large, default cap) plus 93, what an A4 page
+		// gets from PageResolutionPlanner with the default encoder
+		@Param({"93", "150", "200", "300"})
+		int dpi;
+
+		@Param({"sparse", "dense", "scan"})
+		String density;
+
+		File pdf;
+		PDDocument document;
+		PDFRenderer renderer;
+		BillExtractionService service;
+		RasterPool pool;
+
+		@Setup(Level.Trial)
+		public void setUp() throws IOException {
+			pdf = SyntheticBills.writePdf(1, density);
+			document = PDDocument.load(pdf);
+			renderer = new PDFRenderer(document);
+			pool = new RasterPool();
+			ReflectionTestUtils.setField(pool, "enabled", true);
+			ReflectionTestUtils.setField(pool, "maxIdleMb", 64L);
+			service = new BillExtractionService();
+			ReflectionTestUtils.setField(service, "pageImageEncoder", new JpegPageImageEncoder(ImageType.GRAY, 0.85f, 2048, 768));
+			ReflectionTestUtils.setField(service, "rasterPool", pool);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException {
+			document.close();
+			pdf.delete();
+		}
+	}
+
+	@Benchmark
+	public int loadPdf(LoadState state) throws IOException {
+		try (PDDocument document = state.service.loadPdfRobustly(state.pdf)) {
+			return document.getNumberOfPages();
+		}
+	}
+
+	@Benchmark
+	public BufferedImage renderPage(RenderState state) throws IOException {
+		return state.renderer.renderImageWithDPI(0, state.dpi, ImageType.GRAY);
+	}
+
+	/** What the pipeline does: draw into a recycled raster, released once the page is encoded. */
+	@Benchmark
+	public int renderPagePooled(RenderState state) throws IOException {
+		BufferedImage image = state.service.renderRaster(state.document, state.renderer, 0, state.dpi);
+		state.pool.release(image);
+		return image.getWidth();
+	}
+}
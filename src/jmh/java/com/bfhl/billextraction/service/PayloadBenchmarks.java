@@ -0,0 +1,141 @@
+package com.bfhl.billextraction.service;
+
+import com.bfhl.billextraction.model.ExtractionData;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What happens to a page after rendering: image encoding, request body, response parsing and merging.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PayloadBenchmarks {
+
+	@State(Scope.Benchmark)
+	public static class EncodeState {
+		@Param({"jpeg", "png"})
+		String format;
+
+		// 93 is already at the encoder's size; 300 exercises the downscale
+		@Param({"93", "300"})
+		int dpi;
+
+		BillExtractionService service;
+		BufferedImage page;
+
+		@Setup(Level.Trial)
+		public void setUp() throws IOException {
+			service = serviceWith(encoder(format));
+			page = renderDensePage(dpi);
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class RequestState {
+		List<byte[]> images;
+
+		@Setup(Level.Trial)
+		public void setUp() throws IOException {
+			byte[] image = encoder("jpeg").encode(renderDensePage(93));
+			images = List.of(image, image, image); // one vision batch
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class ResponseState {
+		// One batch, and a whole long bill answered at once
+		@Param({"3", "50"})
+		int pages;
+
+		BillExtractionService service;
+		String response;
+
+		@Setup(Level.Trial)
+		public void setUp() throws IOException {
+			service = new BillExtractionService();
+			response = SyntheticBills.modelResponse(pages, 40);
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class MergeState {
+		@Param({"4", "40"})
+		int batches;
+
+		BillExtractionService service;
+		List<ExtractionData> results;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			service = new BillExtractionService();
+			results = SyntheticBills.batchResults(batches, 40);
+		}
+	}
+
+	@Benchmark
+	public byte[] encodePageImage(EncodeState state) throws IOException {
+		return state.service.encodePageImage(state.page);
+	}
+
+	@Benchmark
+	public void writeVisionRequest(RequestState state) throws IOException {
+		new ChatCompletionRequest("gpt-4.1", "Extract line items from pages 1-3", state.images,
+				"image/jpeg", 6000, 0.1).writeTo(OutputStream.nullOutputStream());
+	}
+
+	@Benchmark
+	public ExtractionData parseExtractionResponse(ResponseState state) throws IOException {
+		return state.service.parseExtractionResponse(state.response);
+	}
+
+	@Benchmark
+	public ExtractionData mergeBatchResults(MergeState state) {
+		return state.service.mergeBatchResults(state.results);
+	}
+
+	private static PageImageEncoder encoder(String format) {
+		// Same defaults as ImageEncodingConfig
+		return "png".equals(format)
+				? new PngPageImageEncoder(ImageType.GRAY, 2048, 768)
+				: new JpegPageImageEncoder(ImageType.GRAY, 0.85f, 2048, 768);
+	}
+
+	private static BillExtractionService serviceWith(PageImageEncoder encoder) {
+		BillExtractionService service = new BillExtractionService();
+		ReflectionTestUtils.setField(service, "pageImageEncoder", encoder);
+		return service;
+	}
+
+	private static BufferedImage renderDensePage(int dpi) throws IOException {
+		File pdf = SyntheticBills.writePdf(1, "dense");
+		try (PDDocument document = PDDocument.load(pdf)) {
+			return new PDFRenderer(document).renderImageWithDPI(0, dpi, ImageType.GRAY);
+		} finally {
+			pdf.delete();
+		}
+	}
+}
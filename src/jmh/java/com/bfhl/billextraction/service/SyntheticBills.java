@@ -0,0 +1,137 @@
+package com.bfhl.billextraction.service;
+
+import com.bfhl.billextraction.model.BillItem;
+import com.bfhl.billextraction.model.ExtractionData;
+import com.bfhl.billextraction.model.PageWiseLineItems;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generated bills for the benchmarks, so runs are reproducible without sample documents.
+ */
+final class SyntheticBills {
+
+	private static final String[] ITEMS = {
+			"Consultation - General Medicine", "Paracetamol 500mg Tab", "Complete Blood Count (CBC)",
+			"Room Rent - Semi Private", "Nursing Charges", "Inj. Ceftriaxone 1g", "X-Ray Chest PA View",
+			"Disposable Syringe 5ml", "IV Set with Cannula", "Ultrasound Abdomen"};
+
+	private SyntheticBills() {
+	}
+
+	/** Rows per page for a density: a short summary, a full detail page, or a scanned detail page. */
+	static int rowsFor(String density) {
+		return "sparse".equals(density) ? 8 : 45;
+	}
+
+	/**
+	 * Writes a bill of {@code pages} pages. {@code sparse} and {@code dense} pages are vector text;
+	 * {@code scan} pages are a single 150 DPI grayscale image, like a scanned hospital bill.
+	 */
+	static File writePdf(int pages, String density) throws IOException {
+		File file = Files.createTempFile("bench_bill_", ".pdf").toFile();
+		file.deleteOnExit();
+		try (PDDocument document = new PDDocument()) {
+			PDImageXObject scan = "scan".equals(density)
+					? LosslessFactory.createFromImage(document, scannedPage(rowsFor(density)))
+					: null;
+			for (int pageIndex = 0; pageIndex < pages; pageIndex++) {
+				PDPage page = new PDPage(PDRectangle.A4);
+				document.addPage(page);
+				try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+					if (scan != null) {
+						content.drawImage(scan, 0, 0, PDRectangle.A4.getWidth(), PDRectangle.A4.getHeight());
+					} else {
+						writeTextPage(content, pageIndex, rowsFor(density));
+					}
+				}
+			}
+			document.save(file);
+		}
+		return file;
+	}
+
+	/** A model response in the shape the prompt asks for, fenced the way the model usually returns it. */
+	static String modelResponse(int pages, int rowsPerPage) throws IOException {
+		return "```json\n" + new ObjectMapper().writeValueAsString(extraction(1, pages, rowsPerPage)) + "\n```";
+	}
+
+	/** Parsed results of {@code batches} batches of 3 pages, as they reach the merge step. */
+	static List<ExtractionData> batchResults(int batches, int rowsPerPage) {
+		List<ExtractionData> results = new ArrayList<>();
+		// Batches complete out of order, so the merge has to sort
+		for (int batch = batches - 1; batch >= 0; batch--) {
+			results.add(extraction(batch * 3 + 1, 3, rowsPerPage));
+		}
+		return results;
+	}
+
+	private static ExtractionData extraction(int firstPage, int pages, int rowsPerPage) {
+		List<PageWiseLineItems> pageItems = new ArrayList<>();
+		for (int pageNo = firstPage; pageNo < firstPage + pages; pageNo++) {
+			List<BillItem> items = new ArrayList<>();
+			for (int row = 0; row < rowsPerPage; row++) {
+				BillItem item = new BillItem();
+				item.setItemName(ITEMS[row % ITEMS.length] + " #" + row);
+				item.setItemQuantity((double) (row % 4 + 1));
+				item.setItemRate(125.5 + row);
+				item.setItemAmount(item.getItemRate() * item.getItemQuantity());
+				items.add(item);
+			}
+			pageItems.add(new PageWiseLineItems(String.valueOf(pageNo), "Bill Detail", items));
+		}
+		ExtractionData data = new ExtractionData();
+		data.setPagewiseLineItems(pageItems);
+		return data;
+	}
+
+	private static void writeTextPage(PDPageContentStream content, int pageIndex, int rows) throws IOException {
+		content.beginText();
+		content.setFont(PDType1Font.HELVETICA_BOLD, 14);
+		content.newLineAtOffset(50, 790);
+		content.showText("CITY HOSPITAL - BILL DETAIL (page " + (pageIndex + 1) + ")");
+		content.setFont(PDType1Font.HELVETICA, 9);
+		for (int row = 0; row < rows; row++) {
+			content.newLineAtOffset(0, -16);
+			content.showText(line(row));
+		}
+		content.endText();
+	}
+
+	private static BufferedImage scannedPage(int rows) {
+		// A4 at 150 DPI
+		BufferedImage image = new BufferedImage(1240, 1754, BufferedImage.TYPE_BYTE_GRAY);
+		Graphics2D g = image.createGraphics();
+		g.setColor(Color.WHITE);
+		g.fillRect(0, 0, image.getWidth(), image.getHeight());
+		g.setColor(Color.BLACK);
+		g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 19));
+		for (int row = 0; row < rows; row++) {
+			g.drawString(line(row), 100, 160 + row * 33);
+		}
+		g.dispose();
+		return image;
+	}
+
+	private static String line(int row) {
+		double rate = 125.5 + row;
+		int quantity = row % 4 + 1;
+		return String.format("%-40s %4d %10.2f %12.2f", ITEMS[row % ITEMS.length], quantity, rate, rate * quantity);
+	}
+}
@@ -0,0 +1,307 @@
+package com.bfhl.billextraction.loadtest;
+
+import com.bfhl.billextraction.BillExtractionApplication;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives {@code POST /extract-bill-data} at increasing concurrency and reports throughput,
+ * latency percentiles, heap high-water mark and error rate per level.
+ *
+ * Documents come from a JSONL file of request bodies ({@code {"document": "..."}}, one per line);
+ * local paths are served to the service over HTTP by the harness itself. By default the service
+ * runs in this JVM against a {@link StubLlmServer}, with the extraction cache off so every request
+ * does the full work.
+ *
+ * <pre>
+ * --requests bills.jsonl         documents to replay, in order, round robin (required)
+ * --concurrency 1,4,16           concurrency levels
+ * --requests-per-level 40        requests sent at each level (default: 4 x concurrency, at least 20)
+ * --warmup 2                     unreported requests before the first level
+ * --target http://host:8080      drive a running service instead (heap is then not reported)
+ * --keep-cache                   leave the extraction cache and checkpoints on (in-process only)
+ * --app-log-level WARN           log level of the service under test (in-process only)
+ * </pre>
+ * plus every {@link StubLlmServer} option.
+ */
+public class LoadHarness {
+
+	private static final Duration REQUEST_TIMEOUT = Duration.ofMinutes(5);
+	private static final long HEAP_SAMPLE_MS = 20;
+	private static final long MB = 1024 * 1024;
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final HttpClient httpClient = HttpClient.newBuilder()
+			.executor(Executors.newVirtualThreadPerTaskExecutor())
+			.connectTimeout(Duration.ofSeconds(10))
+			.build();
+	private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+	private final AtomicLong heapPeak = new AtomicLong();
+
+	/** Outcome of one concurrency level. */
+	private static class LevelResult {
+		final int concurrency;
+		final List<Long> latenciesMs;
+		final int errors;
+		final int partial;
+		final double seconds;
+		final long heapPeakBytes;
+
+		LevelResult(int concurrency, List<Long> latenciesMs, int errors, int partial, double seconds, long heapPeakBytes) {
+			this.concurrency = concurrency;
+			this.latenciesMs = latenciesMs;
+			this.errors = errors;
+			this.partial = partial;
+			this.seconds = seconds;
+			this.heapPeakBytes = heapPeakBytes;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = parseOptions(args);
+		if (!options.containsKey("requests")) {
+			System.err.println("Usage: LoadHarness --requests bills.jsonl [--concurrency 1,4,16] [options]");
+			System.exit(2);
+		}
+		new LoadHarness().run(options);
+	}
+
+	/** Parses {@code --name value} pairs; a flag with no value is "true". */
+	static Map<String, String> parseOptions(String[] args) {
+		Map<String, String> options = new LinkedHashMap<>();
+		for (int i = 0; i < args.length; i++) {
+			if (!args[i].startsWith("--")) {
+				throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+			}
+			String name = args[i].substring(2);
+			boolean hasValue = i + 1 < args.length && !args[i + 1].startsWith("--");
+			options.put(name, hasValue ? args[++i] : "true");
+		}
+		return options;
+	}
+
+	private void run(Map<String, String> options) throws Exception {
+		File requestsFile = new File(options.get("requests"));
+		HttpServer documentServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		documentServer.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+		List<String> documents = loadDocuments(requestsFile, documentServer);
+		documentServer.start();
+
+		StubLlmServer stub = null;
+		ConfigurableApplicationContext app = null;
+		String target = options.get("target");
+		try {
+			if (target == null) {
+				stub = new StubLlmServer(options);
+				// devtools would relaunch main() with the Spring arguments below instead of ours
+				System.setProperty("spring.devtools.restart.enabled", "false");
+				app =SpringApplication.run(BillExtractionApplication.class,
+						"--server.port=0",
+						"--openai.api.key=stub",
+						"--openai.api.url=" + stub.getUrl(),
+						"--extraction.cache.enabled=" + options.containsKey("keep-cache"),
+						"--extraction.checkpoints.enabled=" + options.containsKey("keep-cache"),
+						"--logging.level.com.bfhl.billextraction=" + options.getOrDefault("app-log-level", "WARN"));
+				target = "http://127.0.0.1:" + app.getEnvironment().getProperty("local.server.port");
+			}
+			boolean inProcess = app != null;
+			System.out.printf("Replaying %d documents against %s%s%n", documents.size(), target,
+					inProcess ? " (in-process, stub LLM at " + stub.getUrl() + ")" : "");
+
+			Thread sampler = Thread.ofPlatform().daemon().name("heap-sampler").start(this::sampleHeap);
+			URI endpoint = URI.create(target + "/extract-bill-data");
+
+			int warmup = Integer.parseInt(options.getOrDefault("warmup", "2"));
+			if (warmup > 0) {
+				runLevel(endpoint, documents, 1, warmup);
+			}
+
+			System.out.println(header());
+			List<LevelResult> results = new ArrayList<>();
+			for (String level : options.getOrDefault("concurrency", "1,4,16").split(",")) {
+				int concurrency = Integer.parseInt(level.trim());
+				int requests = options.containsKey("requests-per-level")
+						? Integer.parseInt(options.get("requests-per-level"))
+						: Math.max(20, 4 * concurrency);
+				LevelResult result = runLevel(endpoint, documents, concurrency, requests);
+				results.add(result);
+				System.out.println(format(result, inProcess));
+			}
+			sampler.interrupt();
+
+			System.out.println();
+			System.out.println(header());
+			results.forEach(result -> System.out.println(format(result, inProcess)));
+			if (stub != null) {
+				System.out.println("Stub LLM: " + stub.describe());
+			}
+		} finally {
+			if (app != null) {
+				app.close();
+			}
+			if (stub != null) {
+				stub.close();
+			}
+			documentServer.stop(0);
+		}
+	}
+
+	/**
+	 * Reads the request bodies and publishes every local document on {@code server}.
+	 */
+	private List<String> loadDocuments(File requestsFile, HttpServer server) throws IOException {
+		List<String> documents = new ArrayList<>();
+		for (String line : Files.readAllLines(requestsFile.toPath())) {
+			if (line.isBlank()) {
+				continue;
+			}
+			String document = objectMapper.readTree(line).path("document").asText();
+			if (document.startsWith("http://") || document.startsWith("https://")) {
+				documents.add(document);
+				continue;
+			}
+			File file = new File(document).isAbsolute() ? new File(document) : new File(requestsFile.getParentFile(), document);
+			if (!file.isFile()) {
+				throw new IOException("Document not found: " + file);
+			}
+			String path = "/documents/" + documents.size() + "/" + file.getName().replace(' ', '_');
+			server.createContext(path, exchange -> serveFile(exchange, file));
+			documents.add("http://127.0.0.1:" + server.getAddress().getPort() + path);
+		}
+		if (documents.isEmpty()) {
+			throw new IOException("No documents in " + requestsFile);
+		}
+		return documents;
+	}
+
+	private LevelResult runLevel(URI endpoint, List<String> documents, int concurrency, int requests) throws Exception {
+		System.gc();
+		heapPeak.set(memory.getHeapMemoryUsage().getUsed());
+
+		List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+		AtomicInteger next = new AtomicInteger();
+		AtomicInteger errors = new AtomicInteger();
+		AtomicInteger partial = new AtomicInteger();
+
+		long start = System.nanoTime();
+		try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (int client = 0; client < concurrency; client++) {
+				clients.submit(() -> {
+					for (int i = next.getAndIncrement(); i < requests; i = next.getAndIncrement()) {
+						long sent = System.nanoTime();
+						String outcome = extract(endpoint, documents.get(i % documents.size()));
+						latencies.add((System.nanoTime() - sent) / 1_000_000);
+						if ("error".equals(outcome)) {
+							errors.incrementAndGet();
+						} else if ("partial".equals(outcome)) {
+							partial.incrementAndGet();
+						}
+					}
+					return null;
+				});
+			}
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		return new LevelResult(concurrency, new ArrayList<>(latencies), errors.get(), partial.get(), seconds, heapPeak.get());
+	}
+
+	/**
+	 * Sends one extraction; returns "ok", "partial" (deadline reached) or "error".
+	 */
+	private String extract(URI endpoint, String document) {
+		try {
+			HttpRequest request = HttpRequest.newBuilder(endpoint)
+					.timeout(REQUEST_TIMEOUT)
+					.header("Content-Type", "application/json")
+					.POST(HttpRequest.BodyPublishers.ofString(
+							objectMapper.createObjectNode().put("document", document).toString()))
+					.build();
+			HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+			if (response.statusCode() != 200) {
+				return "error";
+			}
+			JsonNode body = objectMapper.readTree(response.body());
+			if (!body.path("is_success").asBoolean()) {
+				return "error";
+			}
+			return body.path("message").isTextual() ? "partial" : "ok";
+		} catch (IOException e) {
+			return "error";
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return "error";
+		}
+	}
+
+	private void sampleHeap() {
+		while (!Thread.currentThread().isInterrupted()) {
+			heapPeak.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+			try {
+				Thread.sleep(HEAP_SAMPLE_MS);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	private static String header() {
+		return String.format("%11s %8s %10s %8s %8s %8s %10s %7s %8s",
+				"concurrency", "requests", "req/s", "p50 ms", "p95 ms", "p99 ms", "heap MB", "errors", "partial");
+	}
+
+	private static String format(LevelResult result, boolean heapKnown) {
+		List<Long> sorted = new ArrayList<>(result.latenciesMs);
+		Collections.sort(sorted);
+		int requests = sorted.size();
+		return String.format("%11d %8d %10.2f %8d %8d %8d %10s %6.1f%% %7.1f%%",
+				result.concurrency, requests, requests / result.seconds,
+				percentile(sorted, 0.50), percentile(sorted, 0.95), percentile(sorted, 0.99),
+				heapKnown ? String.valueOf(result.heapPeakBytes / MB) : "n/a",
+				100.0 * result.errors / Math.max(1, requests), 100.0 * result.partial / Math.max(1, requests));
+	}
+
+	/** Nearest-rank percentile of an ascending list. */
+	private static long percentile(List<Long> sorted, double quantile) {
+		if (sorted.isEmpty()) {
+			return 0;
+		}
+		int rank = (int) Math.ceil(quantile * sorted.size());
+		return sorted.get(Math.max(0, rank - 1));
+	}
+
+	private static void serveFile(HttpExchange exchange, File file) throws IOException {
+		try (exchange) {
+			exchange.getResponseHeaders().add("Content-Type", "application/pdf");
+			exchange.sendResponseHeaders(200, file.length());
+			try (OutputStream out = exchange.getResponseBody()) {
+				Files.copy(file.toPath(), out);
+			}
+		}
+	}
+}
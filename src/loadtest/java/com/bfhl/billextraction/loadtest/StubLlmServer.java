@@ -0,0 +1,259 @@
+package com.bfhl.billextraction.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Chat-completions stand-in for load tests: point {@code openai.api.url} at it.
+ *
+ * Answers every request with canned {@code pagewise_line_items} for the pages named in the prompt,
+ * after a latency drawn from a configurable distribution, and fails a configurable share of
+ * requests with 429 or 5xx. Answers longer than the request's {@code max_tokens} are cut off there
+ * with {@code finish_reason: length}, like the real API. Requests with {@code stream: true} get the
+ * answer as server-sent chunks: the first after a quarter of the latency, the rest spread over the
+ * remainder.
+ *
+ * <pre>
+ * --port 18081                 0 picks a free port
+ * --latency lognormal:800:0.5  fixed:MS | uniform:MIN:MAX | lognormal:MEDIAN:SIGMA
+ * --per-image-ms 400           added per image in the request
+ * --rate-429 0.02              share of requests rejected with 429 (retry-after-ms: 250)
+ * --rate-5xx 0.01              share of requests failed with 500 or 503
+ * --items-per-page 12          generated bill_items per page
+ * --canned items.json          JSON array of bill_items returned for every page instead
+ * </pre>
+ */
+public class StubLlmServer implements AutoCloseable {
+
+	// "Extract line items from pages 1-3 (of 9 total)" in both the vision and the text-layer prompt
+	private static final Pattern PAGES = Pattern.compile("pages ([\\d, \\-]+) \\(of");
+	private static final int IMAGE_TOKENS = 1105;
+	private static final int CHARS_PER_TOKEN = 4;
+	private static final int STREAM_CHUNKS = 20;
+	private static final String[] ITEMS = {
+			"Consultation - General Medicine", "Paracetamol 500mg Tab", "Complete Blood Count (CBC)",
+			"Room Rent - Semi Private", "Nursing Charges", "Inj. Ceftriaxone 1g", "X-Ray Chest PA View"};
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final Map<String, String> options;
+	private final HttpServer server;
+	private final ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor();
+	private final ArrayNode cannedItems;
+
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong rateLimited = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	public StubLlmServer(Map<String, String> options) throws IOException {
+		this.options = options;
+		String canned = options.get("canned");
+		this.cannedItems = canned == null ? null : (ArrayNode) objectMapper.readTree(new File(canned));
+		// Fail on a bad spec at startup rather than on the first request
+		sampleLatencyMs();
+
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", Integer.parseInt(options.getOrDefault("port", "0"))), 0);
+		server.setExecutor(threads);
+		server.createContext("/", this::handle);
+		server.start();
+	}
+
+	public static void main(String[] args) throws Exception {
+		StubLlmServer stub = new StubLlmServer(LoadHarness.parseOptions(args));
+		System.out.println("Stub chat-completions endpoint: " + stub.getUrl());
+		Thread.currentThread().join();
+	}
+
+	public String getUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + "/v1/chat/completions";
+	}
+
+	public String describe() {
+		return String.format("%d requests, %d answered 429, %d answered 5xx", requests.get(), rateLimited.get(), failed.get());
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		threads.shutdownNow();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try (exchange) {
+			requests.incrementAndGet();
+			JsonNode request;
+			try (InputStream in = exchange.getRequestBody()) {
+				request = objectMapper.readTree(in);
+			}
+			JsonNode content = request.at("/messages/0/content");
+			String prompt = content.path(0).path("text").asText();
+			int images = Math.max(0, content.size() - 1);
+
+			boolean stream = request.path("stream").asBoolean();
+			long latencyMs = sampleLatencyMs() + images * Long.parseLong(options.getOrDefault("per-image-ms", "400"));
+			Thread.sleep(stream ? latencyMs / 4 : latencyMs);
+
+			double roll = ThreadLocalRandom.current().nextDouble();
+			double rate429 = Double.parseDouble(options.getOrDefault("rate-429", "0"));
+			double rate5xx = Double.parseDouble(options.getOrDefault("rate-5xx", "0"));
+			if (roll < rate429) {
+				rateLimited.incrementAndGet();
+				exchange.getResponseHeaders().add("retry-after-ms", "250");
+				send(exchange, 429, "{\"error\":{\"message\":\"Rate limit reached (stub)\",\"type\":\"requests\"}}");
+				return;
+			}
+			if (roll < rate429 + rate5xx) {
+				failed.incrementAndGet();
+				send(exchange, ThreadLocalRandom.current().nextBoolean() ? 500 : 503,
+						"{\"error\":{\"message\":\"Upstream failure (stub)\",\"type\":\"server_error\"}}");
+				return;
+			}
+
+			String answer = objectMapper.writeValueAsString(answer(pagesOf(prompt)));
+			int maxChars = request.path("max_tokens").asInt(Integer.MAX_VALUE / CHARS_PER_TOKEN) * CHARS_PER_TOKEN;
+			boolean truncated = answer.length() > maxChars;
+			if (truncated) {
+				answer = answer.substring(0, maxChars);
+			}
+			String finishReason = truncated ? "length" : "stop";
+			ObjectNode usage = objectMapper.createObjectNode()
+					.put("prompt_tokens", prompt.length() / CHARS_PER_TOKEN + images * IMAGE_TOKENS)
+					.put("completion_tokens", answer.length() / CHARS_PER_TOKEN);
+			if (stream) {
+				stream(exchange, answer, finishReason, usage, latencyMs - latencyMs / 4);
+				return;
+			}
+			ObjectNode body = objectMapper.createObjectNode();
+			ObjectNode choice = body.putArray("choices").addObject();
+			choice.putObject("message").put("role", "assistant").put("content", answer);
+			choice.put("finish_reason", finishReason);
+			body.set("usage", usage);
+			send(exchange, 200, objectMapper.writeValueAsString(body));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Writes {@code answer} as chat-completion chunks over {@code durationMs}, then the finish chunk, a
+	 * usage chunk and {@code [DONE]}, as the real API does with {@code include_usage}.
+	 */
+	private void stream(HttpExchange exchange, String answer, String finishReason, ObjectNode usage, long durationMs)
+			throws IOException, InterruptedException {
+		exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+		exchange.sendResponseHeaders(200, 0);
+		try (OutputStream out = exchange.getResponseBody()) {
+			int chunkChars = Math.max(1, (answer.length() + STREAM_CHUNKS - 1) / STREAM_CHUNKS);
+			for (int start = 0; start < answer.length(); start += chunkChars) {
+				ObjectNode chunk = objectMapper.createObjectNode();
+				chunk.putArray("choices").addObject().putObject("delta")
+						.put("content", answer.substring(start, Math.min(answer.length(), start + chunkChars)));
+				writeEvent(out, objectMapper.writeValueAsString(chunk));
+				Thread.sleep(durationMs / STREAM_CHUNKS);
+			}
+			ObjectNode finish = objectMapper.createObjectNode();
+			ObjectNode choice = finish.putArray("choices").addObject();
+			choice.putObject("delta");
+			choice.put("finish_reason", finishReason);
+			writeEvent(out, objectMapper.writeValueAsString(finish));
+			ObjectNode usageChunk = objectMapper.createObjectNode();
+			usageChunk.putArray("choices");
+			usageChunk.set("usage", usage);
+			writeEvent(out, objectMapper.writeValueAsString(usageChunk));
+			writeEvent(out, "[DONE]");
+		}
+	}
+
+	private static void writeEvent(OutputStream out, String data) throws IOException {
+		out.write(("data: " + data + "\n\n").getBytes(StandardCharsets.UTF_8));
+		out.flush();
+	}
+
+	private ObjectNode answer(List<Integer> pages) {
+		int itemsPerPage = Integer.parseInt(options.getOrDefault("items-per-page", "12"));
+		ObjectNode root = objectMapper.createObjectNode();
+		ArrayNode pageItems = root.putArray("pagewise_line_items");
+		for (int pageNo : pages) {
+			ObjectNode page = pageItems.addObject();
+			page.put("page_no", String.valueOf(pageNo));
+			page.put("page_type", "Bill Detail");
+			if (cannedItems != null) {
+				page.set("bill_items", cannedItems.deepCopy());
+				continue;
+			}
+			ArrayNode items = page.putArray("bill_items");
+			for (int row = 0; row < itemsPerPage; row++) {
+				// rates differ per page so consecutive pages never look like one table read twice
+				double rate = 100.0 + row * 12.5 + pageNo;
+				int quantity = row % 3 + 1;
+				items.addObject()
+						.put("item_name", ITEMS[row % ITEMS.length])
+						.put("item_amount", rate * quantity)
+						.put("item_rate", rate)
+						.put("item_quantity", (double) quantity);
+			}
+		}
+		return root;
+	}
+
+	private long sampleLatencyMs() {
+		String[] spec = options.getOrDefault("latency", "lognormal:800:0.5").split(":");
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		switch (spec[0]) {
+			case "fixed":
+				return Long.parseLong(spec[1]);
+			case "uniform":
+				return random.nextLong(Long.parseLong(spec[1]), Long.parseLong(spec[2]) + 1);
+			case "lognormal":
+				return Math.round(Double.parseDouble(spec[1]) * Math.exp(Double.parseDouble(spec[2]) * random.nextGaussian()));
+			default:
+				throw new IllegalArgumentException("Unknown latency distribution: " + spec[0]);
+		}
+	}
+
+	private static List<Integer> pagesOf(String prompt) {
+		List<Integer> pages = new ArrayList<>();
+		Matcher matcher = PAGES.matcher(prompt);
+		if (!matcher.find()) {
+			pages.add(1);
+			return pages;
+		}
+		for (String part : matcher.group(1).split(",")) {
+			String[] range = part.trim().split("-");
+			int first = Integer.parseInt(range[0].trim());
+			int last = range.length > 1 ? Integer.parseInt(range[1].trim()) : first;
+			for (int pageNo = first; pageNo <= last; pageNo++) {
+				pages.add(pageNo);
+			}
+		}
+		return pages;
+	}
+
+	private static void send(HttpExchange exchange, int status, String json) throws IOException {
+		byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().add("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package com.bfhl.billextraction.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * Threads for the CPU-bound half of the pipeline.
+ *
+ * Requests, downloads and LLM calls run on virtual threads ({@code spring.threads.virtual.enabled});
+ * page rasterization and image encoding are pure CPU work, so they share one long-lived
+ * work-stealing pool of platform threads, sized by {@code pdf.processing.parallel-rendering-threads}
+ * (all cores by default), across all documents.
+ */
+@Slf4j
+@Configuration
+public class ExecutionConfig {
+
+    // Not a default candidate: an ordinary Executor bean would switch off Boot's applicationTaskExecutor
+    @Bean(destroyMethod = "shutdownNow", defaultCandidate = false)
+    public ExecutorService renderExecutor(PdfProcessingConfig pdfProcessingConfig) {
+        int threads = Math.max(1, pdfProcessingConfig.getParallelRenderingThreads());
+        log.info("Render pool: {} platform threads", threads);
+        ForkJoinPool.ForkJoinWorkerThreadFactory factory = pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("pdf-render-" + thread.getPoolIndex());
+            return thread;
+        };
+        // asyncMode: tasks are independent pages, so FIFO order suits them better than fork/join LIFO
+        return new ForkJoinPool(threads, factory, null, true);
+    }
+}
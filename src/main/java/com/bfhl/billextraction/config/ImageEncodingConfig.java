@@ -0,0 +1,57 @@
+package com.bfhl.billextraction.config;
+
+import com.bfhl.billextraction.service.JpegPageImageEncoder;
+import com.bfhl.billextraction.service.PageImageEncoder;
+import com.bfhl.billextraction.service.PngPageImageEncoder;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.rendering.ImageType;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.Locale;
+
+/**
+ * Selects the page image encoder from {@code extraction.encoding.*}.
+ */
+@Slf4j
+@Configuration
+public class ImageEncodingConfig {
+
+    @Value("${extraction.encoding.format:jpeg}")
+    private String format;
+
+    @Value("${extraction.encoding.color:gray}")
+    private String color;
+
+    @Value("${extraction.encoding.jpeg-quality:0.85}")
+    private float jpegQuality;
+
+    @Value("${extraction.encoding.max-long-edge:2048}")
+    private int maxLongEdge;
+
+    @Value("${extraction.encoding.max-short-edge:768}")
+    private int maxShortEdge;
+
+    @Bean
+    public PageImageEncoder pageImageEncoder() {
+        ImageType imageType = ImageType.valueOf(color.toUpperCase(Locale.ROOT));
+
+        PageImageEncoder encoder;
+        switch (format.toLowerCase(Locale.ROOT)) {
+            case "png":
+                encoder = new PngPageImageEncoder(imageType, maxLongEdge, maxShortEdge);
+                break;
+            case "jpeg":
+            case "jpg":
+                encoder = new JpegPageImageEncoder(imageType, jpegQuality, maxLongEdge, maxShortEdge);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported extraction.encoding.format: " + format);
+        }
+
+        log.info("Page encoding: {} {} (max {}x{} px)",
+                encoder.mediaType(), encoder.renderImageType(), maxLongEdge, maxShortEdge);
+        return encoder;
+    }
+}
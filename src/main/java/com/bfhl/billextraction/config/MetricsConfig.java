@@ -0,0 +1,164 @@
+package com.bfhl.billextraction.config;
+
+import com.bfhl.billextraction.service.ExtractionCache;
+import com.bfhl.billextraction.service.ExtractionJobService;
+import com.bfhl.billextraction.service.ExtractionMetrics;
+import com.bfhl.billextraction.service.LlmEndpoints;
+import com.bfhl.billextraction.service.OpenAiClient;
+import com.bfhl.billextraction.service.OpenAiConnectionMetrics;
+import com.bfhl.billextraction.service.RasterMemoryGovernor;
+import com.bfhl.billextraction.service.RasterPool;
+import com.bfhl.billextraction.service.VisionCallScheduler;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Publishes the counters the pipeline components already keep (raster budget and pool, LLM scheduler,
+ * caches, LLM connections, background jobs, render pool) as meters, next to the per-stage
+ * timings of {@link ExtractionMetrics}.
+ */
+@Configuration
+public class MetricsConfig {
+
+    private static final String PREFIX = ExtractionMetrics.EXTRACTION;
+
+    @Bean
+    public MeterBinder rasterMemoryMeters(RasterMemoryGovernor governor) {
+        return registry -> {
+            Gauge.builder(PREFIX + ".raster.memory.used", governor, RasterMemoryGovernor::getUsedBytes)
+                    .description("Bytes of page rasters currently alive")
+                    .baseUnit("bytes")
+                    .register(registry);
+            Gauge.builder(PREFIX + ".raster.memory.reserved", governor, RasterMemoryGovernor::getReservedBytes)
+                    .description("Raster bytes reserved by admitted documents")
+                    .baseUnit("bytes")
+                    .register(registry);
+            Gauge.builder(PREFIX + ".raster.memory.budget", governor, RasterMemoryGovernor::getBudgetBytes)
+                    .description("Raster memory budget shared by all extractions")
+                    .baseUnit("bytes")
+                    .register(registry);
+            Gauge.builder(PREFIX + ".raster.waiting", governor, RasterMemoryGovernor::getWaitingJobs)
+                    .description("Documents waiting for raster memory")
+                    .register(registry);
+            FunctionCounter.builder(PREFIX + ".raster.downgraded", governor, RasterMemoryGovernor::getDowngradedJobs)
+                    .description("Documents admitted with a shallower pipeline or a lower DPI cap")
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder rasterPoolMeters(RasterPool pool) {
+        return registry -> {
+            Gauge.builder(PREFIX + ".raster.pool.idle", pool, RasterPool::getIdleBytes)
+                    .description("Bytes of page rasters waiting in the pool for the next page of their size")
+                    .baseUnit("bytes")
+                    .register(registry);
+            Gauge.builder(PREFIX + ".raster.pool.rasters", pool, RasterPool::getIdleRasters)
+                    .description("Page rasters waiting in the pool")
+                    .register(registry);
+            FunctionCounter.builder(PREFIX + ".raster.pool", pool, RasterPool::getHits)
+                    .description("Page rasters taken from the pool versus newly allocated")
+                    .tag("result", "hit")
+                    .register(registry);
+            FunctionCounter.builder(PREFIX + ".raster.pool", pool, RasterPool::getMisses)
+                    .description("Page rasters taken from the pool versus newly allocated")
+                    .tag("result", "miss")
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder llmMeters(VisionCallScheduler scheduler, OpenAiClient openAiClient) {
+        OpenAiConnectionMetrics connections = openAiClient.getConnectionMetrics();
+        return registry -> {
+            Gauge.builder(PREFIX + ".llm.queued", scheduler, VisionCallScheduler::getQueuedCalls)
+                    .description("LLM calls waiting for a slot or for rate budget")
+                    .register(registry);
+            FunctionCounter.builder(PREFIX + ".llm.dispatched", scheduler, VisionCallScheduler::getDispatchedCalls)
+                    .description("LLM calls started by the scheduler, retries included")
+                    .register(registry);
+            FunctionCounter.builder(PREFIX + ".llm.rate.limited", scheduler, VisionCallScheduler::getRateLimitedCalls)
+                    .description("LLM calls answered with 429")
+                    .register(registry);
+            FunctionCounter.builder(PREFIX + ".llm.hedged", openAiClient, OpenAiClient::getHedgedCalls)
+                    .description("LLM calls that got a duplicate on another endpoint after the hedge delay")
+                    .register(registry);
+            FunctionCounter.builder(PREFIX + ".llm.hedged.won", openAiClient, OpenAiClient::getHedgesWon)
+                    .description("Hedged LLM calls the duplicate answered first")
+                    .register(registry);
+            FunctionCounter.builder(PREFIX + ".llm.hedged.tokens", openAiClient, OpenAiClient::getHedgeExtraTokens)
+                    .description("Estimated input tokens spent on cancelled duplicates")
+                    .register(registry);
+            for (LlmEndpoints.Endpoint endpoint : openAiClient.getEndpoints().getEndpoints()) {
+                Gauge.builder(PREFIX + ".llm.endpoint.answer.time", endpoint, e -> e.getAverageMs() / 1000)
+                        .description("Recent average time until the endpoint starts answering")
+                        .baseUnit("seconds")
+                        .tag("endpoint", endpoint.getUrl())
+                        .register(registry);
+            }
+            FunctionCounter.builder(PREFIX + ".llm.http.calls", connections, OpenAiConnectionMetrics::getCallsStarted)
+                    .tag("result", "started")
+                    .register(registry);
+            FunctionCounter.builder(PREFIX + ".llm.http.calls", connections, OpenAiConnectionMetrics::getCallsFailed)
+                    .tag("result", "failed")
+                    .register(registry);
+            FunctionCounter.builder(PREFIX + ".llm.http.connections", connections, OpenAiConnectionMetrics::getConnectionsAcquired)
+                    .description("Connections acquired (pooled or new) versus newly opened")
+                    .tag("event", "acquired")
+                    .register(registry);
+            FunctionCounter.builder(PREFIX + ".llm.http.connections", connections, OpenAiConnectionMetrics::getConnectionsOpened)
+                    .description("Connections acquired (pooled or new) versus newly opened")
+                    .tag("event", "opened")
+                    .register(registry);
+            FunctionCounter.builder(PREFIX + ".llm.http.http2", connections, OpenAiConnectionMetrics::getHttp2Calls)
+                    .description("Calls carried over HTTP/2")
+                    .register(registry);
+            FunctionCounter.builder(PREFIX + ".llm.http.tls.handshakes", connections, OpenAiConnectionMetrics::getTlsHandshakes)
+                    .register(registry);
+            FunctionCounter.builder(PREFIX + ".llm.http.tls.handshake.time", connections,
+                            metrics -> metrics.getTlsHandshakeNanos() / 1e9)
+                    .baseUnit("seconds")
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder cacheMeters(ExtractionCache cache) {
+        return registry -> {
+            FunctionCounter.builder(PREFIX + ".cache", cache, ExtractionCache::getDocumentHits)
+                    .tags("level", "document", "result", "hit").register(registry);
+            FunctionCounter.builder(PREFIX + ".cache", cache, ExtractionCache::getDocumentMisses)
+                    .tags("level", "document", "result", "miss").register(registry);
+            FunctionCounter.builder(PREFIX + ".cache", cache, ExtractionCache::getPageHits)
+                    .tags("level", "page", "result", "hit").register(registry);
+            FunctionCounter.builder(PREFIX + ".cache", cache, ExtractionCache::getPageMisses)
+                    .tags("level", "page", "result", "miss").register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder jobMeters(ExtractionJobService jobService) {
+        return registry -> {
+            for (String status : new String[]{ExtractionJobService.STATUS_QUEUED, ExtractionJobService.STATUS_RUNNING}) {
+                Gauge.builder(PREFIX + ".jobs", jobService, jobs -> jobs.countJobs(status))
+                        .description("Background extraction jobs in flight")
+                        .tag("status", status)
+                        .register(registry);
+            }
+        };
+    }
+
+    @Bean
+    public MeterBinder renderPoolMeters(@Qualifier("renderExecutor") ExecutorService renderExecutor) {
+        // Queued tasks show pages waiting for a render or encode thread
+        return new ExecutorServiceMetrics(renderExecutor, "pdf.render", Tags.empty());
+    }
+}
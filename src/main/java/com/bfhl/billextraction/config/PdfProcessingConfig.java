@@ -1,4 +1,4 @@
-package com.bajajfinserv.billextraction.config;
+package com.bfhl.billextraction.config;
 
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
@@ -22,9 +22,13 @@ public class PdfProcessingConfig {
     private int manyPagesThreshold = 8;
     private int tooManyPagesThreshold = 15;
 
+    // Per-page resolution planning
+    private int minPageDpi = 72;
+    private float minGlyphHeightPx = 9;
+
     // Batch processing
     private int maxPagesPerBatch = 5;
-    private int parallelRenderingThreads = 4;
+    private int parallelRenderingThreads = Runtime.getRuntime().availableProcessors();
 
     // Timeouts (seconds)
     private int pdfRenderTimeout = 120;
@@ -1,12 +1,22 @@
 package com.bfhl.billextraction.controller;
 
+import com.bfhl.billextraction.model.BatchExtractionResponse;
 import com.bfhl.billextraction.model.BillExtractionRequest;
 import com.bfhl.billextraction.model.BillExtractionResponse;
+import com.bfhl.billextraction.model.ExtractionJobStatus;
 import com.bfhl.billextraction.service.BillExtractionService;
+import com.bfhl.billextraction.service.ExtractionJobService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.availability.ApplicationAvailability;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.List;
 
 @RestController
 @RequestMapping("/")
@@ -16,6 +26,12 @@ public class BillExtractionController {
     @Autowired
     private BillExtractionService extractionService;
 
+    @Autowired
+    private ExtractionJobService jobService;
+
+    @Autowired
+    private ApplicationAvailability availability;
+
     @PostMapping("/extract-bill-data")
     public ResponseEntity<BillExtractionResponse> extractBillData(
             @RequestBody BillExtractionRequest request) {
@@ -38,9 +54,70 @@ public class BillExtractionController {
         }
     }
 
+    /**
+     * Extracts several documents in one request; their last partial batches share LLM calls.
+     */
+    @PostMapping("/extract-bill-data/batch")
+    public ResponseEntity<BatchExtractionResponse> extractBillDataBatch(
+            @RequestBody(required = false) List<BillExtractionRequest> requests) {
+
+        if (requests == null || requests.stream().anyMatch(request -> request == null || request.getDocumentUrl() == null)) {
+            return ResponseEntity.badRequest().body(new BatchExtractionResponse(false,
+                    "A batch takes a JSON array of documents, each with a document URL", null, null));
+        }
+        try {
+            log.info("Received batch extraction request for {} documents", requests.size());
+            List<String> documentUrls = requests.stream().map(BillExtractionRequest::getDocumentUrl).toList();
+            return ResponseEntity.ok(jobService.extractBatch(documentUrls));
+
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(new BatchExtractionResponse(false, e.getMessage(), null, null));
+        }
+    }
+
+    /**
+     * Starts an extraction in the background and returns its job id immediately.
+     */
+    @PostMapping("/extract-bill-data/jobs")
+    public ResponseEntity<ExtractionJobStatus> submitExtractionJob(
+            @RequestBody BillExtractionRequest request) {
+
+        try {
+            ExtractionJobStatus status = jobService.submit(request.getDocumentUrl());
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(status);
+
+        } catch (ExtractionJobService.JobQueueFullException e) {
+            log.warn("Rejected extraction job for {}: queue full", request.getDocumentUrl());
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).build();
+        }
+    }
+
+    @GetMapping("/extract-bill-data/jobs/{jobId}")
+    public ResponseEntity<ExtractionJobStatus> getExtractionJob(@PathVariable String jobId) {
+        return ResponseEntity.of(jobService.getStatus(jobId));
+    }
+
+    /**
+     * Streams {@code page} events as batches are parsed, then one {@code completed} or {@code failed} event.
+     */
+    @GetMapping(value = "/extract-bill-data/jobs/{jobId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamExtractionJob(@PathVariable String jobId) {
+        return ResponseEntity.of(jobService.subscribe(jobId));
+    }
 
     @GetMapping("/health")
     public ResponseEntity<String> health() {
         return ResponseEntity.ok("API is running");
     }
+
+    /**
+     * Readiness probe: 503 until start-up warm-up has finished, so load balancers hold traffic back.
+     */
+    @GetMapping("/health/ready")
+    public ResponseEntity<String> ready() {
+        if (availability.getReadinessState() == ReadinessState.ACCEPTING_TRAFFIC) {
+            return ResponseEntity.ok("API is ready");
+        }
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("API is warming up");
+    }
 }
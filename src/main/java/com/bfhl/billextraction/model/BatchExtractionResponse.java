@@ -0,0 +1,26 @@
+package com.bfhl.billextraction.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BatchExtractionResponse {
+
+    @JsonProperty("is_success")
+    private boolean isSuccess; // every document succeeded
+
+    @JsonProperty("message")
+    private String message;
+
+    @JsonProperty("token_usage")
+    private TokenUsage tokenUsage; // sum over all documents
+
+    @JsonProperty("documents")
+    private List<DocumentExtractionResult> documents; // in request order
+}
@@ -0,0 +1,22 @@
+package com.bfhl.billextraction.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonUnwrapped;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One document of a batch: its URL plus the same fields as a single-document response.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class DocumentExtractionResult {
+
+    @JsonProperty("document")
+    private String documentUrl;
+
+    @JsonUnwrapped
+    private BillExtractionResponse result;
+}
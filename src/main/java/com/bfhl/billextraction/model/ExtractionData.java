@@ -2,6 +2,7 @@ package com.bfhl.billextraction.model;
 
 
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.AllArgsConstructor;
 import lombok.Data;
@@ -19,4 +20,8 @@ public class ExtractionData {
 
     @JsonProperty("total_item_count")
     private Integer totalItemCount;
+
+    @JsonProperty("page_processing")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private List<PageProcessing> pageProcessing;
 }
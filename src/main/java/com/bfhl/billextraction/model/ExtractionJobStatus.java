@@ -0,0 +1,26 @@
+package com.bfhl.billextraction.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ExtractionJobStatus {
+
+    @JsonProperty("job_id")
+    private String jobId;
+
+    @JsonProperty("status")
+    private String status; // "queued" | "running" | "succeeded" | "failed"
+
+    @JsonProperty("pages_completed")
+    private Integer pagesCompleted;
+
+    @JsonProperty("result")
+    private BillExtractionResponse result;
+}
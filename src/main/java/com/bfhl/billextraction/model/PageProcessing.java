@@ -0,0 +1,35 @@
+package com.bfhl.billextraction.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class PageProcessing {
+
+    @JsonProperty("page_no")
+    private String pageNo;
+
+    @JsonProperty("extraction_path")
+    private String extractionPath; // "text_layer" | "vision" | "checkpoint" | "cache" | "blank" | "duplicate" | "timed_out"
+
+    @JsonProperty("dpi")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Integer dpi; // render resolution; absent for pages that were not rasterized
+
+    @JsonProperty("duplicate_of")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String duplicateOf; // page whose extraction was reused, for "duplicate" pages
+
+    @JsonProperty("reason")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String reason; // why a page was skipped or deduplicated
+
+    public PageProcessing(String pageNo, String extractionPath, Integer dpi) {
+        this(pageNo, extractionPath, dpi, null, null);
+    }
+}
@@ -0,0 +1,27 @@
+package com.bfhl.billextraction.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A rectangle on a PDF page in points (1/72 inch), measured from the page's top-left corner.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class PageRegion {
+
+    @JsonProperty("x")
+    private Double x;
+
+    @JsonProperty("y")
+    private Double y;
+
+    @JsonProperty("width")
+    private Double width;
+
+    @JsonProperty("height")
+    private Double height;
+}
@@ -1,6 +1,7 @@
 package com.bfhl.billextraction.model;
 
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.AllArgsConstructor;
 import lombok.Data;
@@ -21,4 +22,16 @@ public class PageWiseLineItems {
 
     @JsonProperty("bill_items")
     private List<BillItem> billItems;
+
+    @JsonProperty("page_total")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Double pageTotal; // sub-total printed under the page's table, when it has one
+
+    @JsonProperty("crop")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private PageRegion crop; // part of the page sent to the model, when it was not the whole page
+
+    public PageWiseLineItems(String pageNo, String pageType, List<BillItem> billItems) {
+        this(pageNo, pageType, billItems, null, null);
+    }
 }
@@ -0,0 +1,138 @@
+package com.bfhl.billextraction.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Sizes LLM batches by tokens instead of a fixed page count.
+ *
+ * Every page gets an estimate of the input tokens it costs and the output tokens its line items
+ * will take. Pages are packed into a call while both sums stay within budget: input against
+ * {@code max-input-tokens}, output against {@code output-fill} of the {@code max_tokens} sent with
+ * the call, so dense pharmacy pages go out in small batches and sparse pages share one call.
+ * Text-layer pages are estimated from their amount rows; vision pages by the tiles of their image
+ * and the output seen so far on the same document, or a default until the first batch returns.
+ */
+@Slf4j
+@Component
+public class BatchPlanner {
+
+    // Same money pattern as TextLayerClassifier: one amount per line item row
+    private static final Pattern AMOUNT = Pattern.compile("\\d[\\d,]*\\.\\d{1,2}\\b");
+    private static final int PROMPT_TOKENS = 600;
+    private static final int CHARS_PER_TOKEN = 4;
+    // page_no, page_type and the JSON around a page's bill_items
+    private static final int PAGE_OUTPUT_TOKENS = 30;
+
+    @Value("${extraction.batching.max-pages:8}")
+    private int maxPages;
+
+    @Value("${extraction.batching.max-input-tokens:12000}")
+    private int maxInputTokens;
+
+    @Value("${extraction.batching.max-output-tokens:6000}")
+    private int maxOutputTokens;
+
+    @Value("${extraction.batching.max-output-tokens-ceiling:16384}")
+    private int maxOutputTokensCeiling;
+
+    @Value("${extraction.batching.output-fill:0.7}")
+    private double outputFill;
+
+    @Value("${extraction.batching.tokens-per-item:40}")
+    private int tokensPerItem;
+
+    @Value("${extraction.batching.vision-page-output-tokens:1400}")
+    private int visionPageOutputTokens;
+
+    @PostConstruct
+    void logSettings() {
+        log.info("Batch planner: up to {} pages, {} input tokens, {} of {} output tokens per call",
+                maxPages, maxInputTokens, outputBudget(), maxOutputTokens);
+    }
+
+    /** Estimated cost of one page in a call. */
+    static final class PageCost {
+        final int inputTokens;
+        final int outputTokens;
+
+        PageCost(int inputTokens, int outputTokens) {
+            this.inputTokens = inputTokens;
+            this.outputTokens = outputTokens;
+        }
+    }
+
+    /**
+     * Output tokens per vision page seen so far on one document.
+     */
+    static final class OutputHistory {
+        private final AtomicLong pages = new AtomicLong();
+        private final AtomicLong outputTokens = new AtomicLong();
+
+        void record(int pageCount, int tokens) {
+            outputTokens.addAndGet(tokens);
+            pages.addAndGet(pageCount);
+        }
+
+        /** Mean output tokens per page, or -1 before the first batch has returned. */
+        int perPage() {
+            long seen = pages.get();
+            return seen == 0 ? -1 : (int) (outputTokens.get() / seen);
+        }
+    }
+
+    PageCost textPage(String text) {
+        long rows = text.lines().filter(line -> AMOUNT.matcher(line).find()).count();
+        return new PageCost(text.length() / CHARS_PER_TOKEN, PAGE_OUTPUT_TOKENS + (int) rows * tokensPerItem);
+    }
+
+    PageCost visionPage(OutputHistory history, int imageTokens) {
+        int seen = history.perPage();
+        return new PageCost(imageTokens, seen < 0 ? visionPageOutputTokens : seen);
+    }
+
+    /**
+     * Whether one call can take all of {@code pages}. A single page always fits; if it does not
+     * fit the budget, it goes alone.
+     */
+    boolean fits(List<PageCost> pages) {
+        if (pages.size() <= 1) {
+            return true;
+        }
+        int input = 0;
+        int output = 0;
+        for (PageCost page : pages) {
+            input += page.inputTokens;
+            output += page.outputTokens;
+        }
+        return pages.size() <= maxPages && PROMPT_TOKENS + input <= maxInputTokens && output <= outputBudget();
+    }
+
+    /** Tokens to reserve against the TPM budget for a call, before its real usage is known. */
+    int estimateCallTokens(List<PageCost> pages, int maxTokens) {
+        return PROMPT_TOKENS + pages.stream().mapToInt(page -> page.inputTokens).sum() + maxTokens;
+    }
+
+    /** {@code max_tokens} for a first attempt. */
+    int getMaxOutputTokens() {
+        return maxOutputTokens;
+    }
+
+    /**
+     * {@code max_tokens} for retrying a single page whose answer was cut off at {@code maxTokens},
+     * or -1 when it is already at the ceiling.
+     */
+    int raiseMaxOutputTokens(int maxTokens) {
+        return maxTokens >= maxOutputTokensCeiling ? -1 : Math.min(maxTokens * 2, maxOutputTokensCeiling);
+    }
+
+    private int outputBudget() {
+        return (int) (maxOutputTokens * outputFill);
+    }
+}
@@ -1,134 +1,642 @@
 package com.bfhl.billextraction.service;
 
+import com.bfhl.billextraction.config.PdfProcessingConfig;
+import com.bfhl.billextraction.model.BatchExtractionResponse;
 import com.bfhl.billextraction.model.BillExtractionResponse;
 import com.bfhl.billextraction.model.BillItem;
+import com.bfhl.billextraction.model.DocumentExtractionResult;
 import com.bfhl.billextraction.model.ExtractionData;
+import com.bfhl.billextraction.model.PageProcessing;
+import com.bfhl.billextraction.model.PageRegion;
 import com.bfhl.billextraction.model.PageWiseLineItems;
 import com.bfhl.billextraction.model.TokenUsage;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.observation.Observation;
 import lombok.extern.slf4j.Slf4j;
 
 import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.apache.pdfbox.rendering.PDFRenderer;
+import org.apache.pdfbox.rendering.RenderDestination;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 
-import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.*;
 import java.net.URL;
+import java.net.URLConnection;
 import java.nio.file.Files;
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 @Slf4j
 @Service
 public class BillExtractionService {
 
-    private final RestTemplate restTemplate = new RestTemplate();
     private final ObjectMapper objectMapper = new ObjectMapper();
 
-    @Value("${openai.api.key}")
-    private String openaiApiKey;
+    @Autowired
+    private OpenAiClient openAiClient;
 
-    @Value("${openai.api.url}")
-    private String openaiApiUrl;
+    @Autowired
+    private VisionCallScheduler visionCallScheduler;
+
+    @Autowired
+    private ExtractionCache extractionCache;
+
+    @Autowired
+    private TextLayerClassifier textLayerClassifier;
+
+    @Autowired
+    private PageImageEncoder pageImageEncoder;
+
+    @Autowired
+    private PdfProcessingConfig pdfProcessingConfig;
+
+    @Autowired
+    private PageResolutionPlanner resolutionPlanner;
+
+    @Autowired
+    private RasterMemoryGovernor memoryGovernor;
+
+    @Autowired
+    private PageFingerprinter pageFingerprinter;
+
+    @Autowired
+    private ExtractionMetrics extractionMetrics;
+
+    @Autowired
+    private BatchPlanner batchPlanner;
+
+    @Autowired
+    private ExtractionCheckpointStore checkpointStore;
+
+    @Autowired
+    private TableRegionDetector tableRegionDetector;
+
+    @Autowired
+    private BillReconciler billReconciler;
+
+    @Autowired
+    private RasterPool rasterPool;
+
+    @Autowired
+    @Qualifier("renderExecutor")
+    private ExecutorService renderExecutor;
+
+    @Value("${openai.vision-model:gpt-4.1}")
+    private String visionModel;
+
+    @Value("${openai.text-model:gpt-4.1-mini}")
+    private String textModel;
+
+    @Value("${extraction.streaming.enabled:true}")
+    private boolean streamingEnabled;
+
+    @Value("${extraction.streaming.max-repeated-items:50}")
+    private int maxRepeatedItems;
+
+    @Value("${extraction.batch.max-documents:50}")
+    private int maxBatchDocuments;
+
+    @Value("${extraction.batch.pack-linger-ms:2000}")
+    private long packLingerMs;
+
+    @Value("${extraction.batch-retry.max-attempts:3}")
+    private int batchMaxAttempts;
+
+    @Value("${extraction.batch-retry.backoff-ms:1000}")
+    private long batchRetryBackoffMs;
 
     // Configuration constants
-    private static final int DEFAULT_DPI = 300;
-    private static final int LARGE_FILE_DPI = 200;
-    private static final int HUGE_FILE_DPI = 150;
-    private static final long LARGE_FILE_MB = 5;
-    private static final long HUGE_FILE_MB = 15;
-    private static final int BATCH_SIZE = 3;
-    private static final int PARALLEL_THREADS = 4;
-
-    private static class OpenAiResult {
-        final String content;
+    // Encoded pages waiting for the dispatcher; batches are sized by BatchPlanner
+    private static final int PIPELINE_QUEUE_CAPACITY = 3;
+    // Bump whenever buildEnhancedPrompt changes so cached page results are not reused across prompts
+    private static final String PROMPT_VERSION = "v3";
+    private static final String PATH_VISION = "vision";
+    private static final String PATH_TEXT_LAYER = "text_layer";
+    private static final String PATH_CACHE = "cache";
+    private static final String PATH_CHECKPOINT = "checkpoint";
+    private static final String PATH_BLANK = "blank";
+    private static final String PATH_DUPLICATE = "duplicate";
+    private static final String PATH_TIMED_OUT = "timed_out";
+    private static final long STAGE_POLL_MS = 500;
+    private static final int DOWNLOAD_TIMEOUT_MS = 30_000;
+    private static final double TEMPERATURE = 0.1;
+
+    /** A page leaving the render stage: either a raster or, for text-layer pages, its text. */
+    private static class RenderedPage {
+        static final RenderedPage END = new RenderedPage(-1, null, null, 0);
+
+        final int pageIndex;
+        final BufferedImage image;
+        final String text;
+        final int dpi;
+
+        RenderedPage(int pageIndex, BufferedImage image, String text, int dpi) {
+            this.pageIndex = pageIndex;
+            this.image = image;
+            this.text = text;
+            this.dpi = dpi;
+        }
+    }
+
+    /** A page leaving the encode stage: image bytes, text-layer text, or neither for a blank page. */
+    private static class EncodedPage {
+        static final EncodedPage END = new EncodedPage(-1, null, null, null, 0, null);
+
+        final int pageIndex;
+        final byte[] imageBytes;
+        final String text;
+        final String contentHash;
+        final int dpi;
+        final PageFingerprinter.PageFingerprint fingerprint; // null for text-layer pages or when dedup is off
+        final Rectangle crop; // pixels of the raster that were encoded; null for the whole page
+        final int imageTokens; // input tokens the model bills for the image
+        BatchPlanner.PageCost cost; // set by the dispatcher when the page is queued for a call
+
+        EncodedPage(int pageIndex, byte[] imageBytes, String text, String contentHash, int dpi,
+                    PageFingerprinter.PageFingerprint fingerprint) {
+            this(pageIndex, imageBytes, text, contentHash, dpi, fingerprint, null, 0);
+        }
+
+        EncodedPage(int pageIndex, byte[] imageBytes, String text, String contentHash, int dpi,
+                    PageFingerprinter.PageFingerprint fingerprint, Rectangle crop, int imageTokens) {
+            this.pageIndex = pageIndex;
+            this.imageBytes = imageBytes;
+            this.text = text;
+            this.contentHash = contentHash;
+            this.dpi = dpi;
+            this.fingerprint = fingerprint;
+            this.crop = crop;
+            this.imageTokens = imageTokens;
+        }
+
+        boolean isTextLayer() {
+            return text != null;
+        }
+
+        boolean isBlank() {
+            return text == null && imageBytes == null;
+        }
+    }
+
+    /**
+     * One slot of the merged result: either a dispatched batch or a single page served from the cache.
+     */
+    private static class BatchSlot {
+        final List<Integer> pageNumbers;
+        final CompletableFuture<BatchResult> result;
+        final SlotCalls calls;
+
+        BatchSlot(List<Integer> pageNumbers, CompletableFuture<BatchResult> result, SlotCalls calls) {
+            this.pageNumbers = pageNumbers;
+            this.result = result;
+            this.calls = calls;
+        }
+
+        static BatchSlot cached(int pageNo, ExtractionData pageData) {
+            return new BatchSlot(List.of(pageNo), CompletableFuture.completedFuture(new BatchResult(pageData, 0, 0)),
+                    new SlotCalls());
+        }
+    }
+
+    /** Parsed line items of a slot and the tokens spent on them, cut-off answers included. */
+    private static class BatchResult {
+        final ExtractionData data;
         final int inputTokens;
         final int outputTokens;
 
-        OpenAiResult(String content, int inputTokens, int outputTokens) {
-            this.content = content;
+        BatchResult(ExtractionData data, int inputTokens, int outputTokens) {
+            this.data = data;
             this.inputTokens = inputTokens;
             this.outputTokens = outputTokens;
         }
+
+        /** Both halves of a split batch, in page order. */
+        BatchResult plus(BatchResult other) {
+            List<PageWiseLineItems> pages = new ArrayList<>();
+            Optional.ofNullable(data.getPagewiseLineItems()).ifPresent(pages::addAll);
+            Optional.ofNullable(other.data.getPagewiseLineItems()).ifPresent(pages::addAll);
+            ExtractionData combined = new ExtractionData();
+            combined.setPagewiseLineItems(pages);
+            return new BatchResult(combined, inputTokens + other.inputTokens, outputTokens + other.outputTokens);
+        }
+
+        BatchResult plusTokens(OpenAiResult spent) {
+            return new BatchResult(data, inputTokens + spent.inputTokens, outputTokens + spent.outputTokens);
+        }
     }
+
+    /**
+     * Provider calls made for one slot, split and retried calls included, so they are cancelled together.
+     */
+    private static class SlotCalls {
+        private final List<Future<?>> calls = new ArrayList<>();
+        private boolean cancelled;
+
+        synchronized void add(Future<?> call) {
+            if (cancelled) {
+                call.cancel(true);
+            } else {
+                calls.add(call);
+            }
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            calls.forEach(call -> call.cancel(true));
+        }
+
+        synchronized boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    /**
+     * A call shared by several documents of a batch request. Its pages are numbered 1..n in the
+     * prompt; each document takes back its {@link CrossDocumentPacker.Share} of them, renumbered,
+     * with input tokens split by pages and output tokens by line items.
+     */
+    private static class PackedCall {
+        final BatchResult result;
+        final int pageCount;
+        final int[] itemsBefore; // line items on call pages before index i
+
+        PackedCall(BatchResult result, int pageCount) {
+            this.result = result;
+            this.pageCount = pageCount;
+            int[] items = new int[pageCount];
+            for (PageWiseLineItems page : pagesOf(result.data)) {
+                int index = pageNumberOf(page) - 1;
+                if (index >= 0 && index < pageCount && page.getBillItems() != null) {
+                    items[index] += page.getBillItems().size();
+                }
+            }
+            itemsBefore = new int[pageCount + 1];
+            for (int i = 0; i < pageCount; i++) {
+                itemsBefore[i + 1] = itemsBefore[i] + items[i];
+            }
+        }
+
+        /** One document's pages of the call, renumbered to {@code pageNumbers}, with its part of the tokens. */
+        BatchResult slice(CrossDocumentPacker.Share<PackedCall> share, List<Integer> pageNumbers) {
+            List<PageWiseLineItems> pages = new ArrayList<>();
+            for (PageWiseLineItems page : pagesOf(result.data)) {
+                int offset = pageNumberOf(page) - 1 - share.firstIndex;
+                if (offset >= 0 && offset < share.pageCount) {
+                    pages.add(new PageWiseLineItems(String.valueOf(pageNumbers.get(offset)),
+                            page.getPageType(), page.getBillItems(), page.getPageTotal(), null));
+                }
+            }
+            ExtractionData slice = new ExtractionData();
+            slice.setPagewiseLineItems(pages);
+
+            int from = share.firstIndex;
+            int to = share.firstIndex + share.pageCount;
+            int totalItems = itemsBefore[pageCount];
+            int outputTokens = totalItems == 0
+                    ? portion(result.outputTokens, from, to, pageCount)
+                    : portion(result.outputTokens, itemsBefore[from], itemsBefore[to], totalItems);
+            return new BatchResult(slice, portion(result.inputTokens, from, to, pageCount), outputTokens);
+        }
+
+        /** The part of {@code total} for the range [from, to) of {@code whole}; consecutive ranges add up exactly. */
+        private static int portion(int total, int from, int to, int whole) {
+            return (int) ((long) total * to / whole - (long) total * from / whole);
+        }
+
+        private static List<PageWiseLineItems> pagesOf(ExtractionData data) {
+            return data.getPagewiseLineItems() == null ? List.of() : data.getPagewiseLineItems();
+        }
+    }
+
+    /**
+     * Hands rendered pages to the encode stage in page order, whichever worker finishes first.
+     */
+    private static class PageSequencer {
+        private final BlockingQueue<RenderedPage> out;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition turn = lock.newCondition();
+        private int nextPageIndex = 0;
+        private Exception failure;
+
+        PageSequencer(BlockingQueue<RenderedPage> out) {
+            this.out = out;
+        }
+
+        /**
+         * Waits until every earlier page has been handed on, then hands on {@code page}.
+         * Returns false without handing it on once any worker has failed.
+         */
+        boolean emit(RenderedPage page) throws InterruptedException {
+            lock.lock();
+            try {
+                while (nextPageIndex != page.pageIndex && failure == null) {
+                    turn.await();
+                }
+                if (failure != null) {
+                    return false;
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            // Only the page whose turn it is gets here, so the put can block outside the lock
+            out.put(page);
+
+            lock.lock();
+            try {
+                nextPageIndex++;
+                turn.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            return true;
+        }
+
+        void fail(Exception e) {
+            lock.lock();
+            try {
+                if (failure == null) {
+                    failure = e;
+                }
+                turn.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void rethrowFailure() throws Exception {
+            lock.lock();
+            try {
+                if (failure != null) {
+                    throw failure;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Owns one document's stage threads. Every stage is a virtual thread forked here, and closing
+     * the scope interrupts and joins all of them, so no stage outlives the document it reads.
+     */
+    private static class PipelineScope implements AutoCloseable {
+        private final ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor();
+
+        <T> Future<T> fork(Callable<T> stage) {
+            return threads.submit(stage);
+        }
+
+        @Override
+        public void close() {
+            threads.shutdownNow();
+            threads.close();
+        }
+    }
+
     /**
      * Main entry point
      */
     public BillExtractionResponse extractBillData(String documentUrl) {
+        return extractBillData(documentUrl, ExtractionProgressListener.NONE);
+    }
+
+    /**
+     * Same as {@link #extractBillData(String)}, pushing each batch's pages to {@code listener} as they are parsed.
+     */
+    public BillExtractionResponse extractBillData(String documentUrl, ExtractionProgressListener listener) {
+        return extractBillData(documentUrl, listener, null);
+    }
+
+    /**
+     * Extracts several documents at once. They download and render concurrently, all their pages
+     * go through the shared scheduler, and the last, partial batch of each document is packed with
+     * other documents' into shared calls. Each document holds one of {@code slots} while it extracts,
+     * so a batch runs no more documents at once than the slots allow. Results come back in request
+     * order; a document that fails does not fail the others.
+     */
+    public BatchExtractionResponse extractBillDataBatch(List<String> documentUrls, Semaphore slots) {
+        if (documentUrls.isEmpty() || documentUrls.size() > maxBatchDocuments) {
+            throw new IllegalArgumentException("A batch takes 1 to " + maxBatchDocuments
+                    + " documents, got " + documentUrls.size());
+        }
+        log.info("=== Starting batch extraction of {} documents", documentUrls.size());
+        CrossDocumentPacker<EncodedPage, PackedCall> packer = new CrossDocumentPacker<>(
+                documentUrls.size(), this::fitsOneCall, packLingerMs, this::dispatchPacked);
+
+        List<Future<BillExtractionResponse>> running = new ArrayList<>();
+        try (ExecutorService documents = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (String documentUrl : documentUrls) {
+                CrossDocumentPacker<EncodedPage, PackedCall>.Participant participant = packer.participant();
+                running.add(documents.submit(() -> {
+                    try {
+                        slots.acquire();
+                    } catch (InterruptedException e) {
+                        participant.leave();
+                        throw e;
+                    }
+                    try {
+                        return extractBillData(documentUrl, ExtractionProgressListener.NONE, participant);
+                    } finally {
+                        slots.release();
+                    }
+                }));
+            }
+        }
+
+        List<DocumentExtractionResult> results = new ArrayList<>();
+        TokenUsage totalUsage = new TokenUsage(0, 0, 0);
+        int failed = 0;
+        for (int i = 0; i < documentUrls.size(); i++) {
+            Future<BillExtractionResponse> document = running.get(i);
+            BillExtractionResponse response = document.state() == Future.State.SUCCESS
+                    ? document.resultNow()
+                    : BillExtractionResponse.failure("Extraction failed: " + document.exceptionNow().getMessage());
+            results.add(new DocumentExtractionResult(documentUrls.get(i), response));
+            if (!response.isSuccess()) {
+                failed++;
+            } else if (response.getTokenUsage() != null) {
+                totalUsage.setInputTokens(totalUsage.getInputTokens() + response.getTokenUsage().getInputTokens());
+                totalUsage.setOutputTokens(totalUsage.getOutputTokens() + response.getTokenUsage().getOutputTokens());
+                totalUsage.setTotalTokens(totalUsage.getTotalTokens() + response.getTokenUsage().getTotalTokens());
+            }
+        }
+        log.info("=== Batch extraction done: {} of {} documents succeeded", documentUrls.size() - failed, documentUrls.size());
+        return new BatchExtractionResponse(failed == 0,
+                failed == 0 ? null : failed + " of " + documentUrls.size() + " documents failed", totalUsage, results);
+    }
+
+    private BillExtractionResponse extractBillData(String documentUrl, ExtractionProgressListener listener,
+                                                   CrossDocumentPacker<EncodedPage, PackedCall>.Participant participant) {
         long startTime = System.currentTimeMillis();
         log.info("=== Starting extraction for: {}", documentUrl);
+        listener = PageProgress.of(listener);
 
         // cumulative token usage
         TokenUsage totalUsage = new TokenUsage(0, 0, 0);
+        Deadline deadline = Deadline.after(Duration.ofSeconds(pdfProcessingConfig.getTotalProcessingTimeout()));
+        Observation extraction = extractionMetrics.startExtraction();
+        String outcome = "failed";
+        ExtractionCheckpointStore.Journal journal = null;
+
+        try (Observation.Scope scope = extraction.openScope()) {
+            File pdfFile = extractionMetrics.stage("download", extraction)
+                    .observeChecked(() -> downloadPdf(documentUrl, deadline));
+            log.info("Downloaded PDF: {} MB", String.format("%.2f", pdfFile.length() / (1024.0 * 1024.0)));
+            if (deadline.isExpired()) {
+                pdfFile.delete();
+                throw new TimeoutException("Deadline of " + deadline.getBudget().toSeconds()
+                        + "s exceeded while downloading the PDF");
+            }
 
-        try {
-            File pdfFile = downloadPdf(documentUrl);
-            log.info("Downloaded PDF: {:.2f} MB", pdfFile.length() / (1024.0 * 1024.0));
+            String documentHash = ExtractionCache.sha256(pdfFile);
+            String documentKey = ExtractionCache.documentKey(documentHash, PROMPT_VERSION,
+                    visionModel + ":" + textModel + ":" + pageImageEncoder.settings());
+            Optional<ExtractionCache.CachedExtraction> cached = extractionCache.getDocument(documentKey);
+            if (cached.isPresent()) {
+                pdfFile.delete();
+                log.info("=== Extraction served from cache ({}) in {} ms ===",
+                        documentHash, System.currentTimeMillis() - startTime);
+                outcome = "cached";
+                ExtractionData cachedData = cached.get().getData();
+                notifyListener(listener, cachedData.getPagewiseLineItems());
+                if (cachedData.getPageProcessing() != null) {
+                    // Nothing was rendered or sent this time
+                    cachedData.setPageProcessing(cachedData.getPageProcessing().stream()
+                            .map(page -> new PageProcessing(page.getPageNo(), PATH_CACHE, null))
+                            .toList());
+                }
+                BillExtractionResponse response =
+                        BillExtractionResponse.success(cachedData, cached.get().getTokenUsage());
+                response.setMessage(totalsMessage(cachedData));
+                return response;
+            }
 
-            ExtractionData data = processPdfDocument(pdfFile, totalUsage);
+            journal = checkpointStore.open(documentHash, PROMPT_VERSION);
+            ExtractionData data = processPdfDocument(pdfFile, totalUsage, listener, deadline, extraction, participant,
+                    journal);
             validateAndReconcile(data);
 
+            List<String> timedOutPages = data.getPageProcessing().stream()
+                    .filter(page -> PATH_TIMED_OUT.equals(page.getExtractionPath()))
+                    .map(PageProcessing::getPageNo)
+                    .toList();
+            if (!timedOutPages.isEmpty()) {
+                // Partial results are returned but never cached as the document's answer
+                log.warn("=== Extraction PARTIAL: deadline reached, pages {} not extracted ===", timedOutPages);
+                BillExtractionResponse partial = BillExtractionResponse.success(data, totalUsage);
+                String totals = totalsMessage(data);
+                partial.setMessage("Partial result: " + deadline.getBudget().toSeconds()
+                        + "s deadline reached before pages " + String.join(", ", timedOutPages) + " were extracted"
+                        + (totals == null ? "" : "; " + totals));
+                outcome = "partial";
+                return partial;
+            }
+            if (hasUnresolvedProblems(data)) {
+                // Problems left after the re-extraction budget may go away on another attempt
+                log.info("Not caching the result of {}: reconciliation problems remain", documentHash);
+            } else {
+                extractionCache.putDocument(documentKey, data, totalUsage);
+            }
+            journal.complete();
+
             long elapsedMs = System.currentTimeMillis() - startTime;
-            log.info("=== Extraction SUCCESS in {:.1f}s ===", elapsedMs / 1000.0);
+            log.info("=== Extraction SUCCESS in {}s ===", String.format("%.1f", elapsedMs / 1000.0));
+            outcome = "success";
 
-            return BillExtractionResponse.success(data, totalUsage);
+            BillExtractionResponse response = BillExtractionResponse.success(data, totalUsage);
+            response.setMessage(totalsMessage(data));
+            return response;
 
         } catch (Exception e) {
             long elapsedMs = System.currentTimeMillis() - startTime;
-            log.error("=== Extraction FAILED after {:.1f}s ===", elapsedMs / 1000.0, e);
+            log.error("=== Extraction FAILED after {}s ===", String.format("%.1f", elapsedMs / 1000.0), e);
+            extraction.error(e);
             return BillExtractionResponse.failure("Extraction failed: " + e.getMessage());
+        } finally {
+            if (journal != null) {
+                journal.close();
+            }
+            if (participant != null) {
+                participant.leave();
+            }
+            extractionMetrics.endExtraction(extraction, outcome);
         }
     }
 
-    private File downloadPdf(String pdfUrl) throws IOException {
+    private File downloadPdf(String pdfUrl, Deadline deadline) throws IOException {
         int maxRetries = 3;
+        int attempts = 0;
         Exception lastException = null;
 
         // Normalize: encode spaces as %20
         String normalizedUrl = pdfUrl.replace(" ", "%20");
 
-        for (int attempt = 1; attempt <= maxRetries; attempt++) {
+        for (int attempt = 1; attempt <= maxRetries && !deadline.isExpired(); attempt++) {
+            attempts = attempt;
             try {
                 log.debug("Download attempt {}/{}: {}", attempt, maxRetries, normalizedUrl);
-                URL url = new URL(normalizedUrl);
+                URLConnection connection = new URL(normalizedUrl).openConnection();
+                // 0 would mean "no timeout", so never go below 1 ms
+                int timeoutMs = (int) Math.max(1, Math.min(deadline.remainingMillis(), DOWNLOAD_TIMEOUT_MS));
+                connection.setConnectTimeout(timeoutMs);
+                connection.setReadTimeout(timeoutMs);
 
                 File tempFile = Files.createTempFile("bill_", ".pdf").toFile();
-                try (InputStream in = url.openStream();
+                try (InputStream in = connection.getInputStream();
                      OutputStream out = new FileOutputStream(tempFile)) {
                     in.transferTo(out);
                 }
                 return tempFile;
             } catch (IOException e) {
                 lastException = e;
-                if (attempt < maxRetries) {
+                long backoffMs = 1000L * attempt;
+                if (attempt < maxRetries && backoffMs < deadline.remainingMillis()) {
                     try {
-                        Thread.sleep(1000L * attempt);
+                        Thread.sleep(backoffMs);
                     } catch (InterruptedException ie) {
                         Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Download interrupted");
                     }
                 }
             }
         }
-        throw new IOException("Failed to download PDF after " + maxRetries + " attempts", lastException);
+        throw new IOException("Failed to download PDF after " + attempts + " attempts", lastException);
     }
 
 
-    private PDDocument loadPdfRobustly(File pdfFile) throws IOException {
+    PDDocument loadPdfRobustly(File pdfFile) throws IOException {
+        return loadPdfRobustly(pdfFile, Observation.NOOP);
+    }
+
+    /**
+     * Tries each load strategy in turn and tags {@code load} with the one that worked.
+     */
+    private PDDocument loadPdfRobustly(File pdfFile, Observation load) throws IOException {
         log.debug("Loading PDF: {} bytes", pdfFile.length());
 
         // Strategy 1: Standard load
         try {
             PDDocument doc = PDDocument.load(pdfFile);
             log.info("✓ PDF loaded (standard): {} pages", doc.getNumberOfPages());
+            load.lowCardinalityKeyValue("strategy", "standard");
             return doc;
         } catch (IOException e) {
             log.warn("Standard load failed: {}", e.getMessage());
@@ -138,6 +646,7 @@ public class BillExtractionService {
         try (InputStream is = new FileInputStream(pdfFile)) {
             PDDocument doc = PDDocument.load(is, (String) null, MemoryUsageSetting.setupTempFileOnly());
             log.info("✓ PDF loaded (lenient): {} pages", doc.getNumberOfPages());
+            load.lowCardinalityKeyValue("strategy", "lenient");
             return doc;
         } catch (IOException e) {
             log.warn("Lenient load failed: {}", e.getMessage());
@@ -147,6 +656,7 @@ public class BillExtractionService {
         try (InputStream is = new FileInputStream(pdfFile)) {
             PDDocument doc = PDDocument.load(is, (String) null, MemoryUsageSetting.setupMainMemoryOnly());
             log.info("✓ PDF loaded (memory-only): {} pages", doc.getNumberOfPages());
+            load.lowCardinalityKeyValue("strategy", "memory_only");
             return doc;
         } catch (IOException e) {
             log.error("All PDF load strategies failed");
@@ -156,148 +666,1243 @@ public class BillExtractionService {
 
 
 
-    private int calculateOptimalDpi(File pdfFile, PDDocument document) {
+    /**
+     * Upper bound for every page of the document, so huge files cannot blow up raster memory.
+     * The actual DPI of each page is chosen by {@link PageResolutionPlanner} below this cap.
+     */
+    private int calculateMaxDpi(File pdfFile, PDDocument document) {
         long fileSizeMb = pdfFile.length() / (1024 * 1024);
         int pageCount = document.getNumberOfPages();
+        PdfProcessingConfig config = pdfProcessingConfig;
 
-        if (fileSizeMb > HUGE_FILE_MB || pageCount > 15) {
-            log.info("Using DPI={} for huge PDF ({}MB, {} pages)", HUGE_FILE_DPI, fileSizeMb, pageCount);
-            return HUGE_FILE_DPI;
+        if (fileSizeMb > config.getHugeFileThresholdMb() || pageCount > config.getTooManyPagesThreshold()) {
+            log.info("DPI cap={} for huge PDF ({}MB, {} pages)", config.getHugeFileDpi(), fileSizeMb, pageCount);
+            return config.getHugeFileDpi();
         }
 
-        if (fileSizeMb > LARGE_FILE_MB || pageCount > 8) {
-            log.info("Using DPI={} for large PDF ({}MB, {} pages)", LARGE_FILE_DPI, fileSizeMb, pageCount);
-            return LARGE_FILE_DPI;
+        if (fileSizeMb > config.getLargeFileThresholdMb() || pageCount > config.getManyPagesThreshold()) {
+            log.info("DPI cap={} for large PDF ({}MB, {} pages)", config.getLargePdfDpi(), fileSizeMb, pageCount);
+            return config.getLargePdfDpi();
         }
 
-        log.info("Using DPI={} for standard PDF ({}MB, {} pages)", DEFAULT_DPI, fileSizeMb, pageCount);
-        return DEFAULT_DPI;
+        log.info("DPI cap={} for standard PDF ({}MB, {} pages)", config.getDefaultDpi(), fileSizeMb, pageCount);
+        return config.getDefaultDpi();
     }
-    private List<BufferedImage> renderPagesSequentially(PDDocument document, int dpi) throws Exception {
+    /**
+     * Streams pages through render -> encode -> LLM stages connected by bounded queues,
+     * so page N renders while page N-1 encodes and earlier batches are already in flight.
+     *
+     * When the deadline passes, intake stops, unfinished calls are cancelled and the pages already
+     * extracted are returned; every other page is reported with the {@code timed_out} path.
+     */
+    private ExtractionData processPdfDocument(File pdfFile, TokenUsage totalUsage, ExtractionProgressListener listener,
+                                              Deadline deadline, Observation extraction,
+                                              CrossDocumentPacker<EncodedPage, PackedCall>.Participant participant,
+                                              ExtractionCheckpointStore.Journal journal) throws Exception {
+        List<BatchSlot> slots = new ArrayList<>();
+        Observation load = extractionMetrics.stage("load", extraction).lowCardinalityKeyValue("strategy", "none");
+
+        // Resources close in reverse order: stage threads are joined before memory is released
+        // and the document is closed
+        try (PDDocument document = load.observeChecked(() -> loadPdfRobustly(pdfFile, load));
+             RasterMemoryGovernor.Reservation memory = memoryGovernor.admit(document,
+                     calculateMaxDpi(pdfFile, document), PIPELINE_QUEUE_CAPACITY, renderWorkers(), deadline);
+             PipelineScope stages = new PipelineScope()) {
+
+            int maxDpi = memory.getMaxDpi();
+            int pageCount = document.getNumberOfPages();
+            extractionMetrics.recordDocumentPages(pageCount);
+
+            BlockingQueue<RenderedPage> renderedQueue = new ArrayBlockingQueue<>(memory.getQueueDepth());
+            BlockingQueue<EncodedPage> encodedQueue = new ArrayBlockingQueue<>(PIPELINE_QUEUE_CAPACITY);
+
+            log.info("Pipelining {} pages (DPI cap={})", pageCount, maxDpi);
+
+            Future<?> renderStage = stages.fork(() -> {
+                renderPages(pdfFile, document, maxDpi, memory.getRenderWorkers(), renderedQueue, memory, extraction);
+                return null;
+            });
+            Future<?> encodeStage = stages.fork(() -> {
+                encodePages(renderedQueue, encodedQueue, memory, extraction);
+                // Every raster is encoded and dropped; the LLM calls still running need no raster memory
+                memory.close();
+                return null;
+            });
+
+            // Dispatch stage: drop blank pages, fold repeated pages onto their first occurrence,
+            // serve checkpointed and cached pages directly, and send the rest to the shared scheduler as soon as
+            // the vision or text-layer batch has no room for another page
+            List<EncodedPage> visionPages = new ArrayList<>();
+            List<EncodedPage> textPages = new ArrayList<>();
+            BatchPlanner.OutputHistory outputHistory = new BatchPlanner.OutputHistory();
+            Map<Integer, String> pagePaths = new TreeMap<>();
+            Map<Integer, Integer> pageDpis = new HashMap<>();
+            Map<Integer, PageRegion> pageCrops = new HashMap<>();
+            Map<Integer, String> pageReasons = new HashMap<>();
+            Map<Integer, String> pageHashes = new HashMap<>();
+            Map<Integer, Integer> duplicateOf = new TreeMap<>();
+            Map<String, Integer> firstPageByHash = new HashMap<>();
+            Map<Integer, PageFingerprinter.PageFingerprint> distinctFingerprints = new LinkedHashMap<>();
+            boolean deadlineReached = false;
+
+            while (true) {
+                EncodedPage page = takeFromStage(encodedQueue, deadline, renderStage, encodeStage);
+                if (page == null) {
+                    // Nothing new is dispatched past the deadline; pages still being batched time out
+                    deadlineReached = true;
+                    visionPages.forEach(pending -> pagePaths.put(pending.pageIndex + 1, PATH_TIMED_OUT));
+                    textPages.forEach(pending -> pagePaths.put(pending.pageIndex + 1, PATH_TIMED_OUT));
+                    break;
+                }
+                if (page != EncodedPage.END) {
+                    int pageNo = page.pageIndex + 1;
+                    if (!page.isTextLayer()) {
+                        pageDpis.put(pageNo, page.dpi);
+                    }
+                    if (page.crop != null) {
+                        pageCrops.put(pageNo, toPoints(page.crop, page.dpi));
+                    }
+                    Integer original = page.isBlank() ? null
+                            : findOriginal(page, firstPageByHash, distinctFingerprints);
+                    if (page.isBlank()) {
+                        log.debug("Page {} is blank, skipping", pageNo);
+                        pagePaths.put(pageNo, PATH_BLANK);
+                        pageReasons.put(pageNo, String.format("ink coverage %.2f%% is at most %.2f%%",
+                                page.fingerprint.getInkCoverage() * 100, pageFingerprinter.getBlankMaxInkCoverage() * 100));
+                    } else if (original != null) {
+                        log.debug("Page {} duplicates page {}, skipping", pageNo, original);
+                        pagePaths.put(pageNo, PATH_DUPLICATE);
+                        duplicateOf.put(pageNo, original);
+                        pageReasons.put(pageNo, duplicateReason(page, original, firstPageByHash, distinctFingerprints));
+                    } else {
+                        firstPageByHash.putIfAbsent(page.contentHash, pageNo);
+                        pageHashes.put(pageNo, page.contentHash);
+                        if (page.fingerprint != null) {
+                            distinctFingerprints.put(pageNo, page.fingerprint);
+                        }
+                        if (routePage(page, pagePaths, pageReasons, slots, listener, journal)) {
+                            List<EncodedPage> batch = page.isTextLayer() ? textPages : visionPages;
+                            page.cost = page.isTextLayer()
+                                    ? batchPlanner.textPage(page.text)
+                                    : batchPlanner.visionPage(outputHistory, page.imageTokens);
+                            if (!batch.isEmpty() && !fitsOneCall(concat(batch, page))) {
+                                slots.add(checkpointed(dispatchBatch(List.copyOf(batch), pageCount, listener,
+                                        outputHistory, extraction), journal));
+                                batch.clear();
+                            }
+                            batch.add(page);
+                        }
+                    }
+                }
+
+                boolean end = page == EncodedPage.END;
+                for (List<EncodedPage> batch : List.of(visionPages, textPages)) {
+                    if (!batch.isEmpty() && (end || isFull(batch))) {
+                        slots.add(checkpointed(dispatchOrPack(List.copyOf(batch), pageCount, listener, outputHistory,
+                                extraction, end ? participant : null), journal));
+                        batch.clear();
+                    }
+                }
+
+                if (end) {
+                    break;
+                }
+            }
+            if (participant != null) {
+                // Nothing more to pack from this document; do not hold up the shared calls
+                participant.leave();
+            }
+
+            log.info("✓ Page routing: {} text-layer, {} vision, {} checkpointed, {} cached, {} blank, {} duplicate",
+                    Collections.frequency(pagePaths.values(), PATH_TEXT_LAYER),
+                    Collections.frequency(pagePaths.values(), PATH_VISION),
+                    Collections.frequency(pagePaths.values(), PATH_CHECKPOINT),
+                    Collections.frequency(pagePaths.values(), PATH_CACHE),
+                    Collections.frequency(pagePaths.values(), PATH_BLANK),
+                    Collections.frequency(pagePaths.values(), PATH_DUPLICATE));
+
+            // Surface any render/encode failure before collecting results
+            if (!deadlineReached) {
+                renderStage.get();
+                encodeStage.get();
+            }
+
+            // Which call each page came from, so rows repeated across call boundaries can be told apart
+            Map<Integer, Integer> batchOf = new HashMap<>();
+            for (int i = 0; i < slots.size(); i++) {
+                int batchIndex = i;
+                slots.get(i).pageNumbers.forEach(pageNo -> batchOf.put(pageNo, batchIndex));
+            }
+
+            List<ExtractionData> batchResults = new ArrayList<>();
+            for (BatchSlot slot : slots) {
+                BatchResult batch;
+                try {
+                    batch = unwrap(slot.result, deadline);
+                } catch (TimeoutException e) {
+                    log.warn("Deadline reached waiting for pages {}, cancelling", formatPages(slot.pageNumbers));
+                    slot.calls.cancel();
+                    slot.pageNumbers.forEach(pageNo -> pagePaths.put(pageNo, PATH_TIMED_OUT));
+                    continue;
+                }
+
+                // accumulate tokens
+                totalUsage.setInputTokens(totalUsage.getInputTokens() + batch.inputTokens);
+                totalUsage.setOutputTokens(totalUsage.getOutputTokens() + batch.outputTokens);
+                totalUsage.setTotalTokens(
+                        totalUsage.getTotalTokens() + batch.inputTokens + batch.outputTokens
+                );
+                batchResults.add(batch.data);
+            }
+
+            for (int pageNo = 1; pageNo <= pageCount; pageNo++) {
+                pagePaths.putIfAbsent(pageNo, PATH_TIMED_OUT);
+            }
+
+            ExtractionData merged = extractionMetrics.stage("merge", extraction)
+                    .observe(() -> mergeBatchResults(batchResults));
+            if (billReconciler.isEnabled() && !deadlineReached) {
+                reconcilePages(document, maxDpi, merged, batchOf, pagePaths, pageDpis, pageCrops, pageReasons,
+                        pageHashes, totalUsage, deadline, extraction);
+            }
+            copyDuplicatePages(merged, duplicateOf, pagePaths, listener);
+            merged.getPagewiseLineItems().forEach(page -> page.setCrop(pageCrops.get(pageNumberOf(page))));
+            extractionMetrics.recordPagePaths(pagePaths);
+            List<PageProcessing> pageProcessing = new ArrayList<>();
+            pagePaths.forEach((pageNo, path) -> {
+                Integer original = duplicateOf.get(pageNo);
+                pageProcessing.add(new PageProcessing(String.valueOf(pageNo), path, pageDpis.get(pageNo),
+                        original == null ? null : String.valueOf(original), pageReasons.get(pageNo)));
+            });
+            merged.setPageProcessing(pageProcessing);
+            return merged;
+
+        } finally {
+            slots.forEach(slot -> slot.calls.cancel());
+            if (pdfFile.exists()) {
+                pdfFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Renders pages with one worker per document handle: PDFBox is not thread-safe within a
+     * document, so every worker beyond the first opens its own handle on the same file. Workers claim
+     * the next page from a shared counter, render it on the shared pool and hand pages on strictly in
+     * page order, so batches stay contiguous and at most one finished raster per worker waits its turn.
+     */
+    private void renderPages(File pdfFile, PDDocument document, int maxDpi, int workers, BlockingQueue<RenderedPage> out,
+                             RasterMemoryGovernor.Reservation memory, Observation extraction) throws Exception {
         int pageCount = document.getNumberOfPages();
-        PDFRenderer renderer = new PDFRenderer(document);
-        List<BufferedImage> images = new ArrayList<>();
+        List<PDDocument> handles = openWorkerHandles(pdfFile, document, workers);
+        AtomicInteger nextPage = new AtomicInteger();
+        PageSequencer sequencer = new PageSequencer(out);
+
+        try (PipelineScope workerScope = new PipelineScope()) {
+            log.info("Rendering {} pages with {} worker(s)", pageCount, handles.size());
+            List<Future<?>> running = new ArrayList<>();
+            for (PDDocument handle : handles) {
+                running.add(workerScope.fork(() -> {
+                    renderWorker(handle, maxDpi, nextPage, sequencer, memory, extraction);
+                    return null;
+                }));
+            }
+            for (Future<?> worker : running) {
+                unwrap(worker);
+            }
+            sequencer.rethrowFailure();
+            log.info("✓ Prepared {} pages successfully", pageCount);
+        } finally {
+            handles.stream().filter(handle -> handle != document).forEach(BillExtractionService::closeQuietly);
+            out.put(RenderedPage.END);
+        }
+    }
 
-        log.info("Rendering {} pages sequentially (DPI={})", pageCount, dpi);
+    private void renderWorker(PDDocument handle, int maxDpi, AtomicInteger nextPage, PageSequencer sequencer,
+                              RasterMemoryGovernor.Reservation memory, Observation extraction) throws InterruptedException {
+        PDFRenderer renderer = new PDFRenderer(handle);
+        int pageCount = handle.getNumberOfPages();
+        try {
+            for (int pageIndex = nextPage.getAndIncrement(); pageIndex < pageCount; pageIndex = nextPage.getAndIncrement()) {
+                RenderedPage page = renderPage(handle, renderer, pageIndex, maxDpi, memory, extraction);
+                if (!sequencer.emit(page)) {
+                    return; // another worker failed; the stage is being torn down
+                }
+            }
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            sequencer.fail(e);
+        }
+    }
 
-        for (int i = 0; i < pageCount; i++) {
-            int pageIndex = i;
+    private RenderedPage renderPage(PDDocument handle, PDFRenderer renderer, int pageIndex, int maxDpi,
+                                    RasterMemoryGovernor.Reservation memory, Observation extraction) throws Exception {
+        int pageCount = handle.getNumberOfPages();
+        Observation render = extractionMetrics.stage("render", extraction)
+                .lowCardinalityKeyValue("path", PATH_VISION)
+                .highCardinalityKeyValue("page", String.valueOf(pageIndex + 1));
+        try {
+            return onRenderPool(() -> render.observeChecked(() -> {
+                String text = textLayerClassifier.extractUsableText(handle, pageIndex);
+                if (text != null) {
+                    log.debug("Page {}/{} has a usable text layer, skipping render", pageIndex + 1, pageCount);
+                    render.lowCardinalityKeyValue("path", PATH_TEXT_LAYER);
+                    return new RenderedPage(pageIndex, null, text, 0);
+                }
+                int dpi = resolutionPlanner.planDpi(handle, pageIndex, maxDpi);
+                log.debug("Rendering page {}/{} at {} DPI", pageIndex + 1, pageCount, dpi);
+                BufferedImage image = renderRaster(handle, renderer, pageIndex, dpi);
+                memory.track(image);
+                return new RenderedPage(pageIndex, image, null, dpi);
+            }), TimeUnit.SECONDS.toMillis(pdfProcessingConfig.getPdfRenderTimeout()));
+        } catch (TimeoutException e) {
+            throw new Exception("Page rendering timeout on page " + (pageIndex + 1), e);
+        } catch (IllegalStateException e) {
+            log.error("PDFBox recursion error while rendering page {}: {}", pageIndex + 1, e.getMessage(), e);
+            throw new Exception("Unsupported/corrupted PDF structure on page " + (pageIndex + 1) + ": " + e.getMessage(), e);
+        } catch (IOException e) {
+            log.error("Failed to render page {}", pageIndex + 1, e);
+            throw new Exception("Failed to render page " + (pageIndex + 1), e);
+        }
+    }
+
+    /**
+     * Draws a page into a pooled raster of the size and type {@link PDFRenderer#renderImageWithDPI}
+     * would allocate, cleared to the background it would start from.
+     */
+    BufferedImage renderRaster(PDDocument handle, PDFRenderer renderer, int pageIndex, int dpi) throws IOException {
+        PDPage page = handle.getPage(pageIndex);
+        PDRectangle cropBox = page.getCropBox();
+        float scale = dpi / 72f;
+        int width = (int) Math.max(Math.floor(cropBox.getWidth() * scale), 1);
+        int height = (int) Math.max(Math.floor(cropBox.getHeight() * scale), 1);
+        boolean sideways = page.getRotation() == 90 || page.getRotation() == 270;
+        BufferedImage image = rasterPool.acquire(sideways ? height : width, sideways ? width : height,
+                RasterPool.bufferedImageType(pageImageEncoder.renderImageType()));
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setBackground(image.getType() == BufferedImage.TYPE_INT_ARGB ? new Color(0, 0, 0, 0) : Color.WHITE);
+            g.clearRect(0, 0, image.getWidth(), image.getHeight());
+            renderer.renderPageToGraphics(pageIndex, g, scale, scale, RenderDestination.EXPORT);
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    /**
+     * The already-loaded document plus up to {@code workers - 1} extra handles on the same file.
+     * A handle that cannot be opened just means one worker fewer.
+     */
+    private static List<PDDocument> openWorkerHandles(File pdfFile, PDDocument document, int workers) {
+        List<PDDocument> handles = new ArrayList<>();
+        handles.add(document);
+        int wanted = Math.min(workers, document.getNumberOfPages());
+        while (handles.size() < wanted) {
             try {
-                log.debug("Rendering page {}/{}", pageIndex + 1, pageCount);
-                BufferedImage img = renderer.renderImageWithDPI(pageIndex, dpi);
-                images.add(img);
-            } catch (IllegalStateException e) {
-                log.error("PDFBox recursion error while rendering page {}: {}", pageIndex + 1, e.getMessage(), e);
-                throw new Exception("Unsupported/corrupted PDF structure on page " + (pageIndex + 1) + ": " + e.getMessage(), e);
+                handles.add(PDDocument.load(pdfFile, MemoryUsageSetting.setupTempFileOnly()));
             } catch (IOException e) {
-                log.error("Failed to render page {}", pageIndex + 1, e);
-                throw new Exception("Failed to render page " + (pageIndex + 1), e);
+                log.warn("Cannot open render worker handle, continuing with {}: {}", handles.size(), e.getMessage());
+                break;
             }
         }
+        return handles;
+    }
 
-        log.info("✓ Rendered {} pages successfully", images.size());
-        return images;
+    private static void closeQuietly(PDDocument document) {
+        try {
+            document.close();
+        } catch (IOException e) {
+            log.debug("Failed to close render worker handle: {}", e.getMessage());
+        }
     }
 
+    /**
+     * Serves a new page from an earlier attempt's checkpoint or the page cache, or records its path
+     * and returns true when it needs a text-layer or vision call.
+     */
+    private boolean routePage(EncodedPage page, Map<Integer, String> pagePaths, Map<Integer, String> pageReasons,
+                              List<BatchSlot> slots, ExtractionProgressListener listener,
+                              ExtractionCheckpointStore.Journal journal) {
+        int pageNo = page.pageIndex + 1;
+        ExtractionCheckpointStore.Checkpoint checkpoint = journal.find(pageNo);
+        if (checkpoint != null) {
+            log.debug("Page {} served from checkpoint of pages {}", pageNo, formatPages(checkpoint.getPages()));
+            pagePaths.put(pageNo, PATH_CHECKPOINT);
+            pageReasons.put(pageNo, "extracted in batch " + formatPages(checkpoint.getPages()) + " of an earlier attempt");
+            ExtractionData pageData = journal.pageData(checkpoint, pageNo);
+            notifyListener(listener, pageData.getPagewiseLineItems());
+            slots.add(BatchSlot.cached(pageNo, pageData));
+            return false;
+        }
+        Optional<ExtractionData> cachedPage = extractionCache.getPage(page.contentHash, PROMPT_VERSION);
+        if (cachedPage.isPresent()) {
+            log.debug("Page {} served from cache", pageNo);
+            pagePaths.put(pageNo, PATH_CACHE);
+            ExtractionData pageData = withPageNo(cachedPage.get(), pageNo);
+            notifyListener(listener, pageData.getPagewiseLineItems());
+            slots.add(BatchSlot.cached(pageNo, pageData));
+            return false;
+        }
+        pagePaths.put(pageNo, page.isTextLayer() ? PATH_TEXT_LAYER : PATH_VISION);
+        return true;
+    }
 
-    private List<BufferedImage> renderPagesInParallel(PDDocument document, int dpi) throws Exception {
-        int pageCount = document.getNumberOfPages();
-        PDFRenderer renderer = new PDFRenderer(document);
+    /** Whether one call can take all of {@code pages}, by their estimated tokens. */
+    private boolean fitsOneCall(List<EncodedPage> pages) {
+        return batchPlanner.fits(pages.stream().map(page -> page.cost).toList());
+    }
+
+    /** Whether a batch has no room for one more page like its last one. */
+    private boolean isFull(List<EncodedPage> pages) {
+        return !fitsOneCall(concat(pages, pages.get(pages.size() - 1)));
+    }
+
+    private static List<EncodedPage> concat(List<EncodedPage> pages, EncodedPage page) {
+        List<EncodedPage> grown = new ArrayList<>(pages);
+        grown.add(page);
+        return grown;
+    }
+
+    /**
+     * Earlier page that {@code page} repeats: same bytes or text, or (for rendered pages) a
+     * near-identical perceptual hash. Null when the page is new or deduplication is off.
+     */
+    private Integer findOriginal(EncodedPage page, Map<String, Integer> firstPageByHash,
+                                 Map<Integer, PageFingerprinter.PageFingerprint> distinctFingerprints) {
+        if (!pageFingerprinter.isEnabled()) {
+            return null;
+        }
+        Integer identical = firstPageByHash.get(page.contentHash);
+        if (identical != null || page.fingerprint == null) {
+            return identical;
+        }
+        for (Map.Entry<Integer, PageFingerprinter.PageFingerprint> earlier : distinctFingerprints.entrySet()) {
+            if (pageFingerprinter.isDuplicate(page.fingerprint, earlier.getValue())) {
+                return earlier.getKey();
+            }
+        }
+        return null;
+    }
 
-        ExecutorService executor = Executors.newFixedThreadPool(PARALLEL_THREADS);
-        List<Future<BufferedImage>> futures = new ArrayList<>();
+    private static String duplicateReason(EncodedPage page, int original, Map<String, Integer> firstPageByHash,
+                                          Map<Integer, PageFingerprinter.PageFingerprint> distinctFingerprints) {
+        if (Objects.equals(firstPageByHash.get(page.contentHash), original)) {
+            return "identical to page " + original;
+        }
+        return "near duplicate of page " + original + " ("
+                + page.fingerprint.distanceTo(distinctFingerprints.get(original)) + " of "
+                + PageFingerprinter.GRID_CELLS + " thumbnail cells differ)";
+    }
+
+    /**
+     * Gives every duplicate page a copy of its original's line items. A duplicate of a page that
+     * was not extracted in time is reported as timed out as well.
+     */
+    private static void copyDuplicatePages(ExtractionData merged, Map<Integer, Integer> duplicateOf,
+                                           Map<Integer, String> pagePaths, ExtractionProgressListener listener) {
+        if (duplicateOf.isEmpty()) {
+            return;
+        }
+        List<PageWiseLineItems> copies = new ArrayList<>();
+        duplicateOf.forEach((pageNo, original) -> {
+            if (PATH_TIMED_OUT.equals(pagePaths.get(original))) {
+                pagePaths.put(pageNo, PATH_TIMED_OUT);
+                return;
+            }
+            for (PageWiseLineItems page : merged.getPagewiseLineItems()) {
+                if (pageNumberOf(page) == original) {
+                    copies.add(new PageWiseLineItems(String.valueOf(pageNo), page.getPageType(),
+                            page.getBillItems(), page.getPageTotal(), null));
+                }
+            }
+        });
+        notifyListener(listener, copies);
+        merged.getPagewiseLineItems().addAll(copies);
+        merged.getPagewiseLineItems().sort(Comparator.comparingInt(BillExtractionService::pageNumberOf));
+    }
+
+    /**
+     * Extracts the pages failing {@link BillReconciler}'s checks again, sent as images even when they
+     * had a text layer, one call per suspect. A page whose table was cropped on the first pass is
+     * rendered at the highest DPI (up to the document's cap) at which that crop still survives
+     * {@link PageImageEncoder#fitForVision}, and cropped the same way; any other page at the DPI
+     * that whole page survives at, since more would be scaled away again. A page keeps its
+     * new line items only when they cover it and have fewer problems. Runs while the document is still
+     * open; suspects beyond {@code max-pages}, or not answered before the deadline, keep their first
+     * result and have the problems noted as their reason.
+     */
+    private void reconcilePages(PDDocument document, int maxDpi, ExtractionData merged, Map<Integer, Integer> batchOf,
+                                Map<Integer, String> pagePaths, Map<Integer, Integer> pageDpis,
+                                Map<Integer, PageRegion> pageCrops, Map<Integer, String> pageReasons,
+                                Map<Integer, String> pageHashes, TokenUsage totalUsage, Deadline deadline,
+                                Observation extraction) throws Exception {
+        List<BillReconciler.Suspect> suspects =
+                new ArrayList<>(billReconciler.review(merged.getPagewiseLineItems(), batchOf));
+        BillReconciler.Suspect totals = billReconciler.grandTotalSuspect(merged.getPagewiseLineItems(), suspects);
+        if (totals != null) {
+            suspects.add(totals);
+        }
+        if (suspects.isEmpty()) {
+            return;
+        }
 
-        log.info("Rendering {} pages in parallel (DPI={})", pageCount, dpi);
+        int budget = billReconciler.getMaxPages();
+        List<BillReconciler.Suspect> retried = new ArrayList<>();
+        for (BillReconciler.Suspect suspect : suspects) {
+            if (suspect.getPages().size() <= budget && !deadline.isExpired()) {
+                retried.add(suspect);
+                budget -= suspect.getPages().size();
+            } else {
+                noteProblems(suspect, pageReasons, "not extracted again");
+            }
+        }
+        if (retried.isEmpty()) {
+            return;
+        }
 
-        for (int i = 0; i < pageCount; i++) {
-            final int pageIndex = i;
-            Future<BufferedImage> future = executor.submit(() -> {
+        int pageCount = document.getNumberOfPages();
+        Map<Integer, Integer> renderDpis = new HashMap<>();
+        for (BillReconciler.Suspect suspect : retried) {
+            for (int pageNo : suspect.getPages()) {
+                renderDpis.put(pageNo - 1, rerenderDpi(document.getPage(pageNo - 1), pageCrops.get(pageNo), maxDpi));
+            }
+        }
+        List<BillReconciler.Suspect> sent = new ArrayList<>();
+        List<CompletableFuture<BatchResult>> results = new ArrayList<>();
+        List<SlotCalls> calls = new ArrayList<>();
+        List<List<EncodedPage>> rendered = new ArrayList<>();
+        try (RasterMemoryGovernor.Reservation memory = memoryGovernor.admitPages(document, renderDpis, deadline)) {
+            PDFRenderer renderer = new PDFRenderer(document);
+            for (BillReconciler.Suspect suspect : retried) {
+                log.warn("Pages {} do not add up, extracting them again: {}",
+                        formatPages(suspect.getPages()), String.join("; ", suspect.getProblems()));
+                List<EncodedPage> pages = new ArrayList<>();
                 try {
-                    log.debug("Rendering page {}/{}", pageIndex + 1, pageCount);
-                    return renderer.renderImageWithDPI(pageIndex, dpi);
-                } catch (IOException e) {
-                    throw new RuntimeException("Failed to render page " + (pageIndex + 1), e);
+                    for (int pageNo : suspect.getPages()) {
+                        int dpi = Math.min(renderDpis.get(pageNo - 1), memory.getMaxDpi());
+                        pages.add(rerenderPage(document, renderer, pageNo - 1, dpi, pageCrops.get(pageNo),
+                                memory, extraction));
+                    }
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    log.warn("Cannot render pages {} again: {}", formatPages(suspect.getPages()), e.getMessage());
+                    noteProblems(suspect, pageReasons, "could not be rendered again");
+                    continue;
                 }
-            });
-            futures.add(future);
+                SlotCalls slotCalls = new SlotCalls();
+                sent.add(suspect);
+                calls.add(slotCalls);
+                rendered.add(pages);
+                results.add(extractBatch(pages, suspect.getPages(), pageCount, batchPlanner.getMaxOutputTokens(),
+                        null, slotCalls, null, extraction, 1));
+            }
+        } catch (TimeoutException e) {
+            retried.forEach(suspect -> noteProblems(suspect, pageReasons, "deadline reached before extracting again"));
+            return;
         }
 
-        List<BufferedImage> images = new ArrayList<>();
-        for (int i = 0; i < futures.size(); i++) {
+        for (int i = 0; i < sent.size(); i++) {
+            BillReconciler.Suspect suspect = sent.get(i);
+            BatchResult batch;
             try {
-                BufferedImage img = futures.get(i).get(120, TimeUnit.SECONDS);
-                images.add(img);
+                batch = unwrap(results.get(i), deadline);
             } catch (TimeoutException e) {
-                executor.shutdownNow();
-                throw new Exception("Page rendering timeout on page " + (i + 1));
+                calls.get(i).cancel();
+                noteProblems(suspect, pageReasons, "deadline reached extracting again");
+                continue;
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                log.warn("Extracting pages {} again failed: {}", formatPages(suspect.getPages()), e.getMessage());
+                noteProblems(suspect, pageReasons, "extracting again failed");
+                continue;
+            }
+            totalUsage.setInputTokens(totalUsage.getInputTokens() + batch.inputTokens);
+            totalUsage.setOutputTokens(totalUsage.getOutputTokens() + batch.outputTokens);
+            totalUsage.setTotalTokens(totalUsage.getTotalTokens() + batch.inputTokens + batch.outputTokens);
+
+            List<PageWiseLineItems> fresh = Optional.ofNullable(batch.data.getPagewiseLineItems()).orElse(List.of())
+                    .stream().filter(page -> suspect.getPages().contains(pageNumberOf(page))).toList();
+            int remaining = billReconciler.review(fresh, Map.of()).stream()
+                    .mapToInt(left -> left.getProblems().size()).sum();
+            if (suspect.isGrandTotal()) {
+                List<PageWiseLineItems> candidate = new ArrayList<>(merged.getPagewiseLineItems());
+                candidate.removeIf(page -> suspect.getPages().contains(pageNumberOf(page)));
+                candidate.addAll(fresh);
+                if (billReconciler.checkGrandTotal(candidate) != null) {
+                    remaining++;
+                }
+            }
+            boolean covered = fresh.stream().map(BillExtractionService::pageNumberOf).distinct().count()
+                    == suspect.getPages().size();
+            if (!covered || remaining >= suspect.getProblems().size()) {
+                log.warn("Extracting pages {} again did not resolve their problems, keeping the first result",
+                        formatPages(suspect.getPages()));
+                noteProblems(suspect, pageReasons, "unresolved after extracting again");
+                continue;
             }
+
+            merged.getPagewiseLineItems().removeIf(page -> suspect.getPages().contains(pageNumberOf(page)));
+            merged.getPagewiseLineItems().addAll(fresh);
+            List<String> originalHashes = new ArrayList<>();
+            List<Integer> hashedPages = new ArrayList<>();
+            for (EncodedPage page : rendered.get(i)) {
+                int pageNo = page.pageIndex + 1;
+                pagePaths.put(pageNo, PATH_VISION);
+                pageDpis.put(pageNo, page.dpi);
+                if (page.crop != null) {
+                    pageCrops.put(pageNo, toPoints(page.crop, page.dpi));
+                } else {
+                    pageCrops.remove(pageNo);
+                }
+                if (pageHashes.containsKey(pageNo)) {
+                    hashedPages.add(pageNo);
+                    originalHashes.add(pageHashes.get(pageNo));
+                }
+            }
+            String dpis = rendered.get(i).stream().map(page -> String.valueOf(page.dpi)).distinct()
+                    .collect(Collectors.joining("/"));
+            noteProblems(suspect, pageReasons, "extracted again at " + dpis + " DPI");
+            // The next request for the same page content should get the corrected items
+            ExtractionData corrected = new ExtractionData();
+            corrected.setPagewiseLineItems(new ArrayList<>(fresh));
+            cachePages(hashedPages, originalHashes, corrected);
+            log.info("✓ Pages {} extracted again: {} of {} problems left",
+                    formatPages(suspect.getPages()), remaining, suspect.getProblems().size());
         }
+        merged.getPagewiseLineItems().sort(Comparator.comparingInt(BillExtractionService::pageNumberOf));
+    }
 
-        executor.shutdown();
-        log.info("✓ Rendered {} pages successfully", images.size());
-        return images;
+    /**
+     * DPI for re-rendering {@code page} in {@link #reconcilePages}: the highest at which its first-pass
+     * crop (or, without one, the whole page) survives {@link PageImageEncoder#fitForVision}, within
+     * the document's cap.
+     */
+    private int rerenderDpi(PDPage page, PageRegion crop, int maxDpi) {
+        PDRectangle box = page.getCropBox();
+        double widthInches = (crop != null ? crop.getWidth() : box.getWidth()) / 72.0;
+        double heightInches = (crop != null ? crop.getHeight() : box.getHeight()) / 72.0;
+        double useful = pageImageEncoder.maxUsefulDpi(widthInches, heightInches);
+        return (int) Math.max(pdfProcessingConfig.getMinPageDpi(), Math.min(maxDpi, Math.floor(useful)));
     }
 
-    private ExtractionData processPdfDocument(File pdfFile, TokenUsage totalUsage) throws Exception {
-        try (PDDocument document = loadPdfRobustly(pdfFile)) {
+    /**
+     * Renders, crops and encodes one page for {@link #reconcilePages}, recycling the raster before
+     * returning. The page is cropped to {@code knownCrop} (points) when the first pass cropped it, so
+     * the higher DPI goes to the same table; otherwise the table region is detected afresh.
+     */
+    private EncodedPage rerenderPage(PDDocument document, PDFRenderer renderer, int pageIndex, int dpi,
+                                     PageRegion knownCrop, RasterMemoryGovernor.Reservation memory,
+                                     Observation extraction) throws Exception {
+        Observation render = extractionMetrics.stage("render", extraction)
+                .lowCardinalityKeyValue("path", PATH_VISION)
+                .highCardinalityKeyValue("page", String.valueOf(pageIndex + 1));
+        try {
+            return onRenderPool(() -> render.observeChecked(() -> {
+                BufferedImage image = renderRaster(document, renderer, pageIndex, dpi);
+                memory.track(image);
+                try {
+                    Rectangle crop = knownCrop != null ? toPixels(knownCrop, dpi, image)
+                            : tableRegionDetector.detect(image);
+                    BufferedImage sent = crop == null ? image
+                            : image.getSubimage(crop.x, crop.y, crop.width, crop.height);
+                    byte[] imageBytes = encodePageImage(sent);
+                    EncodedPage page = new EncodedPage(pageIndex, imageBytes, null, ExtractionCache.sha256(imageBytes),
+                            dpi, null, crop, pageImageEncoder.visionTokens(sent.getWidth(), sent.getHeight()));
+                    page.cost = batchPlanner.visionPage(new BatchPlanner.OutputHistory(), page.imageTokens);
+                    return page;
+                } finally {
+                    memory.untrack(image);
+                    rasterPool.release(image);
+                }
+            }), TimeUnit.SECONDS.toMillis(pdfProcessingConfig.getPdfRenderTimeout()));
+        } catch (TimeoutException e) {
+            throw new Exception("Page rendering timeout on page " + (pageIndex + 1), e);
+        }
+    }
 
-            int dpi = calculateOptimalDpi(pdfFile, document);
-            List<BufferedImage> allImages = renderPagesSequentially(document, dpi);
+    /**
+     * The grand total mismatch left in {@code data} after reconciliation, for the response message;
+     * null when the totals agree or reconciliation is off.
+     */
+    private String totalsMessage(ExtractionData data) {
+        if (!billReconciler.isEnabled() || data.getPagewiseLineItems() == null) {
+            return null;
+        }
+        String mismatch = billReconciler.checkGrandTotal(data.getPagewiseLineItems());
+        if (mismatch == null) {
+            return null;
+        }
+        log.warn("Reconciliation: {}", mismatch);
+        return "Totals do not reconcile: " + mismatch;
+    }
 
+    /** Whether {@link BillReconciler} still finds problems in {@code data} after reconciliation. */
+    private boolean hasUnresolvedProblems(ExtractionData data) {
+        if (!billReconciler.isEnabled() || data.getPagewiseLineItems() == null) {
+            return false;
+        }
+        return !billReconciler.review(data.getPagewiseLineItems(), Map.of()).isEmpty()
+                || billReconciler.checkGrandTotal(data.getPagewiseLineItems()) != null;
+    }
 
-            List<ExtractionData> batchResults = new ArrayList<>();
+    /** Appends what reconciliation found, and what came of it, to each suspect page's reason. */
+    private static void noteProblems(BillReconciler.Suspect suspect, Map<Integer, String> pageReasons, String outcome) {
+        String note = "reconciliation: " + String.join("; ", suspect.getProblems()) + " (" + outcome + ")";
+        suspect.getPages().forEach(pageNo -> pageReasons.merge(pageNo, note, (reason, added) -> reason + "; " + added));
+    }
 
-            for (int i = 0; i < allImages.size(); i += BATCH_SIZE) {
-                int endIndex = Math.min(i + BATCH_SIZE, allImages.size());
-                List<BufferedImage> batch = allImages.subList(i, endIndex);
+    /**
+     * Records the slot's batch in the document's checkpoint journal once it has been extracted.
+     */
+    private static BatchSlot checkpointed(BatchSlot slot, ExtractionCheckpointStore.Journal journal) {
+        CompletableFuture<BatchResult> result = slot.result.thenApply(batch -> {
+            journal.append(slot.pageNumbers, batch.data, batch.inputTokens, batch.outputTokens);
+            return batch;
+        });
+        return new BatchSlot(slot.pageNumbers, result, slot.calls);
+    }
 
-                log.info("Processing batch: pages {}-{}/{}", i + 1, endIndex, allImages.size());
+    /**
+     * Dispatches a full batch; a document's last, partial batch goes to the shared calls instead
+     * when the document is part of a batch request.
+     */
+    private BatchSlot dispatchOrPack(List<EncodedPage> pages, int pageCount, ExtractionProgressListener listener,
+                                     BatchPlanner.OutputHistory outputHistory, Observation extraction,
+                                     CrossDocumentPacker<EncodedPage, PackedCall>.Participant participant) {
+        if (participant == null || isFull(pages)) {
+            return dispatchBatch(pages, pageCount, listener, outputHistory, extraction);
+        }
+        List<Integer> pageNumbers = pages.stream().map(page -> page.pageIndex + 1).toList();
+        String path = pages.get(0).isTextLayer() ? PATH_TEXT_LAYER : PATH_VISION;
+        log.info("Packing {} pages {}/{} into a shared call", path, formatPages(pageNumbers), pageCount);
+
+        CrossDocumentPacker.Share<PackedCall> share = participant.offer(path, pages);
+        CompletableFuture<BatchResult> result = share.call.thenApply(call -> {
+            BatchResult slice = call.slice(share, pageNumbers);
+            notifyListener(listener, slice.data.getPagewiseLineItems());
+            return slice;
+        });
+        return new BatchSlot(pageNumbers, result, new SlotCalls());
+    }
 
-                String batchPrompt = buildEnhancedPrompt(i + 1, endIndex, allImages.size());
-                OpenAiResult result = callOpenAiVisionBatch(batch, batchPrompt);
+    /**
+     * Sends pages of several documents as one call, numbered 1..n in the prompt.
+     */
+    private CompletableFuture<PackedCall> dispatchPacked(List<EncodedPage> pages) {
+        List<Integer> callPageNumbers = IntStream.rangeClosed(1, pages.size()).boxed().toList();
+        log.info("Dispatching shared {} batch of {} pages",
+                pages.get(0).isTextLayer() ? PATH_TEXT_LAYER : PATH_VISION, pages.size());
+
+        return extractBatch(pages, callPageNumbers, pages.size(), batchPlanner.getMaxOutputTokens(),
+                null, new SlotCalls(), null, null, 1)
+                .thenApply(batch -> new PackedCall(batch, pages.size()));
+    }
 
-                // accumulate tokens
-                totalUsage.setInputTokens(totalUsage.getInputTokens() + result.inputTokens);
-                totalUsage.setOutputTokens(totalUsage.getOutputTokens() + result.outputTokens);
-                totalUsage.setTotalTokens(
-                        totalUsage.getTotalTokens() + result.inputTokens + result.outputTokens
-                );
+    /**
+     * Sends one batch of pages that all share a path (text-layer or vision) to the scheduler.
+     */
+    private BatchSlot dispatchBatch(List<EncodedPage> pages, int pageCount, ExtractionProgressListener listener,
+                                    BatchPlanner.OutputHistory outputHistory, Observation extraction) {
+        List<Integer> pageNumbers = pages.stream().map(page -> page.pageIndex + 1).toList();
+        log.info("Dispatching {} batch: pages {}/{} (~{} output tokens)",
+                pages.get(0).isTextLayer() ? PATH_TEXT_LAYER : PATH_VISION, formatPages(pageNumbers), pageCount,
+                pages.stream().mapToInt(page -> page.cost.outputTokens).sum());
+
+        SlotCalls calls = new SlotCalls();
+        // Progress is pushed as soon as a page is parsed rather than in page order
+        CompletableFuture<BatchResult> result = extractBatch(pages, pageNumbers, pageCount,
+                batchPlanner.getMaxOutputTokens(), outputHistory, calls, listener, extraction, 1);
+        return new BatchSlot(pageNumbers, result, calls);
+    }
+
+    /**
+     * Calls the model for {@code pages} and parses the answer. When an answer stops early (cut off at
+     * {@code max_tokens}, or abandoned while streaming) the pages it completed are kept and only the
+     * rest are requested again. With nothing completed, the batch is split in two, and a single page
+     * cut off is retried with a higher {@code max_tokens} until the ceiling. A failed call or an answer
+     * that is not valid JSON is retried in place, {@code attempt} counting from 1. Tokens of every call
+     * count. {@code listener} (null for shared calls) gets pages as they are parsed.
+     */
+    private CompletableFuture<BatchResult> extractBatch(List<EncodedPage> pages, List<Integer> pageNumbers, int pageCount,
+                                                        int maxTokens, BatchPlanner.OutputHistory outputHistory,
+                                                        SlotCalls calls, ExtractionProgressListener listener,
+                                                        Observation extraction, int attempt) {
+        CompletableFuture<OpenAiResult> call = submitBatch(pages, pageNumbers, pageCount, maxTokens, listener, extraction);
+        calls.add(call);
+        return call.handle((result, error) -> {
+            if (error != null) {
+                return retryLater(error, pages, pageNumbers, pageCount, maxTokens, outputHistory, calls, listener,
+                        extraction, attempt);
+            }
+            if (outputHistory != null && !pages.get(0).isTextLayer()) {
+                outputHistory.record(pages.size(), result.outputTokens);
+            }
+            if (!result.isTruncated() && !result.isAborted()) {
+                ExtractionData batchData;
+                try {
+                    batchData = parseBatch(result, pages, pageNumbers, extraction);
+                } catch (CompletionException e) {
+                    return retryLater(e, pages, pageNumbers, pageCount, maxTokens, outputHistory, calls, listener,
+                            extraction, attempt).thenApply(batch -> batch.plusTokens(result));
+                }
+                if (!streamingEnabled) {
+                    notifyListener(listener, batchData.getPagewiseLineItems());
+                }
+                return CompletableFuture.completedFuture(
+                        new BatchResult(batchData, result.inputTokens, result.outputTokens));
+            }
+
+            String stopped = result.isTruncated() ? "cut off at " + result.outputTokens + " output tokens" : "stopped early";
+            BatchResult kept = completedPages(result, pageNumbers);
+            if (kept != null) {
+                List<Integer> keptNumbers = kept.data.getPagewiseLineItems().stream()
+                        .map(BillExtractionService::pageNumberOf).distinct().toList();
+                List<EncodedPage> rest = new ArrayList<>();
+                List<Integer> restNumbers = new ArrayList<>();
+                List<String> keptHashes = new ArrayList<>();
+                for (int i = 0; i < pages.size(); i++) {
+                    if (keptNumbers.contains(pageNumbers.get(i))) {
+                        keptHashes.add(pages.get(i).contentHash);
+                    } else {
+                        rest.add(pages.get(i));
+                        restNumbers.add(pageNumbers.get(i));
+                    }
+                }
+                List<Integer> cachedNumbers = pageNumbers.stream().filter(keptNumbers::contains).toList();
+                cachePages(cachedNumbers, keptHashes, kept.data);
+                if (!streamingEnabled) {
+                    notifyListener(listener, kept.data.getPagewiseLineItems());
+                }
+                if (rest.isEmpty()) {
+                    return CompletableFuture.completedFuture(kept);
+                }
+                log.warn("Answer for pages {} {}, keeping pages {} and requesting {} again",
+                        formatPages(pageNumbers), stopped, formatPages(cachedNumbers), formatPages(restNumbers));
+                return extractBatch(rest, restNumbers, pageCount, maxTokens, outputHistory, calls, listener, extraction, 1)
+                        .thenApply(kept::plus);
+            }
+
+            CompletableFuture<BatchResult> retried;
+            if (pages.size() > 1) {
+                int half = (pages.size() + 1) / 2;
+                log.warn("Answer for pages {} {}, splitting the batch", formatPages(pageNumbers), stopped);
+                retried = extractBatch(pages.subList(0, half), pageNumbers.subList(0, half), pageCount,
+                        maxTokens, outputHistory, calls, listener, extraction, 1)
+                        .thenCombine(extractBatch(pages.subList(half, pages.size()),
+                                pageNumbers.subList(half, pages.size()), pageCount,
+                                maxTokens, outputHistory, calls, listener, extraction, 1), BatchResult::plus);
+            } else {
+                int raised = result.isTruncated() ? batchPlanner.raiseMaxOutputTokens(maxTokens) : -1;
+                if (raised < 0) {
+                    throw new CompletionException(new IOException("Answer for page " + pageNumbers.get(0) + " " + stopped));
+                }
+                log.warn("Answer for page {} {}, retrying with max_tokens={}", pageNumbers.get(0), stopped, raised);
+                retried = extractBatch(pages, pageNumbers, pageCount, raised, outputHistory, calls, listener, extraction, 1);
+            }
+            return retried.thenApply(batch -> batch.plusTokens(result));
+        }).thenCompose(Function.identity());
+    }
+
+    /**
+     * Requests the batch again after an exponential backoff, unless its slot was cancelled, the
+     * call was interrupted, or {@code attempt} was the last one; then {@code error} stands.
+     */
+    private CompletableFuture<BatchResult> retryLater(Throwable error, List<EncodedPage> pages, List<Integer> pageNumbers,
+                                                      int pageCount, int maxTokens,
+                                                      BatchPlanner.OutputHistory outputHistory, SlotCalls calls,
+                                                      ExtractionProgressListener listener, Observation extraction,
+                                                      int attempt) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (attempt >= batchMaxAttempts || calls.isCancelled()
+                || cause instanceof CancellationException || cause instanceof InterruptedIOException) {
+            return CompletableFuture.failedFuture(cause);
+        }
+        long backoffMs = batchRetryBackoffMs << (attempt - 1);
+        log.warn("Call for pages {} failed on attempt {} of {} ({}), retrying in {} ms",
+                formatPages(pageNumbers), attempt, batchMaxAttempts, cause.getMessage(), backoffMs);
+        Executor later = CompletableFuture.delayedExecutor(backoffMs, TimeUnit.MILLISECONDS, Thread::startVirtualThread);
+        return CompletableFuture.supplyAsync(() -> extractBatch(pages, pageNumbers, pageCount, maxTokens, outputHistory,
+                        calls, listener, extraction, attempt + 1), later)
+                .thenCompose(Function.identity());
+    }
+
+    /**
+     * The page entries an answer that stopped early did complete, restricted to the batch's pages, with
+     * the call's tokens; null if there are none. A page whose entry was still open is left out even if
+     * an earlier entry for it completed, since a page with several tables may have several entries.
+     */
+    private BatchResult completedPages(OpenAiResult result, List<Integer> pageNumbers) {
+        StreamingExtractionParser partial = StreamingExtractionParser.of(objectMapper, result.content);
+        List<PageWiseLineItems> completed = partial.getCompletedPages();
+        Integer openPage = null;
+        if (partial.isPageOpen()) {
+            openPage = partial.getOpenPageNo() != null
+                    ? pageNumberOf(new PageWiseLineItems(partial.getOpenPageNo(), null, null))
+                    : completed.isEmpty() ? null : pageNumberOf(completed.get(completed.size() - 1));
+        }
+        List<PageWiseLineItems> kept = new ArrayList<>();
+        for (PageWiseLineItems page : completed) {
+            int pageNo = pageNumberOf(page);
+            if (pageNumbers.contains(pageNo) && !Objects.equals(openPage, pageNo)) {
+                kept.add(page);
+            }
+        }
+        if (kept.isEmpty()) {
+            return null;
+        }
+        ExtractionData data = new ExtractionData();
+        data.setPagewiseLineItems(kept);
+        return new BatchResult(data, result.inputTokens, result.outputTokens);
+    }
+
+    private ExtractionData parseBatch(OpenAiResult result, List<EncodedPage> pages, List<Integer> pageNumbers,
+                                      Observation extraction) {
+        try {
+            ExtractionData batchData = extractionMetrics.stage("parse", extraction)
+                    .observeChecked(() -> parseExtractionResponse(result.content));
+            cachePages(pageNumbers, pages.stream().map(page -> page.contentHash).toList(), batchData);
+            return batchData;
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * Queues the provider call for {@code pages}, which the prompt calls {@code pageNumbers} of {@code pageCount}.
+     */
+    private CompletableFuture<OpenAiResult> submitBatch(List<EncodedPage> pages, List<Integer> pageNumbers, int pageCount,
+                                                        int maxTokens, ExtractionProgressListener listener,
+                                                        Observation extraction) {
+        int estimatedTokens = batchPlanner.estimateCallTokens(pages.stream().map(page -> page.cost).toList(), maxTokens);
+        int estimatedInputTokens = estimatedTokens - maxTokens;
+        if (pages.get(0).isTextLayer()) {
+            List<String> texts = pages.stream().map(page -> page.text).toList();
+            String textPrompt = buildTextLayerPrompt(pageNumbers, pageCount, texts);
+            return visionCallScheduler.submit(
+                    pageCount,
+                    estimatedTokens,
+                    () -> callOpenAiText(textPrompt, maxTokens, estimatedInputTokens, pageNumbers, listener, extraction),
+                    r -> r.inputTokens + r.outputTokens);
+        }
+        List<byte[]> images = pages.stream().map(page -> page.imageBytes).toList();
+        String batchPrompt = buildEnhancedPrompt(pageNumbers, pageCount, pages.stream().anyMatch(page -> page.crop != null));
+        return visionCallScheduler.submit(
+                pageCount,
+                estimatedTokens,
+                () -> callOpenAiVisionBatch(images, batchPrompt, maxTokens, estimatedInputTokens, pageNumbers,
+                        listener, extraction),
+                r -> r.inputTokens + r.outputTokens);
+    }
+
+    private static void notifyListener(ExtractionProgressListener listener, List<PageWiseLineItems> pages) {
+        if (listener == null || pages == null || pages.isEmpty()) {
+            return;
+        }
+        try {
+            listener.onPages(pages);
+        } catch (RuntimeException e) {
+            log.warn("Progress listener failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * One document's progress: a page reaches {@link ExtractionProgressListener#onPages} once, and a
+     * page reported again (it streamed, then its batch was retried) reaches
+     * {@link ExtractionProgressListener#onPagesReplaced} instead.
+     */
+    private static final class PageProgress implements ExtractionProgressListener {
+        private final ExtractionProgressListener delegate;
+        private final Set<Integer> reported = ConcurrentHashMap.newKeySet();
 
-                ExtractionData batchData = parseExtractionResponse(result.content);
-                batchResults.add(batchData);
+        private PageProgress(ExtractionProgressListener delegate) {
+            this.delegate = delegate;
+        }
+
+        static ExtractionProgressListener of(ExtractionProgressListener listener) {
+            return listener == null || listener == NONE ? listener : new PageProgress(listener);
+        }
+
+        @Override
+        public void onPages(List<PageWiseLineItems> pages) {
+            List<PageWiseLineItems> added = new ArrayList<>();
+            List<PageWiseLineItems> replaced = new ArrayList<>();
+            for (PageWiseLineItems page : pages) {
+                int pageNo = pageNumberOf(page);
+                // A page the model did not number cannot be matched to an earlier one
+                (pageNo == Integer.MAX_VALUE || reported.add(pageNo) ? added : replaced).add(page);
+            }
+            if (!added.isEmpty()) {
+                delegate.onPages(added);
+            }
+            if (!replaced.isEmpty()) {
+                delegate.onPagesReplaced(replaced);
+            }
+        }
+
+        @Override
+        public void onPagesReplaced(List<PageWiseLineItems> pages) {
+            delegate.onPagesReplaced(pages);
+        }
+
+        @Override
+        public void onItem(String pageNo, BillItem item) {
+            delegate.onItem(pageNo, item);
+        }
+    }
+
+    /**
+     * Stores each page of a batch result under its own image hash. Skipped when the model's page_no
+     * values do not map cleanly onto the batch, since the per-page split would then be a guess.
+     */
+    private void cachePages(List<Integer> pageNumbers, List<String> pageHashes, ExtractionData batchData) {
+        Map<Integer, List<PageWiseLineItems>> byPage = new HashMap<>();
+        for (Integer pageNo : pageNumbers) {
+            byPage.put(pageNo, new ArrayList<>());
+        }
 
-                batch.forEach(BufferedImage::flush);
+        List<PageWiseLineItems> pages = batchData.getPagewiseLineItems();
+        if (pages != null) {
+            for (PageWiseLineItems page : pages) {
+                List<PageWiseLineItems> bucket = byPage.get(pageNumberOf(page));
+                if (bucket == null) {
+                    log.debug("Not caching pages {}: unexpected page_no '{}'",
+                            formatPages(pageNumbers), page.getPageNo());
+                    return;
+                }
+                bucket.add(page);
             }
+        }
 
-            ExtractionData mergedData = mergeBatchResults(batchResults);
+        for (int i = 0; i < pageNumbers.size(); i++) {
+            List<PageWiseLineItems> pageItems = byPage.get(pageNumbers.get(i));
+            ExtractionData pageData = new ExtractionData();
+            pageData.setPagewiseLineItems(pageItems);
+            extractionCache.putPage(pageHashes.get(i), PROMPT_VERSION, pageData);
+        }
+    }
 
-            allImages.clear();
-            System.gc();
+    private static ExtractionData withPageNo(ExtractionData pageData, int pageNo) {
+        if (pageData.getPagewiseLineItems() == null) {
+            pageData.setPagewiseLineItems(new ArrayList<>());
+        }
+        pageData.getPagewiseLineItems().forEach(page -> page.setPageNo(String.valueOf(pageNo)));
+        return pageData;
+    }
+
+    /** {@code region} (points) as pixels of {@code image} rendered at {@code dpi}, clipped to the image. */
+    private static Rectangle toPixels(PageRegion region, int dpi, BufferedImage image) {
+        double pixels = dpi / 72.0;
+        Rectangle crop = new Rectangle((int) Math.floor(region.getX() * pixels), (int) Math.floor(region.getY() * pixels),
+                (int) Math.ceil(region.getWidth() * pixels), (int) Math.ceil(region.getHeight() * pixels))
+                .intersection(new Rectangle(image.getWidth(), image.getHeight()));
+        return crop.isEmpty() ? null : crop;
+    }
+
+    /** {@code crop} of a raster rendered at {@code dpi}, in PDF points rounded to a tenth. */
+    private static PageRegion toPoints(Rectangle crop, int dpi) {
+        double points = 72.0 / dpi;
+        return new PageRegion(Math.round(crop.x * points * 10) / 10.0, Math.round(crop.y * points * 10) / 10.0,
+                Math.round(crop.width * points * 10) / 10.0, Math.round(crop.height * points * 10) / 10.0);
+    }
+
+    private static int pageNumberOf(PageWiseLineItems page) {
+        try {
+            return Integer.parseInt(page.getPageNo().trim());
+        } catch (RuntimeException e) {
+            return Integer.MAX_VALUE;
+        }
+    }
 
-            return mergedData;
+    private static String formatPages(List<Integer> pageNumbers) {
+        int first = pageNumbers.get(0);
+        int last = pageNumbers.get(pageNumbers.size() - 1);
+        if (last - first + 1 == pageNumbers.size()) {
+            return first == last ? String.valueOf(first) : first + "-" + last;
+        }
+        StringJoiner joiner = new StringJoiner(", ");
+        pageNumbers.forEach(pageNo -> joiner.add(String.valueOf(pageNo)));
+        return joiner.toString();
+    }
 
+    private void encodePages(BlockingQueue<RenderedPage> in, BlockingQueue<EncodedPage> out,
+                             RasterMemoryGovernor.Reservation memory, Observation extraction) throws Exception {
+        try {
+            while (true) {
+                RenderedPage page = in.take();
+                if (page == RenderedPage.END) {
+                    break;
+                }
+                if (page.text != null) {
+                    out.put(new EncodedPage(page.pageIndex, null, page.text,
+                            ExtractionCache.sha256("text:" + page.text), 0, null));
+                    continue;
+                }
+                EncodedPage encoded;
+                try {
+                    encoded = onRenderPool(() -> {
+                        PageFingerprinter.PageFingerprint fingerprint = pageFingerprinter.isEnabled()
+                                ? pageFingerprinter.fingerprint(page.image) : null;
+                        if (fingerprint != null && pageFingerprinter.isBlank(fingerprint)) {
+                            // Nothing to extract, so nothing to encode either
+                            return new EncodedPage(page.pageIndex, null, null, null, page.dpi, fingerprint);
+                        }
+                        // Only the line-item table is sent when the rest of the page can be told apart
+                        Rectangle crop = tableRegionDetector.detect(page.image);
+                        BufferedImage sent = crop == null ? page.image
+                                : page.image.getSubimage(crop.x, crop.y, crop.width, crop.height);
+                        byte[] imageBytes = extractionMetrics.stage("encode", extraction)
+                                .lowCardinalityKeyValue("format", pageImageEncoder.mediaType())
+                                .highCardinalityKeyValue("page", String.valueOf(page.pageIndex + 1))
+                                .observeChecked(() -> encodePageImage(sent));
+                        return new EncodedPage(page.pageIndex, imageBytes, null, ExtractionCache.sha256(imageBytes),
+                                page.dpi, fingerprint, crop, pageImageEncoder.visionTokens(sent.getWidth(), sent.getHeight()));
+                    });
+                } finally {
+                    // Recycle the raster before waiting on the dispatcher; only the encoded bytes travel on
+                    memory.untrack(page.image);
+                    rasterPool.release(page.image);
+                }
+                out.put(encoded);
+            }
         } finally {
-            if (pdfFile.exists()) {
-                pdfFile.delete();
+            out.put(EncodedPage.END);
+        }
+    }
+
+    /**
+     * Runs CPU-bound work on the shared platform pool while the calling stage thread waits.
+     */
+    private <T> T onRenderPool(Callable<T> task) throws Exception {
+        return onRenderPool(task, Long.MAX_VALUE);
+    }
+
+    private <T> T onRenderPool(Callable<T> task, long timeoutMs) throws Exception {
+        Future<T> future = renderExecutor.submit(task);
+        try {
+            return future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
             }
+            throw e;
+        } catch (InterruptedException | TimeoutException e) {
+            future.cancel(true);
+            throw e;
         }
     }
 
+    /**
+     * Render workers a document may use: one per pool thread, so a single large scan can use every core.
+     */
+    private int renderWorkers() {
+        return Math.max(1, pdfProcessingConfig.getParallelRenderingThreads());
+    }
 
-    private String buildEnhancedPrompt(int startPage, int endPage, int totalPages) {
+    /**
+     * Takes the next page from the final stage queue, failing fast if an upstream stage has died.
+     * Returns null once the deadline has passed.
+     */
+    private EncodedPage takeFromStage(BlockingQueue<EncodedPage> queue, Deadline deadline,
+                                      Future<?>... stages) throws Exception {
+        while (true) {
+            EncodedPage page = queue.poll(Math.min(STAGE_POLL_MS, deadline.remainingMillis()), TimeUnit.MILLISECONDS);
+            if (page != null) {
+                return page;
+            }
+            if (deadline.isExpired()) {
+                return null;
+            }
+            for (Future<?> stage : stages) {
+                if (stage.isDone()) {
+                    unwrap(stage);
+                }
+            }
+        }
+    }
+
+    private static <T> T unwrap(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+    private static <T> T unwrap(Future<T> future, Deadline deadline) throws Exception {
+        try {
+            return future.get(deadline.remainingMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+
+    private String buildEnhancedPrompt(List<Integer> pageNumbers, int totalPages, boolean cropped) {
         StringBuilder sb = new StringBuilder();
         sb.append("You are an expert medical bill extraction system. ")
                 .append("Extract line items from pages ")
-                .append(startPage).append("-").append(endPage)
+                .append(formatPages(pageNumbers))
                 .append(" (of ").append(totalPages).append(" total).\n\n")
 
                 .append("CRITICAL RULES:\n")
                 .append("1. SCAN ALL PAGES: Extract from EVERY page shown. Do NOT stop at the first table.\n")
                 .append("2. SCAN ALL TABLES: If a page has multiple bills/tables, extract ALL of them.\n")
                 .append("3. NO SKIPPING: Every row with a charge MUST become a bill_item (unless it's a header/total).\n")
-                .append("4. NO DEDUPLICATION: If the same item appears multiple times, keep each occurrence.\n\n")
+                .append("4. NO DEDUPLICATION: If the same item appears multiple times, keep each occurrence.\n")
+                .append("5. PAGE NUMBERS: The images are pages ").append(formatPages(pageNumbers))
+                .append(" in that order. Use these numbers as page_no.\n");
+        if (cropped) {
+            sb.append("6. CROPPED PAGES: Some images show only the table region of their page. ")
+                    .append("Extract what is shown; use the column headers and headings visible in the image.\n");
+        }
+        sb.append("\n");
+
+        appendOutputFormat(sb);
+        return sb.toString();
+    }
+
+    /**
+     * Text-only variant of {@link #buildEnhancedPrompt} for pages whose PDF text layer is usable.
+     */
+    private String buildTextLayerPrompt(List<Integer> pageNumbers, int totalPages, List<String> pageTexts) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("You are an expert medical bill extraction system. ")
+                .append("Extract line items from the text of pages ")
+                .append(formatPages(pageNumbers))
+                .append(" (of ").append(totalPages).append(" total). ")
+                .append("The text was taken from the PDF text layer; each table row is on its own line.\n\n")
+
+                .append("CRITICAL RULES:\n")
+                .append("1. SCAN ALL PAGES: Extract from EVERY page below. Do NOT stop at the first table.\n")
+                .append("2. SCAN ALL TABLES: If a page has multiple bills/tables, extract ALL of them.\n")
+                .append("3. NO SKIPPING: Every row with a charge MUST become a bill_item (unless it's a header/total).\n")
+                .append("4. NO DEDUPLICATION: If the same item appears multiple times, keep each occurrence.\n")
+                .append("5. PAGE NUMBERS: Use the number in each PAGE marker as page_no.\n\n");
+
+        appendOutputFormat(sb);
+
+        for (int i = 0; i < pageNumbers.size(); i++) {
+            sb.append("\n\n=== PAGE ").append(pageNumbers.get(i)).append(" ===\n")
+                    .append(pageTexts.get(i));
+        }
+        return sb.toString();
+    }
 
-                .append("OUTPUT STRICTLY IN THIS JSON SHAPE:\n")
+    private static void appendOutputFormat(StringBuilder sb) {
+        sb.append("OUTPUT STRICTLY IN THIS JSON SHAPE:\n")
                 .append("{\n")
                 .append("  \"pagewise_line_items\": [\n")
                 .append("    {\n")
@@ -310,7 +1915,8 @@ public class BillExtractionService {
                 .append("          \"item_rate\": float,\n")
                 .append("          \"item_quantity\": float\n")
                 .append("        }\n")
-                .append("      ]\n")
+                .append("      ],\n")
+                .append("      \"page_total\": float | null\n")
                 .append("    }\n")
                 .append("  ]\n")
                 .append("}\n\n")
@@ -318,85 +1924,100 @@ public class BillExtractionService {
                 .append("- item_name must match the bill text as closely as possible.\n")
                 .append("- item_amount is the net amount for that line (after any discount, as printed).\n")
                 .append("- item_rate and item_quantity must match the bill.\n")
+                .append("- page_total is the total printed under the page's table; null when none is printed.\n")
                 .append("Return ONLY valid JSON. No extra text.");
-
-        return sb.toString();
     }
 
-    @SuppressWarnings("unchecked")
-    private OpenAiResult callOpenAiVisionBatch(List<BufferedImage> images, String prompt) throws IOException {
-        log.debug("Calling GPT-4.1 with {} images", images.size());
+    private OpenAiResult callOpenAiVisionBatch(List<byte[]> images, String prompt, int maxTokens, int estimatedInputTokens,
+                                               List<Integer> pageNumbers, ExtractionProgressListener listener,
+                                               Observation extraction) throws IOException {
+        log.debug("Calling {} with {} images", visionModel, images.size());
+        extractionMetrics.recordImageBytes(images.stream().mapToLong(image -> image.length).sum());
+        return callOpenAi(new ChatCompletionRequest(
+                visionModel, prompt, images, pageImageEncoder.mediaType(), maxTokens, TEMPERATURE)
+                        .withEstimatedInputTokens(estimatedInputTokens),
+                visionModel, PATH_VISION, pageNumbers, listener, extraction);
+    }
 
-        List<Map<String, Object>> contentList = new ArrayList<>();
-        contentList.add(Map.of("type", "text", "text", prompt));
+    private OpenAiResult callOpenAiText(String prompt, int maxTokens, int estimatedInputTokens, List<Integer> pageNumbers,
+                                        ExtractionProgressListener listener, Observation extraction) throws IOException {
+        log.debug("Calling {} with {} prompt chars", textModel, prompt.length());
+        return callOpenAi(ChatCompletionRequest.text(textModel, prompt, maxTokens, TEMPERATURE)
+                        .withEstimatedInputTokens(estimatedInputTokens),
+                textModel, PATH_TEXT_LAYER, pageNumbers, listener, extraction);
+    }
 
-        for (BufferedImage image : images) {
-            String base64 = convertImageToBase64(image);
-            contentList.add(Map.of(
-                    "type", "image_url",
-                    "image_url", Map.of(
-                            "url", "data:image/png;base64," + base64,
-                            "detail", "high"
-                    )
-            ));
+    /**
+     * One provider call as an {@code llm} stage of its document; every rate-limited retry is its own call.
+     * With streaming on, line items and pages reach {@code listener} while the answer is still arriving,
+     * and an answer that stops being a valid extraction is abandoned early.
+     */
+    private OpenAiResult callOpenAi(ChatCompletionRequest request, String model, String path, List<Integer> pageNumbers,
+                                    ExtractionProgressListener listener, Observation extraction) throws IOException {
+        long start = System.nanoTime();
+        StreamingExtractionParser parser = streamingEnabled
+                ? new StreamingExtractionParser(objectMapper, streamListener(listener, model, start), maxRepeatedItems)
+                : null;
+        OpenAiResult result = extractionMetrics.stage("llm", extraction)
+                .lowCardinalityKeyValue("model", model)
+                .lowCardinalityKeyValue("path", path)
+                .highCardinalityKeyValue("pages", formatPages(pageNumbers))
+                .observeChecked(() -> parser == null
+                        ? openAiClient.call(request)
+                        : openAiClient.call(request.streaming(), parser::feed));
+        if (parser == null) {
+            extractionMetrics.recordTimeToFirstItem(model, System.nanoTime() - start);
         }
+        if (result.isAborted()) {
+            log.warn("Abandoned the answer for pages {}: {}", formatPages(pageNumbers), parser.getFailure());
+        }
+        extractionMetrics.recordTokens(model, result);
+        return result;
+    }
 
-        Map<String, Object> requestBody = Map.of(
-                "model", "gpt-4.1",
-                "messages", List.of(Map.of("role", "user", "content", contentList)),
-                "max_tokens", 6000,
-                "temperature", 0.1
-        );
-
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.setBearerAuth(openaiApiKey);
-
-        HttpEntity<Map<String, Object>> requestEntity = new HttpEntity<>(requestBody, headers);
-
-        try {
-            ResponseEntity<Map> response =
-                    restTemplate.postForEntity(openaiApiUrl, requestEntity, Map.class);
-
-            Map<String, Object> body = response.getBody();
-            if (body == null) {
-                throw new IOException("Empty OpenAI response body");
+    /**
+     * Forwards streamed entries to the progress listener, timing the first line item.
+     */
+    private StreamingExtractionParser.Listener streamListener(ExtractionProgressListener listener, String model, long start) {
+        return new StreamingExtractionParser.Listener() {
+            private boolean first = true;
+
+            @Override
+            public void onItem(String pageNo, BillItem item) {
+                if (first) {
+                    first = false;
+                    extractionMetrics.recordTimeToFirstItem(model, System.nanoTime() - start);
+                }
+                if (listener != null) {
+                    try {
+                        listener.onItem(pageNo, item);
+                    } catch (RuntimeException e) {
+                        log.warn("Progress listener failed: {}", e.getMessage());
+                    }
+                }
             }
 
-            // content
-            List<Map<String, Object>> choices = (List<Map<String, Object>>) body.get("choices");
-            Map<String, Object> message = (Map<String, Object>) choices.get(0).get("message");
-            String content = (String) message.get("content");
-
-            // exact token usage from OpenAI
-            int inputTokens = 0;
-            int outputTokens = 0;
-
-            Object usageObj = body.get("usage");
-            if (usageObj instanceof Map) {
-                Map<String, Object> usage = (Map<String, Object>) usageObj;
-                Object pi = usage.get("prompt_tokens");
-                Object co = usage.get("completion_tokens");
-                if (pi instanceof Number) inputTokens = ((Number) pi).intValue();
-                if (co instanceof Number) outputTokens = ((Number) co).intValue();
+            @Override
+            public void onPage(PageWiseLineItems page) {
+                notifyListener(listener, List.of(page));
             }
-
-            return new OpenAiResult(content, inputTokens, outputTokens);
-
-        } catch (Exception e) {
-            log.error("OpenAI API call failed", e);
-            throw new IOException("GPT API error: " + e.getMessage(), e);
-        }
+        };
     }
 
+    /**
+     * Parses {@code answer} the two ways model answers are parsed, so the first real answer finds
+     * Jackson's deserializers already built.
+     */
+    void warmUpParsers(String answer) throws IOException {
+        parseExtractionResponse(answer);
+        StreamingExtractionParser.of(objectMapper, answer);
+    }
 
-    private String convertImageToBase64(BufferedImage image) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ImageIO.write(image, "png", baos);
-        return Base64.getEncoder().encodeToString(baos.toByteArray());
+    byte[] encodePageImage(BufferedImage image) throws IOException {
+        return pageImageEncoder.encode(image);
     }
 
-    private ExtractionData parseExtractionResponse(String jsonResponse) throws IOException {
+    ExtractionData parseExtractionResponse(String jsonResponse) throws IOException {
         String cleaned = jsonResponse.trim();
 
         if (cleaned.startsWith("```")){
@@ -419,7 +2040,7 @@ cleaned = cleaned.trim();
             }
 
 
-private ExtractionData mergeBatchResults(List<ExtractionData> batches) {
+ExtractionData mergeBatchResults(List<ExtractionData> batches) {
         ExtractionData merged = new ExtractionData();
         List<PageWiseLineItems> allPages = new ArrayList<>();
 
@@ -429,6 +2050,9 @@ private ExtractionData mergeBatchResults(List<ExtractionData> batches) {
             }
         }
 
+        // Cached pages and batches can interleave; stable sort keeps multi-table pages in model order
+        allPages.sort(Comparator.comparingInt(BillExtractionService::pageNumberOf));
+
         merged.setPagewiseLineItems(allPages);
         return merged;
     }
@@ -0,0 +1,262 @@
+package com.bfhl.billextraction.service;
+
+import com.bfhl.billextraction.model.BillItem;
+import com.bfhl.billextraction.model.PageWiseLineItems;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Arithmetic checks on extracted line items, to find the pages worth extracting again.
+ *
+ * A row is wrong when {@code item_rate x item_quantity} misses {@code item_amount} by more than
+ * {@code row-tolerance}, unless the amount is lower by no more than {@code max-discount} (a
+ * discounted line). A table is wrong when its items do not add up to the {@code page_total} the
+ * model read off the page. Pages on either side of a batch boundary are wrong together when the
+ * last rows of one reappear as the first rows of the next, the usual sign of a table read twice.
+ * A document is wrong when its detail pages miss the grand total of its Final Bill page; then every
+ * page carrying a printed total is extracted again.
+ */
+@Component
+public class BillReconciler {
+
+    private static final String FINAL_BILL = "Final Bill";
+    // Fewer repeated rows at a boundary are as likely to be real repeats (daily charges)
+    private static final int MIN_BOUNDARY_ROWS = 2;
+    // Absolute slack for rounding of printed amounts
+    private static final double MIN_TOLERANCE = 1.0;
+
+    @Value("${extraction.reconciliation.enabled:true}")
+    private boolean enabled;
+
+    @Value("${extraction.reconciliation.row-tolerance:0.02}")
+    private double rowTolerance;
+
+    @Value("${extraction.reconciliation.max-discount:0.5}")
+    private double maxDiscount;
+
+    @Value("${extraction.reconciliation.total-tolerance:0.01}")
+    private double totalTolerance;
+
+    @Value("${extraction.reconciliation.max-pages:3}")
+    private int maxPages;
+
+    /** Pages to extract again in one call, and what was wrong with them. */
+    public static final class Suspect {
+        final List<Integer> pages;
+        final List<String> problems;
+        final boolean grandTotal;
+
+        Suspect(List<Integer> pages, List<String> problems) {
+            this(pages, problems, false);
+        }
+
+        Suspect(List<Integer> pages, List<String> problems, boolean grandTotal) {
+            this.pages = pages;
+            this.problems = problems;
+            this.grandTotal = grandTotal;
+        }
+
+        public List<Integer> getPages() {
+            return pages;
+        }
+
+        public List<String> getProblems() {
+            return problems;
+        }
+
+        /** Whether the problem is the document's grand total, which only the whole document can show fixed. */
+        public boolean isGrandTotal() {
+            return grandTotal;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Pages a document may have extracted again. */
+    public int getMaxPages() {
+        return maxPages;
+    }
+
+    /**
+     * Problems on the entries of one page; empty when everything adds up.
+     */
+    public List<String> checkPage(List<PageWiseLineItems> entries) {
+        List<String> problems = new ArrayList<>();
+        for (PageWiseLineItems entry : entries) {
+            double sum = 0;
+            for (BillItem item : items(entry)) {
+                String problem = checkRow(item);
+                if (problem != null) {
+                    problems.add(problem);
+                }
+                sum += item.getItemAmount() == null ? 0 : item.getItemAmount();
+            }
+            Double printed = entry.getPageTotal();
+            if (printed != null && Math.abs(sum - printed) > tolerance(printed, totalTolerance)) {
+                problems.add(String.format("items add up to %.2f, the page prints %.2f", sum, printed));
+            }
+        }
+        return problems;
+    }
+
+    /**
+     * Pages of a merged document that fail a check, in page order. Pages whose rows repeat across
+     * a batch boundary share one suspect, so they are extracted again in one call; {@code batchOf}
+     * maps each page to the call it came from.
+     */
+    public List<Suspect> review(List<PageWiseLineItems> pages, Map<Integer, Integer> batchOf) {
+        Map<Integer, List<PageWiseLineItems>> byPage = new TreeMap<>();
+        for (PageWiseLineItems page : pages) {
+            Integer pageNo = pageNumber(page);
+            if (pageNo != null) {
+                byPage.computeIfAbsent(pageNo, key -> new ArrayList<>()).add(page);
+            }
+        }
+
+        Map<Integer, List<String>> problems = new TreeMap<>();
+        byPage.forEach((pageNo, entries) -> {
+            List<String> found = checkPage(entries);
+            if (!found.isEmpty()) {
+                problems.put(pageNo, found);
+            }
+        });
+        List<Integer> joinedWithNext = new ArrayList<>();
+        byPage.forEach((pageNo, entries) -> {
+            List<PageWiseLineItems> next = byPage.get(pageNo + 1);
+            Integer batch = batchOf.get(pageNo);
+            if (next == null || batch == null || Objects.equals(batch, batchOf.get(pageNo + 1))) {
+                return;
+            }
+            int repeated = repeatedRows(items(entries), items(next));
+            if (repeated >= MIN_BOUNDARY_ROWS) {
+                problems.computeIfAbsent(pageNo, key -> new ArrayList<>())
+                        .add(repeated + " rows repeated at the start of page " + (pageNo + 1));
+                problems.computeIfAbsent(pageNo + 1, key -> new ArrayList<>());
+                joinedWithNext.add(pageNo);
+            }
+        });
+
+        List<Suspect> suspects = new ArrayList<>();
+        List<Integer> group = new ArrayList<>();
+        List<String> groupProblems = new ArrayList<>();
+        for (Map.Entry<Integer, List<String>> page : problems.entrySet()) {
+            group.add(page.getKey());
+            page.getValue().forEach(problem -> groupProblems.add("page " + page.getKey() + ": " + problem));
+            if (!joinedWithNext.contains(page.getKey())) {
+                suspects.add(new Suspect(List.copyOf(group), List.copyOf(groupProblems)));
+                group.clear();
+                groupProblems.clear();
+            }
+        }
+        return suspects;
+    }
+
+    /**
+     * The mismatch between the printed total of the document's Final Bill page and the line items
+     * of its other pages, or null when they agree or the document has no such single total.
+     */
+    public String checkGrandTotal(List<PageWiseLineItems> pages) {
+        List<PageWiseLineItems> finals = pages.stream()
+                .filter(page -> FINAL_BILL.equalsIgnoreCase(page.getPageType()) && page.getPageTotal() != null)
+                .toList();
+        List<PageWiseLineItems> details = pages.stream()
+                .filter(page -> !FINAL_BILL.equalsIgnoreCase(page.getPageType()))
+                .toList();
+        if (finals.size() != 1 || details.isEmpty()) {
+            return null;
+        }
+        double printed = finals.get(0).getPageTotal();
+        double sum = items(details).stream()
+                .mapToDouble(item -> item.getItemAmount() == null ? 0 : item.getItemAmount())
+                .sum();
+        if (Math.abs(sum - printed) <= tolerance(printed, totalTolerance)) {
+            return null;
+        }
+        return String.format("detail pages add up to %.2f, the final bill prints %.2f", sum, printed);
+    }
+
+    /**
+     * The pages carrying a printed total (the Final Bill page and detail pages with a page_total) that
+     * are not already among {@code suspects}, as one suspect when {@link #checkGrandTotal} finds a
+     * mismatch; null when the totals agree or no such page is left.
+     */
+    public Suspect grandTotalSuspect(List<PageWiseLineItems> pages, List<Suspect> suspects) {
+        String mismatch = checkGrandTotal(pages);
+        if (mismatch == null) {
+            return null;
+        }
+        Set<Integer> taken = new HashSet<>();
+        suspects.forEach(suspect -> taken.addAll(suspect.getPages()));
+        Set<Integer> withTotals = new TreeSet<>();
+        for (PageWiseLineItems page : pages) {
+            Integer pageNo = pageNumber(page);
+            if (pageNo != null && page.getPageTotal() != null && !taken.contains(pageNo)) {
+                withTotals.add(pageNo);
+            }
+        }
+        if (withTotals.isEmpty()) {
+            return null;
+        }
+        return new Suspect(List.copyOf(withTotals), List.of("grand total: " + mismatch), true);
+    }
+
+    private String checkRow(BillItem item) {
+        Double rate = item.getItemRate();
+        Double quantity = item.getItemQuantity();
+        Double amount = item.getItemAmount();
+        if (rate == null || quantity == null || amount == null || rate <= 0 || quantity <= 0) {
+            return null;
+        }
+        double expected = rate * quantity;
+        double difference = amount - expected;
+        boolean discounted = difference < 0 && amount >= expected * (1 - maxDiscount);
+        if (Math.abs(difference) <= tolerance(expected, rowTolerance) || discounted) {
+            return null;
+        }
+        return String.format("'%s' is %.2f x %.2f = %.2f, not %.2f",
+                item.getItemName(), rate, quantity, expected, amount);
+    }
+
+    /** Rows at the end of {@code before} that {@code after} starts with. */
+    private static int repeatedRows(List<BillItem> before, List<BillItem> after) {
+        for (int length = Math.min(before.size(), after.size()); length > 0; length--) {
+            if (before.subList(before.size() - length, before.size()).equals(after.subList(0, length))) {
+                return length;
+            }
+        }
+        return 0;
+    }
+
+    private static List<BillItem> items(PageWiseLineItems entry) {
+        return entry.getBillItems() == null ? List.of() : entry.getBillItems();
+    }
+
+    private static List<BillItem> items(List<PageWiseLineItems> entries) {
+        List<BillItem> items = new ArrayList<>();
+        entries.forEach(entry -> items.addAll(items(entry)));
+        return items;
+    }
+
+    private static double tolerance(double value, double relative) {
+        return Math.max(MIN_TOLERANCE, Math.abs(value) * relative);
+    }
+
+    private static Integer pageNumber(PageWiseLineItems page) {
+        try {
+            return Integer.parseInt(page.getPageNo().trim());
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.bfhl.billextraction.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * A chat-completions request that serializes itself straight onto the HTTP body stream.
+ *
+ * Page images stay as their encoded bytes; the {@code data:} URL is Base64-encoded chunk by chunk
+ * while Jackson writes it, so no Base64 string, concatenated URL or JSON buffer is ever built.
+ */
+class ChatCompletionRequest {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory()
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private final String model;
+    private final String prompt;
+    private final List<byte[]> images;
+    private final String imageMediaType;
+    private final int maxTokens;
+    private final double temperature;
+    private final boolean stream;
+    // Not sent: what the prompt is expected to bill, for calls that end before the provider reports usage
+    private final int estimatedInputTokens;
+
+    ChatCompletionRequest(String model, String prompt, List<byte[]> images, String imageMediaType,
+                          int maxTokens, double temperature) {
+        this(model, prompt, images, imageMediaType, maxTokens, temperature, false, 0);
+    }
+
+    private ChatCompletionRequest(String model, String prompt, List<byte[]> images, String imageMediaType,
+                                  int maxTokens, double temperature, boolean stream, int estimatedInputTokens) {
+        this.model = model;
+        this.prompt = prompt;
+        this.images = images;
+        this.imageMediaType = imageMediaType;
+        this.maxTokens = maxTokens;
+        this.temperature = temperature;
+        this.stream = stream;
+        this.estimatedInputTokens = estimatedInputTokens;
+    }
+
+    static ChatCompletionRequest text(String model, String prompt, int maxTokens, double temperature) {
+        return new ChatCompletionRequest(model, prompt, List.of(), null, maxTokens, temperature);
+    }
+
+    /**
+     * The same request with {@code stream: true}; the answer then arrives as server-sent events,
+     * with token usage in the last one.
+     */
+    ChatCompletionRequest streaming() {
+        return new ChatCompletionRequest(model, prompt, images, imageMediaType, maxTokens, temperature, true,
+                estimatedInputTokens);
+    }
+
+    /**
+     * The same request, expected to bill {@code tokens} input tokens (the estimate the scheduler
+     * reserved for it, less {@code max_tokens}).
+     */
+    ChatCompletionRequest withEstimatedInputTokens(int tokens) {
+        return new ChatCompletionRequest(model, prompt, images, imageMediaType, maxTokens, temperature, stream, tokens);
+    }
+
+    int getEstimatedInputTokens() {
+        return estimatedInputTokens;
+    }
+
+    int getMaxTokens() {
+        return maxTokens;
+    }
+
+    String getModel() {
+        return model;
+    }
+
+    boolean isStream() {
+        return stream;
+    }
+
+    int getImageCount() {
+        return images.size();
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        try (JsonGenerator gen = JSON_FACTORY.createGenerator(out)) {
+            gen.writeStartObject();
+            gen.writeStringField("model", model);
+
+            gen.writeArrayFieldStart("messages");
+            gen.writeStartObject();
+            gen.writeStringField("role", "user");
+            gen.writeArrayFieldStart("content");
+
+            gen.writeStartObject();
+            gen.writeStringField("type", "text");
+            gen.writeStringField("text", prompt);
+            gen.writeEndObject();
+
+            for (byte[] image : images) {
+                gen.writeStartObject();
+                gen.writeStringField("type", "image_url");
+                gen.writeObjectFieldStart("image_url");
+                gen.writeStringField("detail", "high");
+                gen.writeFieldName("url");
+                gen.writeString(new DataUrlReader(imageMediaType, image), -1);
+                gen.writeEndObject();
+                gen.writeEndObject();
+            }
+
+            gen.writeEndArray();
+            gen.writeEndObject();
+            gen.writeEndArray();
+
+            gen.writeNumberField("max_tokens", maxTokens);
+            gen.writeNumberField("temperature", temperature);
+            if (stream) {
+                gen.writeBooleanField("stream", true);
+                gen.writeObjectFieldStart("stream_options");
+                gen.writeBooleanField("include_usage", true);
+                gen.writeEndObject();
+            }
+            gen.writeEndObject();
+        }
+    }
+
+    /**
+     * Yields {@code data:<type>;base64,<payload>} while encoding the payload in fixed-size chunks.
+     */
+    private static class DataUrlReader extends Reader {
+
+        // Multiple of 3 so chunks encode without padding in the middle of the stream
+        private static final int CHUNK_BYTES = 3 * 1024;
+
+        private final byte[] data;
+        private final byte[] chunk = new byte[CHUNK_BYTES];
+        private final byte[] encodedChunk = new byte[CHUNK_BYTES / 3 * 4];
+        private int dataOffset = 0;
+        private byte[] pending;
+        private int pendingLength;
+        private int pendingOffset = 0;
+
+        DataUrlReader(String mediaType, byte[] data) {
+            this.data = data;
+            this.pending = ("data:" + mediaType + ";base64,").getBytes(StandardCharsets.US_ASCII);
+            this.pendingLength = pending.length;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            if (pendingOffset == pendingLength && !encodeNextChunk()) {
+                return -1;
+            }
+
+            int n = Math.min(len, pendingLength - pendingOffset);
+            for (int i = 0; i < n; i++) {
+                cbuf[off + i] = (char) pending[pendingOffset + i];
+            }
+            pendingOffset += n;
+            return n;
+        }
+
+        private boolean encodeNextChunk() {
+            int remaining = data.length - dataOffset;
+            if (remaining <= 0) {
+                return false;
+            }
+            if (remaining >= CHUNK_BYTES) {
+                System.arraycopy(data, dataOffset, chunk, 0, CHUNK_BYTES);
+                pendingLength = Base64.getEncoder().encode(chunk, encodedChunk);
+                pending = encodedChunk;
+                dataOffset += CHUNK_BYTES;
+            } else {
+                // Final partial chunk carries the padding
+                pending = Base64.getEncoder().encode(Arrays.copyOfRange(data, dataOffset, data.length));
+                pendingLength = pending.length;
+                dataOffset = data.length;
+            }
+            pendingOffset = 0;
+            return true;
+        }
+
+        @Override
+        public void close() {
+            // nothing to release; the image bytes belong to the caller
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.bfhl.billextraction.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Packs the final, partial batches of the documents in one multi-document request into shared calls.
+ *
+ * Full batches are dispatched by each document as usual; only the remainder (fewer pages than a batch)
+ * is offered here. Remainders of the same kind (vision or text-layer) from different documents are
+ * combined until a call is full, every participant has left, or the oldest remainder has waited
+ * {@code lingerMs}. Whether pages fit one call is up to the caller's {@code fits} test; a call is
+ * full when it could not take one more page like its last. Each document's remainder always lands in a single call, as a contiguous
+ * {@link Share} of its pages. Every document takes part through its own {@link Participant}.
+ *
+ * @param <P> page handed to the dispatcher
+ * @param <R> result of one shared call
+ */
+@Slf4j
+class CrossDocumentPacker<P, R> {
+
+    /** Where one document's pages sit in a shared call. */
+    static final class Share<R> {
+        final CompletableFuture<R> call;
+        final int firstIndex;
+        final int pageCount;
+
+        Share(CompletableFuture<R> call, int firstIndex, int pageCount) {
+            this.call = call;
+            this.firstIndex = firstIndex;
+            this.pageCount = pageCount;
+        }
+    }
+
+    /**
+     * One document's handle. It must {@link #leave()} once it has nothing more to offer; leaving
+     * twice is harmless, so it can also leave on every exit path.
+     */
+    final class Participant {
+        private final AtomicBoolean left = new AtomicBoolean();
+
+        Share<R> offer(String kind, List<P> pages) {
+            return CrossDocumentPacker.this.offer(kind, pages);
+        }
+
+        void leave() {
+            if (left.compareAndSet(false, true)) {
+                CrossDocumentPacker.this.leave();
+            }
+        }
+    }
+
+    /** Pages waiting for one shared call; {@code call} completes with that call's result. */
+    private final class Group {
+        final List<P> pages = new ArrayList<>();
+        final CompletableFuture<R> call = new CompletableFuture<>();
+    }
+
+    private final Predicate<List<P>> fits;
+    private final long lingerMs;
+    private final Function<List<P>, CompletableFuture<R>> dispatcher;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, Group> pending = new HashMap<>();
+    private int participants;
+
+    CrossDocumentPacker(int participants, Predicate<List<P>> fits, long lingerMs,
+                        Function<List<P>, CompletableFuture<R>> dispatcher) {
+        this.participants = participants;
+        this.fits = fits;
+        this.lingerMs = lingerMs;
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * A handle for one of the {@code participants} documents given to the constructor.
+     */
+    Participant participant() {
+        return new Participant();
+    }
+
+    /**
+     * Adds one document's remaining pages of {@code kind} to the next shared call of that kind.
+     */
+    private Share<R> offer(String kind, List<P> pages) {
+        List<Group> ready = new ArrayList<>();
+        Share<R> share;
+        lock.lock();
+        try {
+            Group group = pending.get(kind);
+            if (group != null && !fits.test(concat(group.pages, pages))) {
+                ready.add(pending.remove(kind));
+                group = null;
+            }
+            if (group == null) {
+                group = new Group();
+                pending.put(kind, group);
+                scheduleLinger(kind, group);
+            }
+            share = new Share<>(group.call, group.pages.size(), pages.size());
+            group.pages.addAll(pages);
+            if (!fits.test(concat(group.pages, List.of(pages.get(pages.size() - 1))))) {
+                ready.add(pending.remove(kind));
+            }
+        } finally {
+            lock.unlock();
+        }
+        ready.forEach(this::dispatch);
+        return share;
+    }
+
+    /**
+     * The last participant to leave dispatches whatever is still pending.
+     */
+    private void leave() {
+        List<Group> ready = new ArrayList<>();
+        lock.lock();
+        try {
+            participants--;
+            if (participants == 0) {
+                ready.addAll(pending.values());
+                pending.clear();
+            }
+        } finally {
+            lock.unlock();
+        }
+        ready.forEach(this::dispatch);
+    }
+
+    private void scheduleLinger(String kind, Group group) {
+        Thread.ofVirtual().name("batch-linger").start(() -> {
+            try {
+                Thread.sleep(lingerMs);
+            } catch (InterruptedException e) {
+                return;
+            }
+            lock.lock();
+            try {
+                if (!pending.remove(kind, group)) {
+                    return; // already dispatched
+                }
+            } finally {
+                lock.unlock();
+            }
+            dispatch(group);
+        });
+    }
+
+    private static <P> List<P> concat(List<P> first, List<P> second) {
+        List<P> pages = new ArrayList<>(first);
+        pages.addAll(second);
+        return pages;
+    }
+
+    private void dispatch(Group group) {
+        log.debug("Dispatching shared call of {} pages", group.pages.size());
+        try {
+            dispatcher.apply(group.pages).whenComplete((result, error) -> {
+                if (error != null) {
+                    group.call.completeExceptionally(error);
+                } else {
+                    group.call.complete(result);
+                }
+            });
+        } catch (RuntimeException e) {
+            group.call.completeExceptionally(e);
+        }
+    }
+}
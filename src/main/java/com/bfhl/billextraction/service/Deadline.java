@@ -0,0 +1,33 @@
+package com.bfhl.billextraction.service;
+
+import java.time.Duration;
+
+/**
+ * A fixed point in time that every stage of one extraction measures its waits against.
+ */
+final class Deadline {
+
+    private final Duration budget;
+    private final long expiresAtNanos;
+
+    private Deadline(Duration budget) {
+        this.budget = budget;
+        this.expiresAtNanos = System.nanoTime() + budget.toNanos();
+    }
+
+    static Deadline after(Duration budget) {
+        return new Deadline(budget);
+    }
+
+    Duration getBudget() {
+        return budget;
+    }
+
+    long remainingMillis() {
+        return Math.max(0, (expiresAtNanos - System.nanoTime()) / 1_000_000);
+    }
+
+    boolean isExpired() {
+        return expiresAtNanos - System.nanoTime() <= 0;
+    }
+}
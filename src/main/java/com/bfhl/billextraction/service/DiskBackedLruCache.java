@@ -0,0 +1,275 @@
+package com.bfhl.billextraction.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Two-tier LRU cache: a size-bounded in-memory tier in front of a size-bounded directory of JSON files.
+ *
+ * Values are held as serialized JSON so every hit returns a fresh copy that callers may mutate.
+ * The disk tier's LRU order lives in memory, so a hit costs no file system call; it is written to an
+ * index file whenever an entry is written to disk (and entries evicted), which keeps the order across
+ * restarts up to the last write. File reads, writes and deletes happen outside the cache's lock; only
+ * the in-memory index is updated under it.
+ */
+@Slf4j
+class DiskBackedLruCache<V> {
+
+    private static final String ACCESS_ORDER_FILE = "access-order";
+
+    private final String name;
+    private final Path directory;
+    private final Class<V> type;
+    private final ObjectMapper objectMapper;
+    private final long memoryMaxBytes;
+    private final long diskMaxBytes;
+
+    // Access-ordered maps: iteration starts at the least recently used key
+    private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Long> disk = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBytes = 0;
+    private long diskBytes = 0;
+    // Serializes writes of the access order file, so a stale snapshot never overwrites a newer one
+    private final Object accessOrderLock = new Object();
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    DiskBackedLruCache(String name, Path directory, Class<V> type, ObjectMapper objectMapper,
+                       long memoryMaxBytes, long diskMaxBytes) throws IOException {
+        this.name = name;
+        this.directory = directory;
+        this.type = type;
+        this.objectMapper = objectMapper;
+        this.memoryMaxBytes = memoryMaxBytes;
+        this.diskMaxBytes = diskMaxBytes;
+
+        Files.createDirectories(directory);
+        loadDiskIndex();
+    }
+
+    Optional<V> get(String key) {
+        byte[] json;
+        boolean onDisk;
+
+        synchronized (this) {
+            json = memory.get(key);
+            // get, not containsKey: only get moves the key to the recently used end
+            onDisk = disk.get(key) != null;
+        }
+
+        boolean fromDisk = false;
+        if (json == null && onDisk) {
+            json = readFile(key);
+            fromDisk = json != null;
+        }
+        if (json == null) {
+            misses.incrementAndGet();
+            return Optional.empty();
+        }
+        if (fromDisk) {
+            synchronized (this) {
+                putInMemory(key, json);
+            }
+        }
+
+        (fromDisk ? diskHits : memoryHits).incrementAndGet();
+        try {
+            return Optional.of(objectMapper.readValue(json, type));
+        } catch (IOException e) {
+            log.warn("Dropping unreadable {} cache entry {}: {}", name, key, e.getMessage());
+            remove(key);
+            return Optional.empty();
+        }
+    }
+
+    void put(String key, V value) {
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(value);
+        } catch (IOException e) {
+            log.warn("Cannot serialize {} cache entry {}: {}", name, key, e.getMessage());
+            return;
+        }
+
+        synchronized (this) {
+            putInMemory(key, json);
+        }
+        writeFile(key, json);
+    }
+
+    long getMemoryHits() {
+        return memoryHits.get();
+    }
+
+    long getDiskHits() {
+        return diskHits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    synchronized long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    synchronized long getDiskBytes() {
+        return diskBytes;
+    }
+
+    private void putInMemory(String key, byte[] json) {
+        if (json.length > memoryMaxBytes) {
+            return;
+        }
+        byte[] previous = memory.put(key, json);
+        memoryBytes += json.length - (previous == null ? 0 : previous.length);
+
+        Iterator<Map.Entry<String, byte[]>> it = memory.entrySet().iterator();
+        while (memoryBytes > memoryMaxBytes && it.hasNext()) {
+            memoryBytes -= it.next().getValue().length;
+            it.remove();
+        }
+    }
+
+    private void writeFile(String key, byte[] json) {
+        Path target = fileFor(key);
+        try {
+            Path tmp = Files.createTempFile(directory, key, ".tmp");
+            Files.write(tmp, json);
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Cannot persist {} cache entry {}: {}", name, key, e.getMessage());
+            return;
+        }
+
+        List<String> evicted = new ArrayList<>();
+        synchronized (this) {
+            Long previous = disk.put(key, (long) json.length);
+            diskBytes += json.length - (previous == null ? 0 : previous);
+
+            Iterator<Map.Entry<String, Long>> it = disk.entrySet().iterator();
+            while (diskBytes > diskMaxBytes && it.hasNext()) {
+                Map.Entry<String, Long> eldest = it.next();
+                if (eldest.getKey().equals(key)) {
+                    continue;
+                }
+                evicted.add(eldest.getKey());
+                diskBytes -= eldest.getValue();
+                it.remove();
+            }
+        }
+        // An entry re-written while its eviction is pending loses its file; the next read drops it
+        evicted.forEach(evictedKey -> deleteQuietly(fileFor(evictedKey)));
+        persistAccessOrder();
+    }
+
+    /** Writes the disk tier's keys, least recently used first, for {@link #loadDiskIndex} after a restart. */
+    private void persistAccessOrder() {
+        synchronized (accessOrderLock) {
+            List<String> order;
+            synchronized (this) {
+                order = List.copyOf(disk.keySet());
+            }
+            try {
+                Path tmp = Files.createTempFile(directory, ACCESS_ORDER_FILE, ".tmp");
+                Files.write(tmp, order, StandardCharsets.UTF_8);
+                Files.move(tmp, directory.resolve(ACCESS_ORDER_FILE),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                log.warn("Cannot persist {} cache access order: {}", name, e.getMessage());
+            }
+        }
+    }
+
+    private byte[] readFile(String key) {
+        try {
+            return Files.readAllBytes(fileFor(key));
+        } catch (IOException e) {
+            synchronized (this) {
+                Long size = disk.remove(key);
+                if (size != null) {
+                    diskBytes -= size;
+                }
+            }
+            return null;
+        }
+    }
+
+    private void remove(String key) {
+        Long onDisk;
+        synchronized (this) {
+            byte[] inMemory = memory.remove(key);
+            if (inMemory != null) {
+                memoryBytes -= inMemory.length;
+            }
+            onDisk = disk.remove(key);
+            if (onDisk != null) {
+                diskBytes -= onDisk;
+            }
+        }
+        if (onDisk != null) {
+            deleteQuietly(fileFor(key));
+        }
+    }
+
+    /**
+     * Indexes the entries on disk in their persisted access order; entries written after the order
+     * was last persisted (or with no order file at all) follow, oldest file first.
+     */
+    private void loadDiskIndex() throws IOException {
+        Map<String, Integer> accessOrder = new HashMap<>();
+        Path accessOrderFile = directory.resolve(ACCESS_ORDER_FILE);
+        if (Files.exists(accessOrderFile)) {
+            for (String key : Files.readAllLines(accessOrderFile, StandardCharsets.UTF_8)) {
+                accessOrder.putIfAbsent(key, accessOrder.size());
+            }
+        }
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(directory)) {
+            files = stream.filter(p -> p.getFileName().toString().endsWith(".json"))
+                    .sorted(Comparator.<Path>comparingInt(p -> accessOrder.getOrDefault(keyOf(p), Integer.MAX_VALUE))
+                            .thenComparingLong(DiskBackedLruCache::lastModified))
+                    .toList();
+        }
+        for (Path file : files) {
+            long size = Files.size(file);
+            disk.put(keyOf(file), size);
+            diskBytes += size;
+        }
+        log.info("✓ {} cache: {} entries ({} KB) on disk", name, disk.size(), diskBytes / 1024);
+    }
+
+    private Path fileFor(String key) {
+        return directory.resolve(key + ".json");
+    }
+
+    private static String keyOf(Path file) {
+        String fileName = file.getFileName().toString();
+        return fileName.substring(0, fileName.length() - ".json".length());
+    }
+
+    private static long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ignored) {
+            // best effort; a leftover file is re-indexed on next start
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.bfhl.billextraction.service;
+
+import com.bfhl.billextraction.model.ExtractionData;
+import com.bfhl.billextraction.model.TokenUsage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Optional;
+
+/**
+ * Content-addressed cache of extraction results.
+ *
+ * Documents are keyed by the SHA-256 of the downloaded PDF bytes together with the prompt version,
+ * models and image encoding that produced the result, so the same bill behind different URLs is only
+ * extracted once and a configuration change does not serve stale answers. Pages are keyed by the hash of the encoded page image plus the prompt
+ * version, so a re-submitted document that changed only a few pages pays only for those pages.
+ */
+@Slf4j
+@Component
+public class ExtractionCache {
+
+    private static final long MB = 1024 * 1024;
+
+    @Value("${extraction.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${extraction.cache.dir:${java.io.tmpdir}/bill-extraction-cache}")
+    private String cacheDir;
+
+    @Value("${extraction.cache.memory-max-mb:64}")
+    private long memoryMaxMb;
+
+    @Value("${extraction.cache.disk-max-mb:1024}")
+    private long diskMaxMb;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private DiskBackedLruCache<CachedExtraction> documents;
+    private DiskBackedLruCache<ExtractionData> pages;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class CachedExtraction {
+        private ExtractionData data;
+        private TokenUsage tokenUsage;
+    }
+
+    @PostConstruct
+    void init() throws IOException {
+        if (!enabled) {
+            log.info("Extraction cache disabled");
+            return;
+        }
+        Path root = Path.of(cacheDir);
+        // Documents are few and large, pages many and small: split the budget accordingly
+        documents = new DiskBackedLruCache<>("document", root.resolve("documents"), CachedExtraction.class,
+                objectMapper, memoryMaxMb * MB / 2, diskMaxMb * MB / 2);
+        pages = new DiskBackedLruCache<>("page", root.resolve("pages"), ExtractionData.class,
+                objectMapper, memoryMaxMb * MB / 2, diskMaxMb * MB / 2);
+    }
+
+    public Optional<CachedExtraction> getDocument(String documentKey) {
+        return enabled ? documents.get(documentKey) : Optional.empty();
+    }
+
+    public void putDocument(String documentKey, ExtractionData data, TokenUsage usage) {
+        if (enabled) {
+            documents.put(documentKey, new CachedExtraction(data, usage));
+        }
+    }
+
+    public Optional<ExtractionData> getPage(String pageHash, String promptVersion) {
+        return enabled ? pages.get(pageKey(pageHash, promptVersion)) : Optional.empty();
+    }
+
+    public void putPage(String pageHash, String promptVersion, ExtractionData pageData) {
+        if (enabled) {
+            pages.put(pageKey(pageHash, promptVersion), pageData);
+        }
+    }
+
+    public long getDocumentHits() {
+        return enabled ? documents.getMemoryHits() + documents.getDiskHits() : 0;
+    }
+
+    public long getDocumentMisses() {
+        return enabled ? documents.getMisses() : 0;
+    }
+
+    public long getPageHits() {
+        return enabled ? pages.getMemoryHits() + pages.getDiskHits() : 0;
+    }
+
+    public long getPageMisses() {
+        return enabled ? pages.getMisses() : 0;
+    }
+
+    public static String sha256(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    public static String sha256(String content) {
+        return sha256(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static String sha256(byte[] content) {
+        return HexFormat.of().formatHex(newDigest().digest(content));
+    }
+
+    /**
+     * Key of a document's result: the hash of its PDF bytes plus the prompt version and
+     * {@code settings} (models, image encoding) the result was extracted with.
+     */
+    public static String documentKey(String documentHash, String promptVersion, String settings) {
+        return sha256(documentHash + ":" + promptVersion + ":" + settings);
+    }
+
+    private static String pageKey(String pageHash, String promptVersion) {
+        return sha256(pageHash + ":" + promptVersion);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package com.bfhl.billextraction.service;
+
+import com.bfhl.billextraction.model.ExtractionData;
+import com.bfhl.billextraction.model.PageWiseLineItems;
+import com.bfhl.billextraction.model.TokenUsage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Durable record of the batches a document has already paid for.
+ *
+ * Every successful batch is appended as one JSON line to a journal named after the document's
+ * SHA-256, together with its page range, the prompt version and the tokens it cost, and forced to
+ * disk. When an extraction fails part way and the document is submitted again, its journal serves
+ * those pages and only the rest are extracted. A journal is deleted once its document succeeds;
+ * journals of documents never retried are swept after {@code retention-hours}.
+ *
+ * Concurrent extractions of one document (a client retry while the first attempt still runs, or the
+ * same PDF twice in one batch) open journals on the same file: their appends are serialized by one
+ * lock per file, and the file is deleted only when the last of them is closed.
+ */
+@Slf4j
+@Component
+public class ExtractionCheckpointStore {
+
+    private static final String SUFFIX = ".jsonl";
+
+    @Value("${extraction.checkpoints.enabled:true}")
+    private boolean enabled;
+
+    @Value("${extraction.checkpoints.dir:${java.io.tmpdir}/bill-extraction-checkpoints}")
+    private String checkpointDir;
+
+    @Value("${extraction.checkpoints.retention-hours:24}")
+    private long retentionHours;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // Journal files with at least one open Journal, guarded by itself
+    private final Map<Path, SharedFile> openFiles = new HashMap<>();
+
+    /** Per-file state shared by every open Journal of one document. */
+    private static final class SharedFile {
+        // Not a monitor: writes and fsyncs happen under it and would pin a virtual thread's carrier
+        final ReentrantLock lock = new ReentrantLock();
+        int users;
+        boolean completed;
+    }
+
+    /** One successful batch: its document page numbers, and their line items keyed by those numbers. */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Checkpoint {
+        private List<Integer> pages;
+        private String promptVersion;
+        private ExtractionData data;
+        private TokenUsage tokenUsage;
+        private long createdAt;
+    }
+
+    @PostConstruct
+    void init() throws IOException {
+        if (!enabled) {
+            log.info("Extraction checkpoints disabled");
+            return;
+        }
+        Path root = Path.of(checkpointDir);
+        Files.createDirectories(root);
+        Instant cutoff = Instant.now().minus(Duration.ofHours(retentionHours));
+        int kept = 0;
+        int swept = 0;
+        try (Stream<Path> files = Files.list(root)) {
+            for (Path file : files.filter(path -> path.toString().endsWith(SUFFIX)).toList()) {
+                if (Files.getLastModifiedTime(file).toInstant().isBefore(cutoff)) {
+                    Files.deleteIfExists(file);
+                    swept++;
+                } else {
+                    kept++;
+                }
+            }
+        }
+        log.info("✓ Extraction checkpoints: {} journals kept, {} older than {}h removed", kept, swept, retentionHours);
+    }
+
+    /**
+     * Opens the journal of {@code documentHash}, loading its checkpoints for {@code promptVersion}.
+     * The caller closes it when the extraction ends, successful or not.
+     */
+    public Journal open(String documentHash, String promptVersion) {
+        if (!enabled) {
+            return new Journal(null, null, promptVersion);
+        }
+        Path file = Path.of(checkpointDir).resolve(documentHash + SUFFIX);
+        SharedFile shared;
+        synchronized (openFiles) {
+            shared = openFiles.computeIfAbsent(file, path -> new SharedFile());
+            shared.users++;
+        }
+        Journal journal = new Journal(file, shared, promptVersion);
+        journal.load();
+        return journal;
+    }
+
+    /**
+     * Checkpoints of one document. Appends may come from several batch threads, and from other
+     * extractions of the same document, at once.
+     */
+    public final class Journal implements AutoCloseable {
+        private final Path file;
+        private final SharedFile shared;
+        private final String promptVersion;
+        private final Map<Integer, Checkpoint> byPage = new HashMap<>();
+        private boolean closed;
+
+        private Journal(Path file, SharedFile shared, String promptVersion) {
+            this.file = file;
+            this.shared = shared;
+            this.promptVersion = promptVersion;
+        }
+
+        /** The checkpoint covering document page {@code pageNo}, or null. */
+        public synchronized Checkpoint find(int pageNo) {
+            return byPage.get(pageNo);
+        }
+
+        /** Line items of {@code pageNo} in {@code checkpoint}. */
+        public ExtractionData pageData(Checkpoint checkpoint, int pageNo) {
+            List<PageWiseLineItems> pages = new ArrayList<>();
+            for (PageWiseLineItems page : checkpoint.getData().getPagewiseLineItems()) {
+                if (String.valueOf(pageNo).equals(page.getPageNo())) {
+                    pages.add(page);
+                }
+            }
+            ExtractionData pageData = new ExtractionData();
+            pageData.setPagewiseLineItems(pages);
+            return pageData;
+        }
+
+        /**
+         * Records a successful batch of document pages {@code pages}. Skipped when the batch's
+         * page_no values do not all name one of those pages, since they could not be served per page.
+         */
+        public void append(List<Integer> pages, ExtractionData data, int inputTokens, int outputTokens) {
+            if (file == null) {
+                return;
+            }
+            List<PageWiseLineItems> entries = data.getPagewiseLineItems() == null ? List.of() : data.getPagewiseLineItems();
+            for (PageWiseLineItems page : entries) {
+                if (pages.stream().noneMatch(pageNo -> String.valueOf(pageNo).equals(page.getPageNo()))) {
+                    log.debug("Not checkpointing pages {}: unexpected page_no '{}'", pages, page.getPageNo());
+                    return;
+                }
+            }
+            ExtractionData stored = new ExtractionData();
+            stored.setPagewiseLineItems(entries);
+            Checkpoint checkpoint = new Checkpoint(List.copyOf(pages), promptVersion, stored,
+                    new TokenUsage(inputTokens + outputTokens, inputTokens, outputTokens), System.currentTimeMillis());
+            try {
+                byte[] line = (objectMapper.writeValueAsString(checkpoint) + "\n").getBytes(StandardCharsets.UTF_8);
+                shared.lock.lock();
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    if (!endsWithNewline(channel)) {
+                        channel.write(ByteBuffer.wrap(new byte[]{'\n'}), channel.size()); // after a torn line
+                    }
+                    channel.write(ByteBuffer.wrap(line), channel.size());
+                    channel.force(false);
+                } finally {
+                    shared.lock.unlock();
+                }
+                synchronized (this) {
+                    pages.forEach(pageNo -> byPage.put(pageNo, checkpoint));
+                }
+            } catch (IOException e) {
+                log.warn("Cannot checkpoint pages {}: {}", pages, e.getMessage());
+            }
+        }
+
+        /**
+         * Drops the journal once its document has been extracted in full; while other extractions of
+         * the document still have it open, the file is deleted when the last of them closes.
+         */
+        public void complete() {
+            if (file == null) {
+                return;
+            }
+            synchronized (this) {
+                byPage.clear();
+            }
+            boolean lastUser;
+            synchronized (openFiles) {
+                shared.completed = true;
+                lastUser = shared.users == 1;
+            }
+            if (lastUser) {
+                delete();
+            }
+        }
+
+        /** Releases this extraction's hold on the journal file. */
+        @Override
+        public void close() {
+            if (file == null) {
+                return;
+            }
+            boolean deleteFile;
+            synchronized (openFiles) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                shared.users--;
+                deleteFile = shared.users == 0 && shared.completed;
+                if (shared.users == 0) {
+                    openFiles.remove(file);
+                }
+            }
+            if (deleteFile) {
+                delete();
+            }
+        }
+
+        private void delete() {
+            shared.lock.lock();
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                log.warn("Cannot delete checkpoint journal {}: {}", file, e.getMessage());
+            } finally {
+                shared.lock.unlock();
+            }
+        }
+
+        private static boolean endsWithNewline(FileChannel channel) throws IOException {
+            if (channel.size() == 0) {
+                return true;
+            }
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.read(last, channel.size() - 1);
+            return last.get(0) == '\n';
+        }
+
+        private synchronized void load() {
+            shared.lock.lock();
+            try {
+                if (!Files.exists(file)) {
+                    return;
+                }
+                for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                    Checkpoint checkpoint;
+                    try {
+                        checkpoint = objectMapper.readValue(line, Checkpoint.class);
+                    } catch (IOException e) {
+                        // a line torn by a crash mid-append; the batch is simply extracted again
+                        log.debug("Skipping unreadable checkpoint in {}: {}", file, e.getMessage());
+                        continue;
+                    }
+                    if (promptVersion.equals(checkpoint.getPromptVersion())) {
+                        checkpoint.getPages().forEach(pageNo -> byPage.put(pageNo, checkpoint));
+                    }
+                }
+            } catch (IOException e) {
+                log.warn("Cannot read checkpoint journal {}: {}", file, e.getMessage());
+            } finally {
+                shared.lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package com.bfhl.billextraction.service;
+
+import com.bfhl.billextraction.model.BatchExtractionResponse;
+import com.bfhl.billextraction.model.BillExtractionResponse;
+import com.bfhl.billextraction.model.BillItem;
+import com.bfhl.billextraction.model.ExtractionJobStatus;
+import com.bfhl.billextraction.model.PageWiseLineItems;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs extractions in the background so the servlet thread is released immediately.
+ *
+ * Jobs run on Spring's application task executor (one virtual thread per job). At most
+ * {@code extraction.jobs.max-running} extract at once, so downloads and loaded documents do not pile up
+ * ahead of the raster memory governor and the vision scheduler; up to {@code extraction.jobs.max-queued}
+ * more wait their turn as {@code queued}. Beyond that, {@link JobQueueFullException}. Documents of a
+ * batch request wait for the same running slots.
+ * Each job keeps the pages parsed so far, so SSE subscribers that connect late get a replay first.
+ * SSE events are queued per job and written by that job's own virtual thread, so a slow client
+ * holds up neither the extraction thread that produced the event nor the job's lock.
+ */
+@Slf4j
+@Service
+public class ExtractionJobService {
+
+    public static final String STATUS_QUEUED = "queued";
+    public static final String STATUS_RUNNING = "running";
+    public static final String STATUS_SUCCEEDED = "succeeded";
+    public static final String STATUS_FAILED = "failed";
+
+    @Autowired
+    private BillExtractionService extractionService;
+
+    @Autowired
+    @Qualifier("applicationTaskExecutor")
+    private AsyncTaskExecutor taskExecutor;
+
+    @Value("${extraction.jobs.retention-minutes:30}")
+    private long retentionMinutes;
+
+    @Value("${spring.mvc.async.request-timeout:180000}")
+    private long sseTimeoutMs;
+
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+    @Value("${extraction.jobs.max-running:8}")
+    private int maxRunning;
+
+    @Value("${extraction.jobs.max-queued:100}")
+    private int maxQueued;
+
+    // Jobs admitted (running or queued), and jobs extracting
+    private Semaphore admitted;
+    private Semaphore running;
+
+    @PostConstruct
+    void init() {
+        int runningLimit = Math.max(1, maxRunning);
+        running = new Semaphore(runningLimit, true);
+        admitted = new Semaphore(runningLimit + Math.max(0, maxQueued));
+    }
+
+    public static class JobQueueFullException extends RuntimeException {
+        public JobQueueFullException() {
+            super("Extraction queue is full");
+        }
+
+        public JobQueueFullException(Throwable cause) {
+            super("Extraction queue is full", cause);
+        }
+    }
+
+    private static class Job {
+        final String id;
+        final String documentUrl;
+        final List<PageWiseLineItems> pages = new ArrayList<>();
+        final List<SseEmitter> emitters = new CopyOnWriteArrayList<>();
+        // Guards pages, emitters and the result; events are queued under it, in the order of the state
+        final ReentrantLock lock = new ReentrantLock();
+        // Writes the job's SSE events in order, off the extraction threads; shut down once the job finishes
+        final ExecutorService events = Executors.newSingleThreadExecutor(Thread.ofVirtual().name("job-events").factory());
+        volatile String status = STATUS_QUEUED;
+        volatile BillExtractionResponse result;
+        volatile long finishedAt;
+
+        Job(String id, String documentUrl) {
+            this.id = id;
+            this.documentUrl = documentUrl;
+        }
+    }
+
+    public ExtractionJobStatus submit(String documentUrl) {
+        purgeExpiredJobs();
+
+        if (!admitted.tryAcquire()) {
+            throw new JobQueueFullException();
+        }
+        Job job = new Job(UUID.randomUUID().toString(), documentUrl);
+        jobs.put(job.id, job);
+        try {
+            taskExecutor.execute(() -> {
+                try {
+                    runWhenSlotFree(job);
+                } finally {
+                    admitted.release();
+                }
+            });
+        } catch (TaskRejectedException e) {
+            jobs.remove(job.id);
+            admitted.release();
+            throw new JobQueueFullException(e);
+        }
+
+        log.info("Queued extraction job {} for {}", job.id, documentUrl);
+        return toStatus(job);
+    }
+
+    /**
+     * Extracts the documents of a batch request, each taking one of the {@code max-running} slots
+     * that jobs extract in, so a batch cannot run more documents at once than jobs can.
+     */
+    public BatchExtractionResponse extractBatch(List<String> documentUrls) {
+        return extractionService.extractBillDataBatch(documentUrls, running);
+    }
+
+    public Optional<ExtractionJobStatus> getStatus(String jobId) {
+        return Optional.ofNullable(jobs.get(jobId)).map(this::toStatus);
+    }
+
+    /**
+     * Jobs currently in {@code status}, among those still retained.
+     */
+    public long countJobs(String status) {
+        return jobs.values().stream().filter(job -> status.equals(job.status)).count();
+    }
+
+    /**
+     * Opens an SSE stream: replays pages parsed so far, then pushes new ones,
+     * and finishes with a {@code completed} or {@code failed} event carrying the full response.
+     */
+    public Optional<SseEmitter> subscribe(String jobId) {
+        Job job = jobs.get(jobId);
+        if (job == null) {
+            return Optional.empty();
+        }
+
+        SseEmitter emitter = new SseEmitter(sseTimeoutMs);
+        emitter.onCompletion(() -> job.emitters.remove(emitter));
+        emitter.onTimeout(() -> job.emitters.remove(emitter));
+        emitter.onError(e -> job.emitters.remove(emitter));
+
+        List<PageWiseLineItems> pages;
+        boolean finished;
+        job.lock.lock();
+        try {
+            pages = List.copyOf(job.pages);
+            finished = job.result != null;
+            if (!finished) {
+                job.emitters.add(emitter);
+                // Queued ahead of every page parsed from now on, which then reach this emitter too
+                job.events.execute(() -> replay(emitter, job, pages, false));
+            }
+        } finally {
+            job.lock.unlock();
+        }
+        if (finished) {
+            replay(emitter, job, pages, true);
+        }
+        return Optional.of(emitter);
+    }
+
+    /** Sends {@code pages}, then the job's result when it has {@code finished}. */
+    private void replay(SseEmitter emitter, Job job, List<PageWiseLineItems> pages, boolean finished) {
+        for (PageWiseLineItems page : pages) {
+            if (!send(emitter, job, SseEmitter.event().name("page").data(page))) {
+                return;
+            }
+        }
+        if (finished) {
+            sendResult(emitter, job);
+        }
+    }
+
+    /** Queues one event per item of {@code data} for the job's current subscribers; the job's lock must be held. */
+    private void publish(Job job, String name, List<?> data) {
+        List<SseEmitter> targets = List.copyOf(job.emitters);
+        if (targets.isEmpty()) {
+            return;
+        }
+        job.events.execute(() -> {
+            for (SseEmitter emitter : targets) {
+                for (Object item : data) {
+                    if (!send(emitter, job, SseEmitter.event().name(name).data(item))) {
+                        break;
+                    }
+                }
+            }
+        });
+    }
+
+    private void runWhenSlotFree(Job job) {
+        try {
+            running.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            finish(job, BillExtractionResponse.failure("Extraction job was cancelled while queued"));
+            return;
+        }
+        try {
+            run(job);
+        } finally {
+            running.release();
+        }
+    }
+
+    private void run(Job job) {
+        job.status = STATUS_RUNNING;
+
+        BillExtractionResponse response;
+        try {
+            response = extractionService.extractBillData(job.documentUrl, new ExtractionProgressListener() {
+                @Override
+                public void onPages(List<PageWiseLineItems> pages) {
+                    job.lock.lock();
+                    try {
+                        job.pages.addAll(pages);
+                        publish(job, "page", List.copyOf(pages));
+                    } finally {
+                        job.lock.unlock();
+                    }
+                }
+
+                @Override
+                public void onPagesReplaced(List<PageWiseLineItems> pages) {
+                    job.lock.lock();
+                    try {
+                        for (PageWiseLineItems page : pages) {
+                            job.pages.replaceAll(earlier -> Objects.equals(earlier.getPageNo(), page.getPageNo())
+                                    ? page : earlier);
+                        }
+                        publish(job, "page_replaced", List.copyOf(pages));
+                    } finally {
+                        job.lock.unlock();
+                    }
+                }
+
+                @Override
+                public void onItem(String pageNo, BillItem item) {
+                    // Previews only: not replayed, the page event carries the item again
+                    Map<String, Object> preview = new LinkedHashMap<>();
+                    preview.put("page_no", pageNo);
+                    preview.put("bill_item", item);
+                    job.lock.lock();
+                    try {
+                        publish(job, "item", List.of(preview));
+                    } finally {
+                        job.lock.unlock();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            log.error("Extraction job {} crashed: ", job.id, e);
+            response = BillExtractionResponse.failure("Extraction failed: " + e.getMessage());
+        }
+        finish(job, response);
+    }
+
+    private void finish(Job job, BillExtractionResponse response) {
+        job.lock.lock();
+        try {
+            job.result = response;
+            job.status = response.isSuccess() ? STATUS_SUCCEEDED : STATUS_FAILED;
+            job.finishedAt = System.currentTimeMillis();
+            List<SseEmitter> targets = List.copyOf(job.emitters);
+            job.emitters.clear();
+            // Already queued events go out first; the thread ends once the result is sent
+            job.events.execute(() -> targets.forEach(emitter -> sendResult(emitter, job)));
+            job.events.shutdown();
+        } finally {
+            job.lock.unlock();
+        }
+        log.info("Extraction job {} {}", job.id, job.status);
+    }
+
+    private void sendResult(SseEmitter emitter, Job job) {
+        String event = STATUS_SUCCEEDED.equals(job.status) ? "completed" : "failed";
+        if (send(emitter, job, SseEmitter.event().name(event).data(job.result))) {
+            emitter.complete();
+        }
+    }
+
+    private boolean send(SseEmitter emitter, Job job, SseEmitter.SseEventBuilder event) {
+        try {
+            emitter.send(event);
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            // client went away; the job keeps running for pollers
+            job.emitters.remove(emitter);
+            return false;
+        }
+    }
+
+    private ExtractionJobStatus toStatus(Job job) {
+        job.lock.lock();
+        try {
+            return new ExtractionJobStatus(job.id, job.status, job.pages.size(), job.result);
+        } finally {
+            job.lock.unlock();
+        }
+    }
+
+    private void purgeExpiredJobs() {
+        long cutoff = System.currentTimeMillis() - retentionMinutes * 60_000;
+        jobs.values().removeIf(job -> job.finishedAt > 0 && job.finishedAt < cutoff);
+    }
+}
@@ -0,0 +1,124 @@
+package com.bfhl.billextraction.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Timings, token and payload counters for extractions.
+ *
+ * Every extraction and each of its stages (download, load, render, encode, llm, parse, merge) is an
+ * {@link Observation}, so it yields both a {@code bill.extraction[.stage]} timer and a trace span.
+ * Stages run on pipeline and pool threads where no observation is in scope, so they name their
+ * document's observation as parent explicitly.
+ */
+@Component
+public class ExtractionMetrics {
+
+    public static final String EXTRACTION = "bill.extraction";
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private ObservationRegistry observationRegistry;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    @PostConstruct
+    void init() {
+        Gauge.builder(EXTRACTION + ".in.flight", inFlight, AtomicInteger::get)
+                .description("Extractions currently running, synchronous and background")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Starts the observation of one extraction, as a child of the request's observation if any.
+     * The caller sets its {@code outcome} and stops it.
+     */
+    public Observation startExtraction() {
+        inFlight.incrementAndGet();
+        return Observation.createNotStarted(EXTRACTION, observationRegistry)
+                .contextualName("extract-bill-data")
+                .lowCardinalityKeyValue("outcome", "unknown")
+                .start();
+    }
+
+    public void endExtraction(Observation extraction, String outcome) {
+        extraction.lowCardinalityKeyValue("outcome", outcome);
+        extraction.stop();
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * A not yet started stage of {@code parent}; low-cardinality tags must be the same on every call
+     * for a stage, since Prometheus needs one tag set per meter name.
+     */
+    public Observation stage(String stage, Observation parent) {
+        return Observation.createNotStarted(EXTRACTION + "." + stage, observationRegistry)
+                .contextualName(stage)
+                .parentObservation(parent);
+    }
+
+    public void recordTokens(String model, OpenAiResult result) {
+        tokens(model, "input").increment(result.inputTokens);
+        tokens(model, "output").increment(result.outputTokens);
+    }
+
+    /**
+     * Time from sending an LLM call to its first line item: the whole call when answers are not streamed.
+     */
+    public void recordTimeToFirstItem(String model, long nanos) {
+        Timer.builder(EXTRACTION + ".llm.first.item")
+                .description("Time from sending an LLM call to its first parsed line item")
+                .tag("model", model)
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordImageBytes(long bytes) {
+        Counter.builder(EXTRACTION + ".image.bytes")
+                .description("Encoded page image bytes sent to the vision model")
+                .baseUnit("bytes")
+                .register(meterRegistry)
+                .increment(bytes);
+    }
+
+    public void recordDocumentPages(int pageCount) {
+        DistributionSummary.builder(EXTRACTION + ".document.pages")
+                .description("Pages per extracted document")
+                .baseUnit("pages")
+                .register(meterRegistry)
+                .record(pageCount);
+    }
+
+    /**
+     * Counts the pages of one document by the path that served them (vision, text_layer, cache, ...).
+     */
+    public void recordPagePaths(Map<Integer, String> pagePaths) {
+        pagePaths.values().forEach(path -> Counter.builder(EXTRACTION + ".pages")
+                .description("Pages by extraction path")
+                .tag("path", path)
+                .register(meterRegistry)
+                .increment());
+    }
+
+    private Counter tokens(String model, String type) {
+        return Counter.builder(EXTRACTION + ".tokens")
+                .description("Tokens reported by the LLM provider")
+                .tag("model", model)
+                .tag("type", type)
+                .register(meterRegistry);
+    }
+}
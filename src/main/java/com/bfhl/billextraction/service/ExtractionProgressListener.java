@@ -0,0 +1,31 @@
+package com.bfhl.billextraction.service;
+
+import com.bfhl.billextraction.model.BillItem;
+import com.bfhl.billextraction.model.PageWiseLineItems;
+
+import java.util.List;
+
+/**
+ * Receives page results while a document is still being extracted.
+ *
+ * Called from scheduler threads as soon as each page is parsed (while the answer is still streaming,
+ * when streaming is on), so pages may arrive out of page order; the final response is still merged
+ * in page order. Line items may also be previewed one by one before their page completes; a page
+ * whose answer was cut off can be previewed again when it is requested again. Each page reaches
+ * {@link #onPages} once per extraction; a later result for it comes through {@link #onPagesReplaced}.
+ */
+@FunctionalInterface
+public interface ExtractionProgressListener {
+
+    ExtractionProgressListener NONE = pages -> { };
+
+    void onPages(List<PageWiseLineItems> pages);
+
+    /** New results for pages already passed to {@link #onPages}, e.g. after their batch was retried. */
+    default void onPagesReplaced(List<PageWiseLineItems> pages) {
+    }
+
+    /** A line item of page {@code pageNo} (null if the answer had not named it yet), before its page completes. */
+    default void onItem(String pageNo, BillItem item) {
+    }
+}
@@ -0,0 +1,237 @@
+package com.bfhl.billextraction.service;
+
+import com.bfhl.billextraction.config.PdfProcessingConfig;
+import com.bfhl.billextraction.model.BillItem;
+import com.bfhl.billextraction.model.ExtractionData;
+import com.bfhl.billextraction.model.PageWiseLineItems;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+
+/**
+ * Pays the first request's one-off costs while the service starts.
+ *
+ * Runs before the application reports ready (readiness stays {@code REFUSING_TRAFFIC} until every
+ * runner has returned): a generated two-page bill, one text page with a ruled table and one scanned
+ * page, goes through text-layer classification, rendering, fingerprinting, table cropping and
+ * encoding, which builds PDFBox's font cache and loads the ImageIO codecs; a model answer for it
+ * is serialized and parsed; and pooled connections to {@code openai.api.url} are opened. Every step
+ * is best effort: a failure is logged and start-up continues.
+ */
+@Slf4j
+@Component
+public class ExtractionWarmup implements ApplicationRunner {
+
+    private static final String[] ITEMS = {"Consultation", "Room Rent - Semi Private", "Nursing Charges",
+            "Complete Blood Count (CBC)", "Inj. Ceftriaxone 1g", "X-Ray Chest PA View"};
+
+    @Autowired
+    private BillExtractionService extractionService;
+
+    @Autowired
+    private OpenAiClient openAiClient;
+
+    @Autowired
+    private TextLayerClassifier textLayerClassifier;
+
+    @Autowired
+    private PageResolutionPlanner resolutionPlanner;
+
+    @Autowired
+    private PageFingerprinter pageFingerprinter;
+
+    @Autowired
+    private TableRegionDetector tableRegionDetector;
+
+    @Autowired
+    private RasterPool rasterPool;
+
+    @Autowired
+    private PageImageEncoder pageImageEncoder;
+
+    @Autowired
+    private PdfProcessingConfig pdfProcessingConfig;
+
+    @Value("${extraction.warmup.enabled:true}")
+    private boolean enabled;
+
+    @Value("${extraction.warmup.connections:2}")
+    private int connections;
+
+    @Value("${extraction.warmup.timeout-ms:5000}")
+    private long timeoutMs;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            log.info("Start-up warm-up disabled");
+            return;
+        }
+        long start = System.currentTimeMillis();
+        Map<String, Long> stepMs = new LinkedHashMap<>();
+        step("pdf", stepMs, this::warmUpPages);
+        step("json", stepMs, () -> extractionService.warmUpParsers(modelAnswer()));
+        step("connections", stepMs, () -> {
+            int answered = openAiClient.warmUp(connections, timeoutMs);
+            if (answered == 0) {
+                log.warn("Warm-up could not reach the LLM endpoint; the first call opens its own connection");
+            }
+        });
+
+        StringJoiner steps = new StringJoiner(", ");
+        stepMs.forEach((step, ms) -> steps.add(step + " " + ms + " ms"));
+        log.info("✓ Warm-up done in {} ms ({})", System.currentTimeMillis() - start, steps);
+    }
+
+    private interface Step {
+        void run() throws Exception;
+    }
+
+    private static void step(String name, Map<String, Long> stepMs, Step step) {
+        long start = System.currentTimeMillis();
+        try {
+            step.run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.warn("Warm-up step '{}' failed: {}", name, e.toString());
+        }
+        stepMs.put(name, System.currentTimeMillis() - start);
+    }
+
+    /** Every per-page step of the pipeline, on each page of the generated bill. */
+    private void warmUpPages() throws IOException {
+        try (PDDocument document = PDDocument.load(syntheticBill())) {
+            PDFRenderer renderer = new PDFRenderer(document);
+            for (int pageIndex = 0; pageIndex < document.getNumberOfPages(); pageIndex++) {
+                textLayerClassifier.extractUsableText(document, pageIndex);
+                int dpi = resolutionPlanner.planDpi(document, pageIndex, pdfProcessingConfig.getDefaultDpi());
+                BufferedImage image = extractionService.renderRaster(document, renderer, pageIndex, dpi);
+                try {
+                    pageFingerprinter.fingerprint(image);
+                    Rectangle crop = tableRegionDetector.detect(image);
+                    BufferedImage sent = crop == null ? image
+                            : image.getSubimage(crop.x, crop.y, crop.width, crop.height);
+                    byte[] encoded = extractionService.encodePageImage(sent);
+                    new ChatCompletionRequest("warm-up", "warm-up", List.of(encoded), pageImageEncoder.mediaType(), 1, 0)
+                            .writeTo(OutputStream.nullOutputStream());
+                } finally {
+                    // Leaves a raster of the usual page size in the pool for the first request
+                    rasterPool.release(image);
+                }
+            }
+        }
+    }
+
+    /** A page with a ruled line-item table as vector text, and the same table scanned. */
+    private static byte[] syntheticBill() throws IOException {
+        try (PDDocument document = new PDDocument()) {
+            PDPage text = new PDPage(PDRectangle.A4);
+            document.addPage(text);
+            try (PDPageContentStream content = new PDPageContentStream(document, text)) {
+                content.beginText();
+                content.setFont(PDType1Font.HELVETICA_BOLD, 14);
+                content.newLineAtOffset(50, 790);
+                content.showText("CITY HOSPITAL - BILL DETAIL");
+                content.setFont(PDType1Font.HELVETICA, 9);
+                for (int row = 0; row < ITEMS.length; row++) {
+                    content.newLineAtOffset(0, -20);
+                    content.showText(line(row));
+                }
+                content.endText();
+                for (int row = 0; row <= ITEMS.length; row++) {
+                    content.moveTo(45, 765 - row * 20);
+                    content.lineTo(550, 765 - row * 20);
+                }
+                content.stroke();
+            }
+
+            PDPage scanned = new PDPage(PDRectangle.A4);
+            document.addPage(scanned);
+            try (PDPageContentStream content = new PDPageContentStream(document, scanned)) {
+                content.drawImage(LosslessFactory.createFromImage(document, scannedTable()),
+                        0, 0, PDRectangle.A4.getWidth(), PDRectangle.A4.getHeight());
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            document.save(out);
+            return out.toByteArray();
+        }
+    }
+
+    private static BufferedImage scannedTable() {
+        // A4 at 100 DPI
+        BufferedImage image = new BufferedImage(827, 1169, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, image.getWidth(), image.getHeight());
+            g.setColor(Color.BLACK);
+            g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 13));
+            for (int row = 0; row < ITEMS.length; row++) {
+                g.drawString(line(row), 80, 120 + row * 28);
+                g.drawLine(70, 126 + row * 28, 760, 126 + row * 28);
+            }
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    /** An answer for the generated bill, in the fenced form the model usually sends. */
+    private static String modelAnswer() throws IOException {
+        List<PageWiseLineItems> pages = new ArrayList<>();
+        for (int pageNo = 1; pageNo <= 2; pageNo++) {
+            List<BillItem> items = new ArrayList<>();
+            for (int row = 0; row < ITEMS.length; row++) {
+                BillItem item = new BillItem();
+                item.setItemName(ITEMS[row]);
+                item.setItemRate(rate(row));
+                item.setItemQuantity((double) quantity(row));
+                item.setItemAmount(rate(row) * quantity(row));
+                items.add(item);
+            }
+            pages.add(new PageWiseLineItems(String.valueOf(pageNo), "Bill Detail", items));
+        }
+        ExtractionData data = new ExtractionData();
+        data.setPagewiseLineItems(pages);
+        return "```json\n" + new ObjectMapper().writeValueAsString(data) + "\n```";
+    }
+
+    private static String line(int row) {
+        return String.format("%-32s %8.2f x %d = %9.2f", ITEMS[row], rate(row), quantity(row), rate(row) * quantity(row));
+    }
+
+    private static double rate(int row) {
+        return 150.0 + row * 75;
+    }
+
+    private static int quantity(int row) {
+        return row % 3 + 1;
+    }
+}
@@ -0,0 +1,218 @@
+package com.bfhl.billextraction.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The equivalent chat-completions endpoints (deployments, regions or providers serving the same
+ * models) calls are spread over, and what the client has learned about each.
+ *
+ * An endpoint is picked at random, weighted by the inverse of its recent answer time (an
+ * exponentially weighted average), so a slow deployment gets less traffic without being starved of
+ * the calls that would show it has recovered. After {@code max-failures} failed calls in a row, or
+ * a 429, an endpoint is left out for {@code cooldown-seconds} (or the Retry-After), unless every
+ * endpoint is.
+ *
+ * The answer times of recent calls also give the hedge delay: a call that has not started answering
+ * by their {@code hedge.percentile} gets a duplicate on another endpoint (never the same one).
+ * Hedging is off unless {@code openai.hedge.enabled}, since every duplicate is paid for.
+ */
+@Slf4j
+@Component
+public class LlmEndpoints {
+
+    // Weight of the newest sample in an endpoint's average answer time
+    private static final double EWMA_ALPHA = 0.2;
+
+    @Value("${openai.api.url}")
+    private String url;
+
+    @Value("${openai.api.urls:}")
+    private String urls;
+
+    @Value("${openai.routing.max-failures:3}")
+    private int maxFailures;
+
+    @Value("${openai.routing.cooldown-seconds:30}")
+    private int cooldownSeconds;
+
+    @Value("${openai.hedge.enabled:false}")
+    private boolean hedgeEnabled;
+
+    @Value("${openai.hedge.percentile:0.95}")
+    private double hedgePercentile;
+
+    @Value("${openai.hedge.min-delay-ms:3000}")
+    private long hedgeMinDelayMs;
+
+    @Value("${openai.hedge.min-samples:20}")
+    private int hedgeMinSamples;
+
+    @Value("${openai.hedge.window:200}")
+    private int hedgeWindow;
+
+    private List<Endpoint> endpoints;
+
+    // Answer times of recent calls, a ring guarded by this
+    private long[] samples;
+    private int sampleCount;
+    private int nextSample;
+
+    /** One endpoint and its recent record. */
+    public static final class Endpoint {
+        private final String url;
+        private double averageMs;
+        private int consecutiveFailures;
+        private long benchedUntil;
+
+        Endpoint(String url) {
+            this.url = url;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        /** Average answer time, 0 until the first answer. */
+        public synchronized double getAverageMs() {
+            return averageMs;
+        }
+
+        synchronized boolean isAvailable(long now) {
+            return benchedUntil <= now;
+        }
+
+        synchronized void answered(long elapsedMs) {
+            averageMs = averageMs == 0 ? elapsedMs : averageMs + EWMA_ALPHA * (elapsedMs - averageMs);
+            consecutiveFailures = 0;
+            benchedUntil = 0;
+        }
+
+        /** Folds in a lower bound: a call cancelled after this long without an answer. */
+        synchronized void unanswered(long elapsedMs) {
+            if (elapsedMs > averageMs) {
+                answered(elapsedMs);
+            }
+        }
+
+        synchronized boolean failed(int threshold, long benchMs) {
+            if (++consecutiveFailures >= threshold) {
+                benchedUntil = Math.max(benchedUntil, System.currentTimeMillis() + benchMs);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        endpoints = new ArrayList<>();
+        Arrays.stream((urls == null || urls.isBlank() ? url : urls).split(","))
+                .map(String::trim)
+                .filter(candidate -> !candidate.isEmpty())
+                .distinct()
+                .forEach(candidate -> endpoints.add(new Endpoint(candidate)));
+        samples = new long[Math.max(1, hedgeWindow)];
+        log.info("LLM endpoints: {}; hedging {}", endpoints.size(),
+                hedgeEnabled ? "at p" + Math.round(hedgePercentile * 100) + " of answer time, at least " + hedgeMinDelayMs + " ms"
+                        : "disabled");
+    }
+
+    public List<Endpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * An endpoint for the next call other than {@code exclude}, weighted by speed among those not
+     * benched; null when {@code exclude} is the only one.
+     */
+    public Endpoint choose(Endpoint exclude) {
+        long now = System.currentTimeMillis();
+        List<Endpoint> candidates = new ArrayList<>();
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint != exclude && endpoint.isAvailable(now)) {
+                candidates.add(endpoint);
+            }
+        }
+        if (candidates.isEmpty()) {
+            // Everything benched: better a likely failure than none at all
+            endpoints.stream().filter(endpoint -> endpoint != exclude).forEach(candidates::add);
+        }
+        if (candidates.isEmpty()) {
+            return null;
+        }
+
+        // Endpoints without an answer yet weigh as much as the fastest known one
+        double fastest = candidates.stream().mapToDouble(Endpoint::getAverageMs).filter(ms -> ms > 0).min().orElse(1);
+        double[] weights = new double[candidates.size()];
+        double total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            double averageMs = candidates.get(i).getAverageMs();
+            weights[i] = 1.0 / Math.max(1, averageMs > 0 ? averageMs : fastest);
+            total += weights[i];
+        }
+        double pick = ThreadLocalRandom.current().nextDouble(total);
+        for (int i = 0; i < weights.length; i++) {
+            pick -= weights[i];
+            if (pick < 0) {
+                return candidates.get(i);
+            }
+        }
+        return candidates.get(candidates.size() - 1);
+    }
+
+    /**
+     * Records that a call to {@code endpoint} started answering after {@code elapsedMs}. Only
+     * first attempts feed the hedge delay, so hedges that win do not pull it down.
+     */
+    public void answered(Endpoint endpoint, long elapsedMs, boolean firstAttempt) {
+        endpoint.answered(elapsedMs);
+        if (firstAttempt) {
+            sample(elapsedMs);
+        }
+    }
+
+    /** Records that a call was cancelled after {@code elapsedMs} because a duplicate answered first. */
+    public void overtaken(Endpoint endpoint, long elapsedMs, boolean firstAttempt) {
+        endpoint.unanswered(elapsedMs);
+        if (firstAttempt) {
+            // It would have taken at least this long
+            sample(elapsedMs);
+        }
+    }
+
+    /** Records a failed call; {@code retryAfterMs} above 0 benches the endpoint for that long at once. */
+    public void failed(Endpoint endpoint, long retryAfterMs) {
+        long benchMs = retryAfterMs > 0 ? retryAfterMs : cooldownSeconds * 1000L;
+        if (endpoint.failed(retryAfterMs > 0 ? 1 : maxFailures, benchMs)) {
+            log.warn("LLM endpoint {} left out for {} ms", endpoint.getUrl(), benchMs);
+        }
+    }
+
+    /**
+     * How long a call may go without an answer before it is hedged, or -1 while hedging is off or
+     * too few calls have been seen to place the percentile.
+     */
+    public synchronized long hedgeDelayMs() {
+        if (!hedgeEnabled || sampleCount < Math.max(1, hedgeMinSamples)) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(samples, sampleCount);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(hedgePercentile * sorted.length) - 1;
+        return Math.max(hedgeMinDelayMs, sorted[Math.min(Math.max(index, 0), sorted.length - 1)]);
+    }
+
+    private synchronized void sample(long elapsedMs) {
+        samples[nextSample] = elapsedMs;
+        nextSample = (nextSample + 1) % samples.length;
+        sampleCount = Math.min(sampleCount + 1, samples.length);
+    }
+}
@@ -0,0 +1,511 @@
+package com.bfhl.billextraction.service;
+
+import com.bfhl.billextraction.config.PdfProcessingConfig;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.*;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Dedicated HTTP client for the chat-completions endpoints.
+ *
+ * Keeps a keep-alive pool sized for the scheduler's concurrency, negotiates HTTP/2 where an
+ * endpoint offers it, hedges calls that are slow to answer (see {@link LlmEndpoints}), and bounds every call by {@link PdfProcessingConfig#getApiCallTimeout()} so a
+ * stuck call frees its thread. OkHttp requests and transparently inflates gzip'd responses.
+ */
+@Slf4j
+@Component
+public class OpenAiClient {
+
+    private static final MediaType JSON = MediaType.get("application/json");
+    private static final int CHARS_PER_TOKEN = 4;
+
+    @Autowired
+    private PdfProcessingConfig pdfProcessingConfig;
+
+    @Autowired
+    private LlmEndpoints endpoints;
+
+    @Autowired
+    private VisionCallScheduler scheduler;
+
+    @Value("${openai.api.key}")
+    private String openaiApiKey;
+
+    @Value("${openai.http.connect-timeout-seconds:10}")
+    private int connectTimeoutSeconds;
+
+    @Value("${openai.http.max-idle-connections:16}")
+    private int maxIdleConnections;
+
+    @Value("${openai.http.keep-alive-minutes:5}")
+    private int keepAliveMinutes;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final OpenAiConnectionMetrics connectionMetrics = new OpenAiConnectionMetrics();
+    private final AtomicLong hedgedCalls = new AtomicLong();
+    private final AtomicLong hedgesWon = new AtomicLong();
+    private final AtomicLong hedgeExtraTokens = new AtomicLong();
+
+    private OkHttpClient httpClient;
+
+    @PostConstruct
+    void init() {
+        int apiCallTimeout = pdfProcessingConfig.getApiCallTimeout();
+        httpClient = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(maxIdleConnections, keepAliveMinutes, TimeUnit.MINUTES))
+                .protocols(List.of(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .connectTimeout(connectTimeoutSeconds, TimeUnit.SECONDS)
+                .writeTimeout(apiCallTimeout, TimeUnit.SECONDS)
+                .readTimeout(apiCallTimeout, TimeUnit.SECONDS)
+                .callTimeout(apiCallTimeout, TimeUnit.SECONDS)
+                .retryOnConnectionFailure(true)
+                .eventListenerFactory(connectionMetrics)
+                .build();
+        log.info("OpenAI client: pool of {} idle connections, {}s call deadline", maxIdleConnections, apiCallTimeout);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        httpClient.dispatcher().executorService().shutdown();
+        httpClient.connectionPool().evictAll();
+    }
+
+    public OpenAiConnectionMetrics getConnectionMetrics() {
+        return connectionMetrics;
+    }
+
+    /** Calls that got a hedged duplicate. */
+    public long getHedgedCalls() {
+        return hedgedCalls.get();
+    }
+
+    /** Hedged calls the duplicate answered first. */
+    public long getHedgesWon() {
+        return hedgesWon.get();
+    }
+
+    /** Estimated input tokens spent on duplicates that were cancelled. */
+    public long getHedgeExtraTokens() {
+        return hedgeExtraTokens.get();
+    }
+
+    public LlmEndpoints getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * Opens up to {@code connections} pooled connections to each endpoint before the first call needs
+     * them, paying for DNS, TCP and TLS up front. Each is a concurrent HEAD request whose status does
+     * not matter; with HTTP/2 they share one connection. Returns how many got an answer within
+     * {@code timeoutMs}.
+     */
+    public int warmUp(int connections, long timeoutMs) throws InterruptedException {
+        OkHttpClient client = httpClient.newBuilder().callTimeout(timeoutMs, TimeUnit.MILLISECONDS).build();
+        AtomicInteger answered = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (LlmEndpoints.Endpoint endpoint : endpoints.getEndpoints()) {
+            Request head = new Request.Builder().url(endpoint.getUrl()).head().build();
+            for (int i = 0; i < connections; i++) {
+                threads.add(Thread.startVirtualThread(() -> {
+                    try (Response response = client.newCall(head).execute()) {
+                        answered.incrementAndGet();
+                    } catch (IOException e) {
+                        log.debug("Warm-up request to {} failed: {}", endpoint.getUrl(), e.getMessage());
+                    }
+                }));
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return answered.get();
+    }
+
+    /**
+     * Posts a chat-completions request, streaming the body straight onto the connection.
+     */
+    OpenAiResult call(ChatCompletionRequest request) throws IOException {
+        return call(request, content -> true);
+    }
+
+    /**
+     * As {@link #call(ChatCompletionRequest)}; for a {@link ChatCompletionRequest#streaming() streaming}
+     * request, each piece of the answer goes to {@code onContent} as it arrives. Returning false stops
+     * the stream: the answer so far comes back as {@link OpenAiResult#FINISH_ABORTED}, with input
+     * tokens taken from the request's estimate and output tokens from the answer's length, since the
+     * provider reports usage only at the end.
+     *
+     * The call goes to one of the {@link LlmEndpoints}. If it has not started answering by the hedge
+     * delay, the same request goes to another endpoint too, and whichever starts answering first is
+     * used while the other is cancelled. The duplicate is only sent when there is another endpoint
+     * and the {@link VisionCallScheduler} has a permit and budget for it right now.
+     */
+    OpenAiResult call(ChatCompletionRequest request, Predicate<String> onContent) throws IOException {
+        Race race = new Race(request, onContent);
+        race.start(endpoints.choose(null), null);
+        try {
+            long hedgeDelayMs = endpoints.hedgeDelayMs();
+            if (hedgeDelayMs >= 0 && !race.awaitAnswer(hedgeDelayMs)) {
+                hedge(race, hedgeDelayMs);
+            }
+            return race.outcome.get();
+        } catch (InterruptedException e) {
+            // cancelled by its document (deadline or failure elsewhere); not a provider error
+            race.cancel();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("GPT API call cancelled");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause()
+                    : new IOException("GPT API error: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private void hedge(Race race, long hedgeDelayMs) {
+        LlmEndpoints.Endpoint first = race.attempts.get(0).endpoint;
+        LlmEndpoints.Endpoint other = endpoints.choose(first);
+        if (other == null) {
+            return; // a duplicate on the same endpoint is no independent chance of a faster answer
+        }
+        VisionCallScheduler.Lease lease = scheduler.tryReserve(
+                race.request.getEstimatedInputTokens() + race.request.getMaxTokens());
+        if (lease == null) {
+            log.debug("No answer from {} after {} ms, but no budget to hedge", first.getUrl(), hedgeDelayMs);
+            return;
+        }
+        if (race.start(other, lease)) {
+            hedgedCalls.incrementAndGet();
+            log.info("No answer from {} after {} ms, hedging on {}", first.getUrl(), hedgeDelayMs, other.getUrl());
+        } else {
+            lease.release(0);
+        }
+    }
+
+    /**
+     * One logical call: its first attempt and, if sent, the hedge. The attempt that starts answering
+     * first (its first streamed piece, or its whole answer when not streaming) wins and the other is
+     * cancelled, so only one attempt's pieces ever reach {@code onContent}. A failed attempt loses
+     * only while the other one may still answer.
+     */
+    private final class Race {
+        final ChatCompletionRequest request;
+        final Predicate<String> onContent;
+        final CompletableFuture<OpenAiResult> outcome = new CompletableFuture<>();
+        // Guarded by this
+        final List<Attempt> attempts = new ArrayList<>();
+        Attempt winner;
+        boolean overtook;
+
+        Race(ChatCompletionRequest request, Predicate<String> onContent) {
+            this.request = request;
+            this.onContent = onContent;
+        }
+
+        /**
+         * Sends the request to {@code endpoint}, unless the call is already decided. A hedge carries
+         * the scheduler {@code lease} it runs under; the first attempt runs under its queued call's.
+         */
+        synchronized boolean start(LlmEndpoints.Endpoint endpoint, VisionCallScheduler.Lease lease) {
+            if (winner != null || outcome.isDone()) {
+                return false;
+            }
+            Attempt attempt = new Attempt(this, endpoint, attempts.isEmpty(), lease);
+            attempts.add(attempt);
+            Thread.startVirtualThread(attempt);
+            return true;
+        }
+
+        /** Waits until an attempt starts answering or the call is decided; false on timeout. */
+        synchronized boolean awaitAnswer(long timeoutMs) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMs;
+            while (winner == null && !outcome.isDone()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                wait(remaining);
+            }
+            return true;
+        }
+
+        /** Makes {@code attempt} the winner if no other attempt has answered; true if it is the winner. */
+        synchronized boolean claim(Attempt attempt) {
+            if (winner == null && !outcome.isDone()) {
+                winner = attempt;
+                long now = System.nanoTime();
+                endpoints.answered(attempt.endpoint, attempt.elapsedMs(now), attempt.first);
+                for (Attempt other : attempts) {
+                    if (other != attempt && other.failure == null) {
+                        endpoints.overtaken(other.endpoint, other.elapsedMs(now), other.first);
+                        other.cancel();
+                        overtook = true;
+                    }
+                }
+                if (!attempt.first) {
+                    hedgesWon.incrementAndGet();
+                }
+                notifyAll();
+            }
+            return winner == attempt;
+        }
+
+        void finished(Attempt attempt, OpenAiResult result) {
+            if (claim(attempt)) {
+                if (overtook) {
+                    // The cancelled duplicate was sent the same prompt
+                    hedgeExtraTokens.addAndGet(result.inputTokens);
+                }
+                outcome.complete(result);
+            }
+        }
+
+        synchronized void failed(Attempt attempt, IOException failure) {
+            attempt.failure = failure;
+            if (attempt.cancelled) {
+                log.debug("OpenAI API call cancelled: {}", failure.getMessage());
+                return;
+            }
+            if (failure instanceof RateLimitedException) {
+                endpoints.failed(attempt.endpoint, Math.max(1, ((RateLimitedException) failure).getRetryAfterMillis()));
+            } else {
+                log.error("OpenAI API call to {} failed", attempt.endpoint.getUrl(), failure);
+                endpoints.failed(attempt.endpoint, 0);
+            }
+            if (winner == attempt) {
+                outcome.completeExceptionally(failure);
+            } else if (winner == null && attempts.stream().allMatch(other -> other.failure != null)) {
+                outcome.completeExceptionally(attempts.get(0).failure);
+            }
+            notifyAll();
+        }
+
+        synchronized void cancel() {
+            attempts.forEach(Attempt::cancel);
+            outcome.cancel(false);
+        }
+    }
+
+    /** The request sent to one endpoint, run on its own virtual thread. */
+    private final class Attempt implements Runnable {
+        final Race race;
+        final LlmEndpoints.Endpoint endpoint;
+        final boolean first;
+        final VisionCallScheduler.Lease lease;
+        final long startNanos = System.nanoTime();
+        final Call call;
+        volatile boolean cancelled;
+        IOException failure;
+
+        Attempt(Race race, LlmEndpoints.Endpoint endpoint, boolean first, VisionCallScheduler.Lease lease) {
+            this.race = race;
+            this.endpoint = endpoint;
+            this.first = first;
+            this.lease = lease;
+            this.call = httpClient.newCall(new Request.Builder()
+                    .url(endpoint.getUrl())
+                    .header("Authorization", "Bearer " + openaiApiKey)
+                    .post(new StreamingJsonBody(race.request))
+                    .build());
+        }
+
+        @Override
+        public void run() {
+            try {
+                race.finished(this, execute(call, race.request,
+                        piece -> race.claim(this) && race.onContent.test(piece)));
+            } catch (IOException e) {
+                race.failed(this, e);
+            } catch (Exception e) {
+                race.failed(this, new IOException("GPT API error: " + e.getMessage(), e));
+            } finally {
+                releaseLease();
+            }
+        }
+
+        /**
+         * Settles a hedge's lease: it cost its prompt once sent, whether it won or was cancelled (the
+         * queued call settles the answer), and nothing when the provider refused it.
+         */
+        private void releaseLease() {
+            if (lease == null) {
+                return;
+            }
+            if (failure instanceof RateLimitedException) {
+                lease.rateLimited(((RateLimitedException) failure).getRetryAfterMillis());
+            }
+            lease.release(failure != null && !cancelled ? 0 : race.request.getEstimatedInputTokens());
+        }
+
+        long elapsedMs(long now) {
+            return (now - startNanos) / 1_000_000;
+        }
+
+        void cancel() {
+            cancelled = true;
+            call.cancel();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private OpenAiResult execute(Call call, ChatCompletionRequest request, Predicate<String> onContent) throws IOException {
+        try (Response response = call.execute()) {
+            if (response.code() == 429) {
+                throw new RateLimitedException("GPT API rate limited", parseRetryAfter(response), null);
+            }
+            if (!response.isSuccessful()) {
+                throw new IOException("GPT API error: HTTP " + response.code() + " " + errorSnippet(response));
+            }
+            if (request.isStream()) {
+                return readStream(response, request, onContent);
+            }
+
+            Map<String, Object> body;
+            try (InputStream in = response.body().byteStream()) {
+                body = objectMapper.readValue(in, Map.class);
+            }
+            if (body == null) {
+                throw new IOException("Empty OpenAI response body");
+            }
+
+            // content
+            List<Map<String, Object>> choices = (List<Map<String, Object>>) body.get("choices");
+            Map<String, Object> message = (Map<String, Object>) choices.get(0).get("message");
+            String content = (String) message.get("content");
+            Object finishReason = choices.get(0).get("finish_reason");
+
+            // exact token usage from OpenAI
+            Object usage = body.get("usage");
+            return new OpenAiResult(content, usageTokens(usage, "prompt_tokens"), usageTokens(usage, "completion_tokens"),
+                    finishReason instanceof String ? (String) finishReason : null);
+        }
+    }
+
+    /**
+     * Reads a {@code stream: true} answer: {@code data:} events carrying content deltas, the finish
+     * reason, and (with {@code include_usage}) a final event with the token usage.
+     */
+    @SuppressWarnings("unchecked")
+    private OpenAiResult readStream(Response response, ChatCompletionRequest request, Predicate<String> onContent)
+            throws IOException {
+        StringBuilder content = new StringBuilder();
+        String finishReason = null;
+        int inputTokens = 0;
+        int outputTokens = 0;
+
+        BufferedSource source = response.body().source();
+        String line;
+        while ((line = source.readUtf8Line()) != null) {
+            if (!line.startsWith("data:")) {
+                continue; // event separators and comments
+            }
+            String data = line.substring("data:".length()).trim();
+            if (data.equals("[DONE]")) {
+                break;
+            }
+            Map<String, Object> event = objectMapper.readValue(data, Map.class);
+            if (event.get("error") != null) {
+                throw new IOException("GPT API error in stream: " + data);
+            }
+
+            List<Map<String, Object>> choices = (List<Map<String, Object>>) event.get("choices");
+            if (choices != null && !choices.isEmpty()) {
+                Map<String, Object> choice = choices.get(0);
+                Object delta = choice.get("delta");
+                Object piece = delta instanceof Map ? ((Map<String, Object>) delta).get("content") : null;
+                if (piece instanceof String && !((String) piece).isEmpty()) {
+                    content.append((String) piece);
+                    if (!onContent.test((String) piece)) {
+                        // Closing the response cancels the stream; the provider stops generating, but
+                        // the whole prompt was already billed
+                        return new OpenAiResult(content.toString(), request.getEstimatedInputTokens(),
+                                content.length() / CHARS_PER_TOKEN, OpenAiResult.FINISH_ABORTED);
+                    }
+                }
+                if (choice.get("finish_reason") instanceof String) {
+                    finishReason = (String) choice.get("finish_reason");
+                }
+            }
+            Object usage = event.get("usage");
+            if (usage instanceof Map) {
+                inputTokens = usageTokens(usage, "prompt_tokens");
+                outputTokens = usageTokens(usage, "completion_tokens");
+            }
+        }
+        return new OpenAiResult(content.toString(), inputTokens, outputTokens, finishReason);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int usageTokens(Object usage, String field) {
+        Object tokens = usage instanceof Map ? ((Map<String, Object>) usage).get(field) : null;
+        return tokens instanceof Number ? ((Number) tokens).intValue() : 0;
+    }
+
+    /**
+     * Reads the provider's back-off hint, preferring the millisecond header OpenAI also sends.
+     */
+    private static long parseRetryAfter(Response response) {
+        try {
+            String retryAfterMs = response.header("retry-after-ms");
+            if (retryAfterMs != null) {
+                return (long) Double.parseDouble(retryAfterMs);
+            }
+            String retryAfter = response.header("Retry-After");
+            if (retryAfter != null) {
+                return (long) (Double.parseDouble(retryAfter) * 1000);
+            }
+        } catch (NumberFormatException e) {
+            log.debug("Unparseable Retry-After header: {}", e.getMessage());
+        }
+        return 0;
+    }
+
+    private static String errorSnippet(Response response) {
+        try {
+            String body = response.peekBody(512).string();
+            return body.replaceAll("\\s+", " ");
+        } catch (IOException e) {
+            return "";
+        }
+    }
+
+    /**
+     * Request body that serializes on the connection's write path; never buffered as a whole.
+     */
+    private static class StreamingJsonBody extends RequestBody {
+
+        private final ChatCompletionRequest request;
+
+        StreamingJsonBody(ChatCompletionRequest request) {
+            this.request = request;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return JSON;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            request.writeTo(sink.outputStream());
+        }
+    }
+}
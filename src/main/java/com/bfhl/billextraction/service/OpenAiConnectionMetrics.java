@@ -0,0 +1,101 @@
+package com.bfhl.billextraction.service;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connection-level counters for the LLM endpoint, fed by OkHttp call events.
+ *
+ * A healthy pool shows connections acquired far more often than new connections opened,
+ * i.e. most calls skip DNS, TCP and TLS entirely.
+ */
+public class OpenAiConnectionMetrics implements EventListener.Factory {
+
+    private final AtomicLong callsStarted = new AtomicLong();
+    private final AtomicLong callsFailed = new AtomicLong();
+    private final AtomicLong connectionsAcquired = new AtomicLong();
+    private final AtomicLong connectionsOpened = new AtomicLong();
+    private final AtomicLong http2Calls = new AtomicLong();
+    private final AtomicLong tlsHandshakes = new AtomicLong();
+    private final AtomicLong tlsHandshakeNanos = new AtomicLong();
+
+    @Override
+    public EventListener create(Call call) {
+        return new CallListener();
+    }
+
+    public long getCallsStarted() {
+        return callsStarted.get();
+    }
+
+    public long getCallsFailed() {
+        return callsFailed.get();
+    }
+
+    public long getConnectionsAcquired() {
+        return connectionsAcquired.get();
+    }
+
+    public long getConnectionsOpened() {
+        return connectionsOpened.get();
+    }
+
+    public long getHttp2Calls() {
+        return http2Calls.get();
+    }
+
+    public long getTlsHandshakes() {
+        return tlsHandshakes.get();
+    }
+
+    public long getTlsHandshakeNanos() {
+        return tlsHandshakeNanos.get();
+    }
+
+    private class CallListener extends EventListener {
+
+        private long secureConnectStart;
+
+        @Override
+        public void callStart(Call call) {
+            callsStarted.incrementAndGet();
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress address, Proxy proxy) {
+            connectionsOpened.incrementAndGet();
+        }
+
+        @Override
+        public void secureConnectStart(Call call) {
+            secureConnectStart = System.nanoTime();
+        }
+
+        @Override
+        public void secureConnectEnd(Call call, Handshake handshake) {
+            tlsHandshakes.incrementAndGet();
+            tlsHandshakeNanos.addAndGet(System.nanoTime() - secureConnectStart);
+        }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            connectionsAcquired.incrementAndGet();
+            if (connection.protocol() == Protocol.HTTP_2) {
+                http2Calls.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void callFailed(Call call, IOException ioe) {
+            callsFailed.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.bfhl.billextraction.service;
+
+/**
+ * Message content, finish reason and exact token usage of one chat-completions call.
+ */
+class OpenAiResult {
+    static final String FINISH_LENGTH = "length";
+    // Not sent by the provider: the client stopped reading a streamed answer that was going wrong
+    static final String FINISH_ABORTED = "aborted";
+
+    final String content;
+    final int inputTokens;
+    final int outputTokens;
+    final String finishReason;
+
+    OpenAiResult(String content, int inputTokens, int outputTokens) {
+        this(content, inputTokens, outputTokens, null);
+    }
+
+    OpenAiResult(String content, int inputTokens, int outputTokens, String finishReason) {
+        this.content = content;
+        this.inputTokens = inputTokens;
+        this.outputTokens = outputTokens;
+        this.finishReason = finishReason;
+    }
+
+    /** The answer was cut off at {@code max_tokens}. */
+    boolean isTruncated() {
+        return FINISH_LENGTH.equals(finishReason);
+    }
+
+    boolean isAborted() {
+        return FINISH_ABORTED.equals(finishReason);
+    }
+}
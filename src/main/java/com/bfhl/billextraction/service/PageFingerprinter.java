@@ -0,0 +1,142 @@
+package com.bfhl.billextraction.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Cheap per-page fingerprint taken from the rendered raster before it is encoded.
+ *
+ * Ink coverage (share of dark pixels) flags blank separator pages. A 64x64 average-luma thumbnail
+ * flags repeated pages: two pages are duplicates when their thumbnails match, or when the cells
+ * that differ all sit in one label-sized patch in the header or footer, as with "Patient copy" /
+ * "Hospital copy" prints of the same summary. A difference in the body of the page, where line
+ * items are, always keeps both pages: a coarse hash alone cannot tell one changed amount from a label.
+ */
+@Component
+public class PageFingerprinter {
+
+    private static final int GRID = 64;
+    public static final int GRID_CELLS = GRID * GRID;
+    // Pixels darker than this count as ink; scanner noise on white paper stays well above it
+    private static final int INK_LUMA = 128;
+    // Cells whose mean luma differs by no more than this are the same (JPEG and anti-aliasing noise)
+    private static final int CELL_TOLERANCE = 2;
+    // A near duplicate may differ in one label-sized patch (one or two lines of text) ...
+    private static final int MAX_PATCH_ROWS = 3;
+    // ... inside the top or bottom eighth of the page
+    private static final int MARGIN_ROWS = GRID / 8;
+
+    @Value("${extraction.dedup.enabled:true}")
+    private boolean enabled;
+
+    @Value("${extraction.dedup.blank-max-ink-coverage:0.002}")
+    private double blankMaxInkCoverage;
+
+    @Value("${extraction.dedup.near-duplicate-max-cells:24}")
+    private int nearDuplicateMaxCells;
+
+    /** Thumbnail and ink coverage of one page raster. */
+    public static final class PageFingerprint {
+        private final byte[] thumbnail;
+        private final double inkCoverage;
+
+        PageFingerprint(byte[] thumbnail, double inkCoverage) {
+            this.thumbnail = thumbnail;
+            this.inkCoverage = inkCoverage;
+        }
+
+        public double getInkCoverage() {
+            return inkCoverage;
+        }
+
+        /** Number of thumbnail cells that differ, 0 to {@link #GRID_CELLS}. */
+        public int distanceTo(PageFingerprint other) {
+            int distance = 0;
+            for (int cell = 0; cell < GRID_CELLS; cell++) {
+                if (differs(other, cell)) {
+                    distance++;
+                }
+            }
+            return distance;
+        }
+
+        private boolean differs(PageFingerprint other, int cell) {
+            return Math.abs((thumbnail[cell] & 0xff) - (other.thumbnail[cell] & 0xff)) > CELL_TOLERANCE;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public double getBlankMaxInkCoverage() {
+        return blankMaxInkCoverage;
+    }
+
+    /**
+     * Reads the raster once, averaging it into the thumbnail and counting ink pixels.
+     */
+    public PageFingerprint fingerprint(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        long[] cellSums = new long[GRID_CELLS];
+        int[] cellCounts = new int[GRID_CELLS];
+        long inkPixels = 0;
+
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            int cellRow = y * GRID / height;
+            for (int x = 0; x < width; x++) {
+                int rgb = row[x];
+                int luma = (((rgb >> 16) & 0xff) * 299 + ((rgb >> 8) & 0xff) * 587 + (rgb & 0xff) * 114) / 1000;
+                if (luma < INK_LUMA) {
+                    inkPixels++;
+                }
+                int cell = cellRow * GRID + x * GRID / width;
+                cellSums[cell] += luma;
+                cellCounts[cell]++;
+            }
+        }
+
+        byte[] thumbnail = new byte[GRID_CELLS];
+        for (int cell = 0; cell < GRID_CELLS; cell++) {
+            thumbnail[cell] = (byte) (cellCounts[cell] == 0 ? 255 : cellSums[cell] / cellCounts[cell]);
+        }
+        return new PageFingerprint(thumbnail, (double) inkPixels / ((long) width * height));
+    }
+
+    public boolean isBlank(PageFingerprint fingerprint) {
+        return enabled && fingerprint.getInkCoverage() <= blankMaxInkCoverage;
+    }
+
+    /**
+     * True when {@code page} repeats {@code earlier}: same thumbnail, or at most
+     * {@code near-duplicate-max-cells} differing cells that all fit in one label-sized patch
+     * of the header or footer.
+     */
+    public boolean isDuplicate(PageFingerprint page, PageFingerprint earlier) {
+        if (!enabled) {
+            return false;
+        }
+        int differing = 0;
+        int top = GRID;
+        int bottom = -1;
+        for (int cell = 0; cell < GRID_CELLS; cell++) {
+            if (page.differs(earlier, cell)) {
+                if (++differing > nearDuplicateMaxCells) {
+                    return false;
+                }
+                top = Math.min(top, cell / GRID);
+                bottom = Math.max(bottom, cell / GRID);
+            }
+        }
+        if (differing == 0) {
+            return true;
+        }
+        boolean inMargin = bottom < MARGIN_ROWS || top >= GRID - MARGIN_ROWS;
+        return inMargin && bottom - top < MAX_PATCH_ROWS;
+    }
+}
@@ -0,0 +1,97 @@
+package com.bfhl.billextraction.service;
+
+import org.apache.pdfbox.rendering.ImageType;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * Turns a rendered page into the image bytes sent to the vision model.
+ *
+ * Implementations trade payload size against legibility; the active one is chosen by
+ * {@code extraction.encoding.*} in {@link com.bfhl.billextraction.config.ImageEncodingConfig}.
+ */
+public interface PageImageEncoder {
+
+    /** Edge of the square tiles the model bills {@code detail: high} images by. */
+    int VISION_TILE = 512;
+
+    /** Pixel format the renderer should produce, so pages are not converted after the fact. */
+    ImageType renderImageType();
+
+    /** MIME type used in the {@code data:} URL of the request. */
+    String mediaType();
+
+    byte[] encode(BufferedImage image) throws IOException;
+
+    /** Longest edge, in pixels, of the image handed to the model. */
+    int maxLongEdge();
+
+    /** Shortest edge, in pixels, of the image handed to the model. */
+    int maxShortEdge();
+
+    /** Everything that changes the bytes {@link #encode} produces, as part of a cached document's key. */
+    String settings();
+
+    /**
+     * Highest render resolution for a page of this size that survives {@link #fitForVision};
+     * rendering above it only costs raster memory and render time.
+     */
+    default double maxUsefulDpi(double widthInches, double heightInches) {
+        double longInches = Math.max(widthInches, heightInches);
+        double shortInches = Math.min(widthInches, heightInches);
+        return Math.min(maxLongEdge() / longInches, maxShortEdge() / shortInches);
+    }
+
+    /**
+     * Scale {@link #fitForVision} applies to an image of {@code width} x {@code height}, at most 1.
+     */
+    default double visionScale(int width, int height) {
+        int longEdge = Math.max(width, height);
+        int shortEdge = Math.min(width, height);
+        return Math.min(1.0, Math.min((double) maxLongEdge() / longEdge, (double) maxShortEdge() / shortEdge));
+    }
+
+    /**
+     * Input tokens the model bills for an image of {@code width} x {@code height} at {@code detail: high}:
+     * 85 plus 170 per 512px tile of the fitted image.
+     */
+    default int visionTokens(int width, int height) {
+        double scale = visionScale(width, height);
+        int tilesX = (int) Math.ceil(Math.round(width * scale) / (double) VISION_TILE);
+        int tilesY = (int) Math.ceil(Math.round(height * scale) / (double) VISION_TILE);
+        return 85 + 170 * Math.max(1, tilesX) * Math.max(1, tilesY);
+    }
+
+    /**
+     * Shrinks an image to what the model keeps for {@code detail: high}: it fits the image into
+     * 2048x2048 and then scales the short side down to 768px, so anything larger is wasted upload.
+     */
+    static BufferedImage fitForVision(BufferedImage image, int maxLongEdge, int maxShortEdge) {
+        int longEdge = Math.max(image.getWidth(), image.getHeight());
+        int shortEdge = Math.min(image.getWidth(), image.getHeight());
+        double scale = Math.min(1.0, Math.min((double) maxLongEdge / longEdge, (double) maxShortEdge / shortEdge));
+        if (scale >= 1.0) {
+            return image;
+        }
+
+        int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+        int type = image.getType() == BufferedImage.TYPE_CUSTOM ? BufferedImage.TYPE_INT_RGB : image.getType();
+        if (type == BufferedImage.TYPE_BYTE_BINARY) {
+            type = BufferedImage.TYPE_BYTE_GRAY; // anti-aliased edges need gray levels
+        }
+
+        BufferedImage scaled = new BufferedImage(width, height, type);
+        Graphics2D g = scaled.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return scaled;
+    }
+}
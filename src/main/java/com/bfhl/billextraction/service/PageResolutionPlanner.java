@@ -0,0 +1,132 @@
+package com.bfhl.billextraction.service;
+
+import com.bfhl.billextraction.config.PdfProcessingConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.graphics.PDXObject;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.apache.pdfbox.text.TextPosition;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Chooses the render resolution of each page from what is actually on it.
+ *
+ * The smallest print in the text layer sets the DPI needed to keep it {@code minGlyphHeightPx} tall;
+ * a scanned page is never rendered above the resolution it was scanned at; and no page is rendered
+ * above what the encoder keeps after fitting the image for the model. The result stays within
+ * [{@code minPageDpi}, document cap], where the cap is the file-size based limit.
+ */
+@Slf4j
+@Component
+public class PageResolutionPlanner {
+
+    private static final float POINTS_PER_INCH = 72f;
+    // Ignore the smallest glyphs (footnote marks, broken font metrics) when sizing the page
+    private static final double SMALL_PRINT_PERCENTILE = 0.10;
+    private static final float MIN_GLYPH_POINTS = 1f;
+    // Same threshold as TextLayerClassifier: smaller images are logos and stamps, not page scans
+    private static final long SCAN_IMAGE_PIXELS = 1_000_000;
+
+    @Autowired
+    private PdfProcessingConfig pdfProcessingConfig;
+
+    @Autowired
+    private PageImageEncoder pageImageEncoder;
+
+    /**
+     * Returns the DPI to render {@code pageIndex} at. Calls for one document must not overlap.
+     */
+    public int planDpi(PDDocument document, int pageIndex, int maxDpi) {
+        PDPage page = document.getPage(pageIndex);
+        PDRectangle box = page.getCropBox();
+        double widthInches = box.getWidth() / POINTS_PER_INCH;
+        double heightInches = box.getHeight() / POINTS_PER_INCH;
+
+        double dpi = Math.min(maxDpi, pageImageEncoder.maxUsefulDpi(widthInches, heightInches));
+        try {
+            float smallPrintPoints = smallPrintHeight(document, pageIndex);
+            if (smallPrintPoints > 0) {
+                double readableDpi = pdfProcessingConfig.getMinGlyphHeightPx() * POINTS_PER_INCH / smallPrintPoints;
+                if (readableDpi > dpi) {
+                    log.debug("Page {}: {}pt print needs {} DPI, model resolution allows {}",
+                            pageIndex + 1, smallPrintPoints, Math.round(readableDpi), Math.round(dpi));
+                }
+                dpi = Math.min(dpi, readableDpi);
+            }
+
+            double scanDpi = scanResolution(page.getResources(), widthInches, heightInches);
+            if (scanDpi > 0) {
+                dpi = Math.min(dpi, scanDpi);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.debug("Cannot analyse page {} content, using {} DPI: {}", pageIndex + 1, Math.round(dpi), e.getMessage());
+        }
+
+        return (int) Math.max(pdfProcessingConfig.getMinPageDpi(), Math.min(maxDpi, Math.round(dpi)));
+    }
+
+    /**
+     * Height in points of the page's small print, or 0 when the page has no text layer.
+     */
+    private static float smallPrintHeight(PDDocument document, int pageIndex) throws IOException {
+        List<Float> heights = new ArrayList<>();
+        PDFTextStripper stripper = new PDFTextStripper() {
+            @Override
+            protected void writeString(String text, List<TextPosition> textPositions) {
+                for (TextPosition position : textPositions) {
+                    float height = position.getHeightDir();
+                    if (height >= MIN_GLYPH_POINTS && !position.getUnicode().isBlank()) {
+                        heights.add(height);
+                    }
+                }
+            }
+        };
+        stripper.setStartPage(pageIndex + 1);
+        stripper.setEndPage(pageIndex + 1);
+        stripper.getText(document);
+
+        if (heights.isEmpty()) {
+            return 0;
+        }
+        Collections.sort(heights);
+        return heights.get((int) (heights.size() * SMALL_PRINT_PERCENTILE));
+    }
+
+    /**
+     * Native resolution of the largest image on the page, assuming it is a full-page scan;
+     * 0 when there is no scan-sized image to go by.
+     */
+    private static double scanResolution(PDResources resources, double widthInches, double heightInches)
+            throws IOException {
+        if (resources == null) {
+            return 0;
+        }
+        PDImageXObject largest = null;
+        for (COSName name : resources.getXObjectNames()) {
+            PDXObject xObject = resources.getXObject(name);
+            if (xObject instanceof PDImageXObject) {
+                PDImageXObject image = (PDImageXObject) xObject;
+                if (largest == null || (long) image.getWidth() * image.getHeight()
+                        > (long) largest.getWidth() * largest.getHeight()) {
+                    largest = image;
+                }
+            }
+        }
+        if (largest == null || (long) largest.getWidth() * largest.getHeight() < SCAN_IMAGE_PIXELS) {
+            return 0;
+        }
+        double longPixels = Math.max(largest.getWidth(), largest.getHeight());
+        return longPixels / Math.max(widthInches, heightInches);
+    }
+}
@@ -0,0 +1,60 @@
+package com.bfhl.billextraction.service;
+
+import org.apache.pdfbox.rendering.ImageType;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Lossless encoder. With {@link ImageType#GRAY} or {@link ImageType#BINARY} pages this is still far
+ * smaller than the full-colour PNGs the service used to send.
+ */
+public class PngPageImageEncoder implements PageImageEncoder {
+
+    private final ImageType imageType;
+    private final int maxLongEdge;
+    private final int maxShortEdge;
+
+    public PngPageImageEncoder(ImageType imageType, int maxLongEdge, int maxShortEdge) {
+        this.imageType = imageType;
+        this.maxLongEdge = maxLongEdge;
+        this.maxShortEdge = maxShortEdge;
+    }
+
+    @Override
+    public ImageType renderImageType() {
+        return imageType;
+    }
+
+    @Override
+    public String mediaType() {
+        return "image/png";
+    }
+
+    @Override
+    public int maxLongEdge() {
+        return maxLongEdge;
+    }
+
+    @Override
+    public int maxShortEdge() {
+        return maxShortEdge;
+    }
+
+    @Override
+    public String settings() {
+        return "png/" + imageType + "/" + maxLongEdge + "x" + maxShortEdge;
+    }
+
+    @Override
+    public byte[] encode(BufferedImage image) throws IOException {
+        BufferedImage scaled = PageImageEncoder.fitForVision(image, maxLongEdge, maxShortEdge);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        if (!ImageIO.write(scaled, "png", baos)) {
+            throw new IOException("No PNG writer available");
+        }
+        return baos.toByteArray();
+    }
+}
@@ -0,0 +1,333 @@
+package com.bfhl.billextraction.service;
+
+import com.bfhl.billextraction.config.PdfProcessingConfig;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admission control for page rasters, shared by all extractions.
+ *
+ * Before a document is rendered, its peak raster footprint (largest page at the DPI cap, times the
+ * pages in flight across render workers, the queue and the encoder) is reserved from a global budget.
+ * A document that does not fit first runs with a shallower pipeline, then with a single render
+ * worker, then at a lower DPI cap; if even that does not fit it waits for other documents to
+ * release memory, up to its deadline.
+ */
+@Slf4j
+@Component
+public class RasterMemoryGovernor {
+
+    private static final long MB = 1024 * 1024;
+    private static final double DEFAULT_HEAP_FRACTION = 0.25;
+    private static final float POINTS_PER_INCH = 72f;
+    // Raster alive per document besides the queue and the render workers: the one being encoded
+    private static final int ENCODING_RASTERS = 1;
+
+    @Value("${extraction.memory.raster-budget-mb:0}")
+    private long rasterBudgetMb;
+
+    @Value("${extraction.memory.allow-downgrade:true}")
+    private boolean allowDowngrade;
+
+    @Autowired
+    private PdfProcessingConfig pdfProcessingConfig;
+
+    @Autowired
+    private PageImageEncoder pageImageEncoder;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private long budgetBytes;
+    private long reservedBytes = 0;
+
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final AtomicInteger waitingJobs = new AtomicInteger();
+    private final AtomicLong downgradedJobs = new AtomicLong();
+
+    private static class Plan {
+        final int maxDpi;
+        final int queueDepth;
+        final int renderWorkers;
+        final long bytes;
+
+        Plan(int maxDpi, int queueDepth, int renderWorkers, long bytes) {
+            this.maxDpi = maxDpi;
+            this.queueDepth = queueDepth;
+            this.renderWorkers = renderWorkers;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Memory granted to one document. Closing it (idempotent) returns the budget to the pool.
+     */
+    public final class Reservation implements AutoCloseable {
+        private final int maxDpi;
+        private final int queueDepth;
+        private final int renderWorkers;
+        private final long bytes;
+        private final AtomicLong tracked = new AtomicLong();
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Reservation(Plan plan) {
+            this.maxDpi = plan.maxDpi;
+            this.queueDepth = plan.queueDepth;
+            this.renderWorkers = plan.renderWorkers;
+            this.bytes = plan.bytes;
+        }
+
+        public int getMaxDpi() {
+            return maxDpi;
+        }
+
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        public int getRenderWorkers() {
+            return renderWorkers;
+        }
+
+        /** Records a raster that is now alive. */
+        public void track(BufferedImage image) {
+            long size = rasterBytes(image);
+            tracked.addAndGet(size);
+            usedBytes.addAndGet(size);
+        }
+
+        /** Records that a tracked raster has been encoded and dropped. */
+        public void untrack(BufferedImage image) {
+            long size = rasterBytes(image);
+            tracked.addAndGet(-size);
+            usedBytes.addAndGet(-size);
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                // Rasters still tracked belong to an aborted pipeline and are garbage now
+                usedBytes.addAndGet(-tracked.getAndSet(0));
+                release(bytes);
+            }
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        budgetBytes = rasterBudgetMb > 0
+                ? rasterBudgetMb * MB
+                : (long) (Runtime.getRuntime().maxMemory() * DEFAULT_HEAP_FRACTION);
+        log.info("Raster memory budget: {} MB (downgrade {})", budgetBytes / MB, allowDowngrade ? "on" : "off");
+    }
+
+    /**
+     * Reserves raster memory for {@code document}, downgrading or waiting as needed.
+     *
+     * @throws TimeoutException when the deadline passes before the document fits
+     */
+    public Reservation admit(PDDocument document, int maxDpi, int queueDepth, int renderWorkers, Deadline deadline)
+            throws InterruptedException, TimeoutException {
+        return reserve(plans(document, maxDpi, queueDepth, Math.min(renderWorkers, document.getNumberOfPages())),
+                deadline);
+    }
+
+    /**
+     * Reserves raster memory for rendering the pages of {@code pageDpis} (page index to DPI) one at a
+     * time, each at exactly its DPI, which may exceed what the whole page needs when only a region of
+     * it is sent. A downgraded reservation's {@link Reservation#getMaxDpi()} caps every page's DPI.
+     *
+     * @throws TimeoutException when the deadline passes before the pages fit
+     */
+    public Reservation admitPages(PDDocument document, Map<Integer, Integer> pageDpis, Deadline deadline)
+            throws InterruptedException, TimeoutException {
+        int maxDpi = pageDpis.values().stream().mapToInt(Integer::intValue).max()
+                .orElse(pdfProcessingConfig.getMinPageDpi());
+        List<Plan> plans = new ArrayList<>();
+        plans.add(pagesPlan(document, pageDpis, maxDpi));
+        if (allowDowngrade) {
+            for (int dpi : new int[] {maxDpi * 3 / 4, maxDpi / 2}) {
+                if (dpi >= pdfProcessingConfig.getMinPageDpi()) {
+                    plans.add(pagesPlan(document, pageDpis, dpi));
+                }
+            }
+        }
+        return reserve(plans, deadline);
+    }
+
+    private Reservation reserve(List<Plan> plans, Deadline deadline) throws InterruptedException, TimeoutException {
+        boolean waiting = false;
+
+        lock.lock();
+        try {
+            while (true) {
+                Plan granted = null;
+                for (Plan plan : plans) {
+                    if (reservedBytes + plan.bytes <= budgetBytes) {
+                        granted = plan;
+                        break;
+                    }
+                }
+                if (granted == null && reservedBytes == 0) {
+                    // Larger than the whole budget: run it alone at its smallest plan rather than never
+                    granted = plans.get(plans.size() - 1);
+                }
+
+                if (granted != null) {
+                    reservedBytes += granted.bytes;
+                    if (granted != plans.get(0)) {
+                        downgradedJobs.incrementAndGet();
+                        log.info("Memory tight ({} of {} MB reserved): DPI cap {}, {} queued page(s), {} render worker(s)",
+                                (reservedBytes - granted.bytes) / MB, budgetBytes / MB,
+                                granted.maxDpi, granted.queueDepth, granted.renderWorkers);
+                    }
+                    log.debug("Reserved {} MB of raster memory ({} MB in use)", granted.bytes / MB, reservedBytes / MB);
+                    return new Reservation(granted);
+                }
+
+                if (!waiting) {
+                    waiting = true;
+                    waitingJobs.incrementAndGet();
+                    log.info("Waiting for {} MB of raster memory ({} of {} MB reserved)",
+                            plans.get(plans.size() - 1).bytes / MB, reservedBytes / MB, budgetBytes / MB);
+                }
+                long remainingMs = deadline.remainingMillis();
+                if (remainingMs <= 0) {
+                    throw new TimeoutException("Deadline reached waiting for raster memory");
+                }
+                released.await(remainingMs, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            if (waiting) {
+                waitingJobs.decrementAndGet();
+            }
+            lock.unlock();
+        }
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    public long getReservedBytes() {
+        lock.lock();
+        try {
+            return reservedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    public int getWaitingJobs() {
+        return waitingJobs.get();
+    }
+
+    public long getDowngradedJobs() {
+        return downgradedJobs.get();
+    }
+
+    private void release(long bytes) {
+        lock.lock();
+        try {
+            reservedBytes -= bytes;
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Candidate plans from best to cheapest: as requested, one queued page, one render worker,
+     * then lower DPI caps. Parallelism goes before resolution since it only costs latency.
+     */
+    private List<Plan> plans(PDDocument document, int maxDpi, int queueDepth, int renderWorkers) {
+        List<Plan> plans = new ArrayList<>();
+        plans.add(plan(document, maxDpi, queueDepth, renderWorkers));
+        if (!allowDowngrade) {
+            return plans;
+        }
+        if (queueDepth > 1) {
+            plans.add(plan(document, maxDpi, 1, renderWorkers));
+        }
+        if (renderWorkers > 1) {
+            plans.add(plan(document, maxDpi, 1, 1));
+        }
+        for (int dpi : new int[] {maxDpi * 3 / 4, maxDpi / 2}) {
+            if (dpi >= pdfProcessingConfig.getMinPageDpi()) {
+                plans.add(plan(document, dpi, 1, 1));
+            }
+        }
+        return plans;
+    }
+
+    private Plan plan(PDDocument document, int maxDpi, int queueDepth, int renderWorkers) {
+        long bytes = largestRasterBytes(document, maxDpi) * (queueDepth + renderWorkers + ENCODING_RASTERS);
+        return new Plan(maxDpi, queueDepth, renderWorkers, bytes);
+    }
+
+    private Plan pagesPlan(PDDocument document, Map<Integer, Integer> pageDpis, int maxDpi) {
+        long largestPage = 0;
+        for (Map.Entry<Integer, Integer> entry : pageDpis.entrySet()) {
+            PDRectangle box = document.getPage(entry.getKey()).getCropBox();
+            int dpi = Math.min(entry.getValue(), maxDpi);
+            long pixels = (long) Math.ceil(box.getWidth() / POINTS_PER_INCH * dpi)
+                    * (long) Math.ceil(box.getHeight() / POINTS_PER_INCH * dpi);
+            largestPage = Math.max(largestPage, pixels * bytesPerPixel());
+        }
+        return new Plan(maxDpi, 0, 1, largestPage * (1 + ENCODING_RASTERS));
+    }
+
+    private long largestRasterBytes(PDDocument document, int maxDpi) {
+        long largestPage = 0;
+        for (PDPage page : document.getPages()) {
+            PDRectangle box = page.getCropBox();
+            double widthInches = box.getWidth() / POINTS_PER_INCH;
+            double heightInches = box.getHeight() / POINTS_PER_INCH;
+            // Same bounds PageResolutionPlanner applies, without reading page content
+            double dpi = Math.max(pdfProcessingConfig.getMinPageDpi(),
+                    Math.min(maxDpi, pageImageEncoder.maxUsefulDpi(widthInches, heightInches)));
+            long pixels = (long) Math.ceil(widthInches * dpi) * (long) Math.ceil(heightInches * dpi);
+            largestPage = Math.max(largestPage, pixels * bytesPerPixel());
+        }
+        return largestPage;
+    }
+
+    private int bytesPerPixel() {
+        switch (pageImageEncoder.renderImageType()) {
+            case BINARY:
+            case GRAY:
+                return 1;
+            case BGR:
+                return 3;
+            default:
+                return 4; // RGB and ARGB render into int-packed images
+        }
+    }
+
+    static long rasterBytes(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+}
@@ -0,0 +1,116 @@
+package com.bfhl.billextraction.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.rendering.ImageType;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Page rasters recycled between renders, shared by all extractions.
+ *
+ * Pages of a bill are nearly always the same size, so a raster released after one page is encoded
+ * is drawn into again for the next instead of allocating another multi-megabyte image, which would
+ * go straight to the old generation. Idle rasters are kept up to {@code max-idle-mb}, the least
+ * recently released dropped first. A raster must be released only once nothing reads it any more.
+ */
+@Slf4j
+@Component
+public class RasterPool {
+
+    private static final long MB = 1024 * 1024;
+
+    @Value("${extraction.raster-pool.enabled:true}")
+    private boolean enabled;
+
+    @Value("${extraction.raster-pool.max-idle-mb:64}")
+    private long maxIdleMb;
+
+    // Most recently released first
+    private final Deque<BufferedImage> idle = new ArrayDeque<>();
+    private long idleBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    @PostConstruct
+    void init() {
+        log.info("Raster pool: {}", enabled ? "up to " + maxIdleMb + " MB idle" : "disabled");
+    }
+
+    /**
+     * An idle raster of exactly this size and {@link BufferedImage} type, or a new one. Its pixels are
+     * whatever the last page left there.
+     */
+    public BufferedImage acquire(int width, int height, int imageType) {
+        if (enabled) {
+            synchronized (this) {
+                for (Iterator<BufferedImage> it = idle.iterator(); it.hasNext(); ) {
+                    BufferedImage image = it.next();
+                    if (image.getWidth() == width && image.getHeight() == height && image.getType() == imageType) {
+                        it.remove();
+                        idleBytes -= RasterMemoryGovernor.rasterBytes(image);
+                        hits.incrementAndGet();
+                        return image;
+                    }
+                }
+            }
+        }
+        misses.incrementAndGet();
+        return new BufferedImage(width, height, imageType);
+    }
+
+    /** Returns a raster nobody reads any more, for the next page of its size. */
+    public void release(BufferedImage image) {
+        long size = RasterMemoryGovernor.rasterBytes(image);
+        if (!enabled || size > maxIdleMb * MB) {
+            image.flush();
+            return;
+        }
+        synchronized (this) {
+            idle.addFirst(image);
+            idleBytes += size;
+            while (idleBytes > maxIdleMb * MB) {
+                idleBytes -= RasterMemoryGovernor.rasterBytes(idle.removeLast());
+            }
+        }
+    }
+
+    /** The {@link BufferedImage} type PDFBox renders {@code imageType} into. */
+    public static int bufferedImageType(ImageType imageType) {
+        switch (imageType) {
+            case BINARY:
+                return BufferedImage.TYPE_BYTE_BINARY;
+            case GRAY:
+                return BufferedImage.TYPE_BYTE_GRAY;
+            case ARGB:
+                return BufferedImage.TYPE_INT_ARGB;
+            case BGR:
+                return BufferedImage.TYPE_3BYTE_BGR;
+            default:
+                return BufferedImage.TYPE_INT_RGB;
+        }
+    }
+
+    public synchronized long getIdleBytes() {
+        return idleBytes;
+    }
+
+    public synchronized int getIdleRasters() {
+        return idle.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+}
@@ -0,0 +1,21 @@
+package com.bfhl.billextraction.service;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the LLM provider answers 429 Too Many Requests.
+ * Carries the back-off the provider asked for so the scheduler can pause instead of failing the document.
+ */
+public class RateLimitedException extends IOException {
+
+    private final long retryAfterMillis;
+
+    public RateLimitedException(String message, long retryAfterMillis, Throwable cause) {
+        super(message, cause);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
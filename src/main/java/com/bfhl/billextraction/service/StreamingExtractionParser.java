@@ -0,0 +1,208 @@
+package com.bfhl.billextraction.service;
+
+import com.bfhl.billextraction.model.BillItem;
+import com.bfhl.billextraction.model.PageWiseLineItems;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Parses an extraction answer while it is still arriving.
+ *
+ * Built on Jackson's non-blocking parser: each piece of text is fed as it comes off the stream,
+ * and every {@code bill_items} entry and every {@code pagewise_line_items} entry is handed to the
+ * {@link Listener} as soon as its closing brace arrives. Text before the first {@code {} (a
+ * Markdown fence) and after the root object is ignored.
+ *
+ * {@link #feed} returns false once the answer is clearly going wrong: it is not JSON, or the model
+ * keeps repeating one line item. The caller then stops the stream; the pages completed so far stay
+ * usable. One instance parses one answer and is not thread-safe.
+ */
+class StreamingExtractionParser {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final String PAGES_FIELD = "pagewise_line_items";
+    private static final String ITEMS_FIELD = "bill_items";
+    private static final String PAGE_NO_FIELD = "page_no";
+
+    /** Receives entries as they complete; called on the thread feeding the parser. */
+    interface Listener {
+        Listener NONE = new Listener() { };
+
+        default void onItem(String pageNo, BillItem item) {
+        }
+
+        default void onPage(PageWiseLineItems page) {
+        }
+    }
+
+    private final ObjectMapper objectMapper;
+    private final Listener listener;
+    private final int maxRepeatedItems;
+    private final JsonParser parser;
+    private final List<PageWiseLineItems> completedPages = new ArrayList<>();
+
+    private boolean started;
+    private boolean finished;
+    private String failure;
+    private int depth;
+    private TokenBuffer pageTokens;
+    private int pageDepth;
+    private TokenBuffer itemTokens;
+    private int itemDepth;
+    private String openPageNo;
+    private BillItem lastItem;
+    private int repeats;
+
+    StreamingExtractionParser(ObjectMapper objectMapper, Listener listener, int maxRepeatedItems) {
+        this.objectMapper = objectMapper;
+        this.listener = listener;
+        this.maxRepeatedItems = maxRepeatedItems;
+        try {
+            this.parser = JSON_FACTORY.createNonBlockingByteArrayParser();
+        } catch (IOException e) {
+            throw new IllegalStateException("Non-blocking JSON parser unavailable", e);
+        }
+    }
+
+    /**
+     * Parses the complete answer {@code content} at once, for answers that were not streamed.
+     */
+    static StreamingExtractionParser of(ObjectMapper objectMapper, String content) {
+        StreamingExtractionParser parser = new StreamingExtractionParser(objectMapper, Listener.NONE, Integer.MAX_VALUE);
+        parser.feed(content);
+        return parser;
+    }
+
+    /**
+     * Consumes the next piece of the answer. Returns false once the answer should be abandoned;
+     * {@link #getFailure()} says why.
+     */
+    boolean feed(String text) {
+        if (failure != null) {
+            return false;
+        }
+        if (finished || text.isEmpty()) {
+            return true;
+        }
+        if (!started) {
+            int start = text.indexOf('{');
+            if (start < 0) {
+                return true; // still in a Markdown fence or preamble
+            }
+            started = true;
+            text = text.substring(start);
+        }
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        try {
+            ((ByteArrayFeeder) parser.getNonBlockingInputFeeder()).feedInput(bytes, 0, bytes.length);
+            JsonToken token;
+            while (!finished && failure == null
+                    && (token = parser.nextToken()) != JsonToken.NOT_AVAILABLE && token != null) {
+                onToken(token);
+            }
+        } catch (JsonProcessingException e) {
+            failure = "answer is not valid extraction JSON: " + e.getOriginalMessage();
+        } catch (IOException e) {
+            failure = "answer could not be parsed: " + e.getMessage();
+        }
+        return failure == null;
+    }
+
+    /** Pages whose entry was closed, in answer order. */
+    List<PageWiseLineItems> getCompletedPages() {
+        return completedPages;
+    }
+
+    /**
+     * {@code page_no} of the page entry cut off in the middle, or null when no entry is open or it had
+     * not named its page yet.
+     */
+    String getOpenPageNo() {
+        return openPageNo;
+    }
+
+    /** Whether a page entry was still open where the answer stopped. */
+    boolean isPageOpen() {
+        return pageTokens != null;
+    }
+
+    String getFailure() {
+        return failure;
+    }
+
+    private void onToken(JsonToken token) throws IOException {
+        if (token.isStructStart()) {
+            depth++;
+        }
+        if (token == JsonToken.START_OBJECT) {
+            JsonStreamContext object = parser.getParsingContext();
+            if (pageTokens == null && isEntryOf(object, PAGES_FIELD)) {
+                pageTokens = new TokenBuffer(parser);
+                pageDepth = depth;
+                openPageNo = null;
+            } else if (pageTokens != null && itemTokens == null && isEntryOf(object, ITEMS_FIELD)) {
+                itemTokens = new TokenBuffer(parser);
+                itemDepth = depth;
+            }
+        }
+
+        if (pageTokens != null) {
+            pageTokens.copyCurrentEvent(parser);
+            if (token.isScalarValue() && depth == pageDepth && PAGE_NO_FIELD.equals(parser.currentName())) {
+                openPageNo = parser.getText();
+            }
+        }
+        if (itemTokens != null) {
+            itemTokens.copyCurrentEvent(parser);
+        }
+
+        if (token.isStructEnd()) {
+            if (itemTokens != null && depth == itemDepth) {
+                completeItem();
+            } else if (pageTokens != null && depth == pageDepth) {
+                completePage();
+            }
+            depth--;
+            finished = depth == 0;
+        }
+    }
+
+    private void completeItem() throws IOException {
+        BillItem item = objectMapper.readValue(itemTokens.asParser(), BillItem.class);
+        itemTokens = null;
+        repeats = Objects.equals(item, lastItem) ? repeats + 1 : 1;
+        lastItem = item;
+        if (repeats > maxRepeatedItems) {
+            failure = "item '" + item.getItemName() + "' repeated " + repeats + " times in a row";
+            return;
+        }
+        listener.onItem(openPageNo, item);
+    }
+
+    private void completePage() throws IOException {
+        PageWiseLineItems page = objectMapper.readValue(pageTokens.asParser(), PageWiseLineItems.class);
+        pageTokens = null;
+        openPageNo = null;
+        completedPages.add(page);
+        listener.onPage(page);
+    }
+
+    /** Whether the just opened {@code object} is an entry of the array field {@code field}. */
+    private static boolean isEntryOf(JsonStreamContext object, String field) {
+        JsonStreamContext array = object.getParent();
+        return array != null && array.inArray() && array.getParent() != null
+                && field.equals(array.getParent().getCurrentName());
+    }
+}
@@ -0,0 +1,209 @@
+package com.bfhl.billextraction.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * Finds the part of a rendered page that holds its line items, so the rest is not sent to the model.
+ *
+ * Works on projection profiles of the raster. Rows crossed by a dark run over most of the page
+ * width are table rules; with at least {@code min-rules} of them the region spans the rules plus
+ * the text lines directly above and below (column headers, totals). Without rules only the blank
+ * margins are cut. A region is used only when it saves at least {@code min-saving} of the page,
+ * leaves out at most {@code max-excluded-ink} of its ink and no more than a footer's worth of text
+ * lines below it, so a table without rules under a ruled letterhead or patient box is never cut
+ * away. The region is then grown to fill the 512px tiles the model bills for it anyway.
+ */
+@Component
+public class TableRegionDetector {
+
+    // Same threshold as PageFingerprinter: darker pixels are ink
+    private static final int INK_LUMA = 128;
+    // A rule crosses at least this share of the page width
+    private static final double RULE_MIN_WIDTH = 0.5;
+    // Reaching out from the rules stops at a blank gap this tall (share of the page height) ...
+    private static final double BLOCK_GAP = 0.015;
+    // ... or this far from the outermost rule
+    private static final double MAX_REACH = 0.08;
+    // Padding kept around the ink, as a share of the page height
+    private static final double PADDING = 0.01;
+    // Text lines that may be left out below the region: signatures, footers
+    private static final int MAX_LINES_BELOW = 4;
+
+    @Autowired
+    private PageImageEncoder pageImageEncoder;
+
+    @Value("${extraction.crop.enabled:true}")
+    private boolean enabled;
+
+    @Value("${extraction.crop.min-rules:3}")
+    private int minRules;
+
+    @Value("${extraction.crop.min-saving:0.2}")
+    private double minSaving;
+
+    @Value("${extraction.crop.max-excluded-ink:0.5}")
+    private double maxExcludedInk;
+
+    /**
+     * The region of {@code image} to send, in pixels, or null to send the whole page.
+     */
+    public Rectangle detect(BufferedImage image) {
+        if (!enabled) {
+            return null;
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int minInk = Math.max(2, width / 400); // fewer ink pixels in a row are scanner specks
+        int[] rowInk = new int[height];
+        int firstRule = -1;
+        int lastRule = -1;
+        int rules = 0;
+        boolean inRule = false;
+        long totalInk = 0;
+
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            int run = 0;
+            int longestRun = 0;
+            for (int x = 0; x < width; x++) {
+                if (isInk(row[x])) {
+                    rowInk[y]++;
+                    longestRun = Math.max(longestRun, ++run);
+                } else {
+                    run = 0;
+                }
+            }
+            if (rowInk[y] < minInk) {
+                rowInk[y] = 0;
+            }
+            totalInk += rowInk[y];
+
+            boolean rule = longestRun >= width * RULE_MIN_WIDTH;
+            if (rule && !inRule) {
+                rules++;
+                firstRule = firstRule < 0 ? y : firstRule;
+            }
+            if (rule) {
+                lastRule = y;
+            }
+            inRule = rule;
+        }
+        if (totalInk == 0) {
+            return null;
+        }
+
+        int top;
+        int bottom;
+        if (rules >= minRules) {
+            int gap = Math.max(1, (int) (height * BLOCK_GAP));
+            int reach = (int) (height * MAX_REACH);
+            top = reachOut(rowInk, firstRule, -1, gap, reach);
+            bottom = reachOut(rowInk, lastRule, 1, gap, reach);
+        } else {
+            top = 0;
+            while (rowInk[top] == 0) {
+                top++;
+            }
+            bottom = height - 1;
+            while (rowInk[bottom] == 0) {
+                bottom--;
+            }
+        }
+
+        long keptInk = 0;
+        for (int y = top; y <= bottom; y++) {
+            keptInk += rowInk[y];
+        }
+        if (totalInk - keptInk > totalInk * maxExcludedInk || textLines(rowInk, bottom + 1) > MAX_LINES_BELOW) {
+            return null;
+        }
+
+        int[] columnInk = new int[width];
+        for (int y = top; y <= bottom; y++) {
+            if (rowInk[y] == 0) {
+                continue;
+            }
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int x = 0; x < width; x++) {
+                if (isInk(row[x])) {
+                    columnInk[x]++;
+                }
+            }
+        }
+        int left = 0;
+        while (left < width - 1 && columnInk[left] == 0) {
+            left++;
+        }
+        int right = width - 1;
+        while (right > left && columnInk[right] == 0) {
+            right--;
+        }
+
+        int padding = (int) (height * PADDING);
+        Rectangle region = new Rectangle(left, top, right - left + 1, bottom - top + 1);
+        region.grow(padding, padding);
+        region = fillTiles(region.intersection(new Rectangle(0, 0, width, height)), width, height);
+
+        if ((double) region.width * region.height > (1 - minSaving) * width * height) {
+            return null;
+        }
+        return region;
+    }
+
+    /**
+     * Last ink row reached from {@code start} in {@code direction} before a blank gap of
+     * {@code gap} rows or {@code reach} rows in all.
+     */
+    private static int reachOut(int[] rowInk, int start, int direction, int gap, int reach) {
+        int edge = start;
+        int blank = 0;
+        for (int step = 1; step <= reach; step++) {
+            int y = start + direction * step;
+            if (y < 0 || y >= rowInk.length) {
+                break;
+            }
+            if (rowInk[y] > 0) {
+                edge = y;
+                blank = 0;
+            } else if (++blank >= gap) {
+                break;
+            }
+        }
+        return edge;
+    }
+
+    /** Runs of ink rows from {@code from} to the bottom of the page. */
+    private static int textLines(int[] rowInk, int from) {
+        int lines = 0;
+        for (int y = from; y < rowInk.length; y++) {
+            if (rowInk[y] > 0 && (y == from || rowInk[y - 1] == 0)) {
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Grows {@code region} evenly, within the page, until its fitted image fills whole tiles.
+     */
+    private Rectangle fillTiles(Rectangle region, int pageWidth, int pageHeight) {
+        double scale = pageImageEncoder.visionScale(region.width, region.height);
+        double tile = PageImageEncoder.VISION_TILE / scale;
+        int width = Math.min(pageWidth, (int) (Math.ceil(region.width / tile) * tile));
+        int height = Math.min(pageHeight, (int) (Math.ceil(region.height / tile) * tile));
+        int x = Math.max(0, Math.min(pageWidth - width, region.x - (width - region.width) / 2));
+        int y = Math.max(0, Math.min(pageHeight - height, region.y - (height - region.height) / 2));
+        return new Rectangle(x, y, width, height);
+    }
+
+    private static boolean isInk(int rgb) {
+        int luma = (((rgb >> 16) & 0xff) * 299 + ((rgb >> 8) & 0xff) * 587 + (rgb & 0xff) * 114) / 1000;
+        return luma < INK_LUMA;
+    }
+}
@@ -0,0 +1,106 @@
+package com.bfhl.billextraction.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.graphics.PDXObject;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+/**
+ * Decides per page whether the PDF text layer is good enough to skip rasterization.
+ *
+ * Bills printed by hospital billing software carry a clean text layer with one table row per line;
+ * those pages can go to a text-only prompt. Scans (a page-sized image, possibly with an OCR layer)
+ * and pages with broken font mappings still go through vision.
+ */
+@Slf4j
+@Component
+public class TextLayerClassifier {
+
+    // Matches money-like values such as 1,250.00 or 45.5
+    private static final Pattern AMOUNT = Pattern.compile("\\d[\\d,]*\\.\\d{1,2}\\b");
+    private static final long SCAN_IMAGE_PIXELS = 1_000_000;
+    private static final double MAX_UNMAPPED_GLYPH_RATIO = 0.01;
+
+    @Value("${extraction.text-layer.enabled:true}")
+    private boolean enabled;
+
+    @Value("${extraction.text-layer.min-chars:200}")
+    private int minChars;
+
+    @Value("${extraction.text-layer.min-amount-rows:3}")
+    private int minAmountRows;
+
+    /**
+     * Returns the page text (in reading order) when it can replace the page image, or null when
+     * the page must be rendered. Calls for one document must not overlap.
+     */
+    public String extractUsableText(PDDocument document, int pageIndex) {
+        if (!enabled) {
+            return null;
+        }
+        try {
+            PDPage page = document.getPage(pageIndex);
+            if (hasScannedImage(page.getResources())) {
+                return null;
+            }
+
+            PDFTextStripper stripper = new PDFTextStripper();
+            stripper.setSortByPosition(true);
+            stripper.setStartPage(pageIndex + 1);
+            stripper.setEndPage(pageIndex + 1);
+            String text = stripper.getText(document).trim();
+
+            if (text.length() < minChars || unmappedGlyphRatio(text) > MAX_UNMAPPED_GLYPH_RATIO) {
+                return null;
+            }
+            if (countAmountRows(text) < minAmountRows) {
+                return null;
+            }
+            return text;
+
+        } catch (IOException | RuntimeException e) {
+            log.debug("Text layer unusable on page {}: {}", pageIndex + 1, e.getMessage());
+            return null;
+        }
+    }
+
+    private static boolean hasScannedImage(PDResources resources) throws IOException {
+        if (resources == null) {
+            return false;
+        }
+        for (COSName name : resources.getXObjectNames()) {
+            PDXObject xObject = resources.getXObject(name);
+            if (xObject instanceof PDImageXObject) {
+                PDImageXObject image = (PDImageXObject) xObject;
+                if ((long) image.getWidth() * image.getHeight() >= SCAN_IMAGE_PIXELS) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static int countAmountRows(String text) {
+        int rows = 0;
+        for (String line : text.split("\\R")) {
+            if (AMOUNT.matcher(line).find()) {
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+    private static double unmappedGlyphRatio(String text) {
+        long unmapped = text.chars().filter(c -> c == '\uFFFD').count();
+        return (double) unmapped / text.length();
+    }
+}
@@ -0,0 +1,328 @@
+package com.bfhl.billextraction.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToIntFunction;
+
+/**
+ * Process-wide scheduler for vision calls.
+ *
+ * Runs up to {@code maxConcurrentCalls} calls at once, keeps requests and tokens inside the
+ * provider's per-minute budgets, pauses all dispatch on 429 / Retry-After, and serves calls from
+ * small documents first so one huge PDF cannot starve the rest of the traffic. Calls age: each page
+ * of the owning document counts as {@code aging-ms-per-page} of extra wait, so a large document's
+ * call is overtaken by newer small-document calls only until it has waited that long.
+ *
+ * Each dispatched call gets its own virtual thread; cancelling a call's future interrupts that
+ * thread, which aborts the blocking HTTP exchange instead of letting it run to its own timeout.
+ * A hedged duplicate of a running call does not queue: it takes a {@link Lease} when a permit and
+ * budget are free right now and no call is waiting, and is not sent otherwise.
+ */
+@Slf4j
+@Component
+public class VisionCallScheduler {
+
+    private static final long WINDOW_MS = 60_000;
+    private static final long DEFAULT_RETRY_AFTER_MS = 5_000;
+
+    @Value("${openai.scheduler.max-concurrent-calls:4}")
+    private int maxConcurrentCalls;
+
+    @Value("${openai.scheduler.requests-per-minute:500}")
+    private int requestsPerMinute;
+
+    @Value("${openai.scheduler.tokens-per-minute:300000}")
+    private int tokensPerMinute;
+
+    @Value("${openai.scheduler.max-rate-limit-retries:5}")
+    private int maxRateLimitRetries;
+
+    @Value("${openai.scheduler.aging-ms-per-page:250}")
+    private long agingMsPerPage;
+
+    // Added to and taken from under budgetLock, so the dispatcher sees a stable head while it checks the budget
+    private final PriorityBlockingQueue<ScheduledCall<?>> queue = new PriorityBlockingQueue<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    // Sliding one-minute window of dispatched calls, guarded by budgetLock
+    private final Object budgetLock = new Object();
+    private final Deque<WindowEntry> window = new ArrayDeque<>();
+    private long windowTokens = 0;
+    private long pausedUntil = 0;
+
+    private final AtomicLong dispatchedCalls = new AtomicLong();
+    private final AtomicLong rateLimitedCalls = new AtomicLong();
+
+    // Time of the budget window, pauses and aging; tests replace it to drive them without sleeping
+    private Clock clock = Clock.systemUTC();
+
+    private Semaphore callPermits;
+    private Thread dispatcher;
+    private ThreadFactory callThreads;
+
+    private static class WindowEntry {
+        final long timestamp;
+        int tokens;
+
+        WindowEntry(long timestamp, int tokens) {
+            this.timestamp = timestamp;
+            this.tokens = tokens;
+        }
+    }
+
+    private static class ScheduledCall<T> implements Comparable<ScheduledCall<?>> {
+        // Submit time plus the document's page handicap: ordering by it is ordering by pages minus
+        // time waited, without the order changing while calls sit in the queue
+        final long dueAt;
+        final long seq;
+        final int estimatedTokens;
+        final Callable<T> call;
+        final ToIntFunction<T> actualTokens;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        int attempts = 0;
+        WindowEntry reserved;
+
+        ScheduledCall(long dueAt, long seq, int estimatedTokens,
+                      Callable<T> call, ToIntFunction<T> actualTokens) {
+            this.dueAt = dueAt;
+            this.seq = seq;
+            this.estimatedTokens = estimatedTokens;
+            this.call = call;
+            this.actualTokens = actualTokens;
+        }
+
+        @Override
+        public int compareTo(ScheduledCall<?> other) {
+            int byDue = Long.compare(dueAt, other.dueAt);
+            return byDue != 0 ? byDue : Long.compare(seq, other.seq);
+        }
+    }
+
+    /**
+     * A concurrency permit and a share of the minute's budget held by a call outside the queue.
+     * Released once, with the tokens the call cost.
+     */
+    public final class Lease {
+        private final WindowEntry entry;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Lease(WindowEntry entry) {
+            this.entry = entry;
+        }
+
+        public void release(int actualTokens) {
+            if (released.compareAndSet(false, true)) {
+                settle(entry, actualTokens);
+                callPermits.release();
+            }
+        }
+
+        /** The call was answered with 429: every call waits out {@code retryAfterMs}. */
+        public void rateLimited(long retryAfterMs) {
+            rateLimitedCalls.incrementAndGet();
+            pause(retryAfterMs > 0 ? retryAfterMs : DEFAULT_RETRY_AFTER_MS);
+        }
+    }
+
+    @PostConstruct
+    void start() {
+        callPermits = new Semaphore(maxConcurrentCalls);
+        callThreads = Thread.ofVirtual().name("vision-call-", 1).factory();
+        // Platform thread: it parks in budgetLock.wait(), which would pin a virtual thread's carrier
+        dispatcher = Thread.ofPlatform().name("vision-dispatch").daemon(true).start(this::dispatchLoop);
+        log.info("Vision scheduler started: {} concurrent calls, {} RPM, {} TPM",
+                maxConcurrentCalls, requestsPerMinute, tokensPerMinute);
+    }
+
+    @PreDestroy
+    void stop() {
+        dispatcher.interrupt();
+        queue.forEach(scheduled -> scheduled.future.cancel(true));
+    }
+
+    /**
+     * Queues a vision call.
+     *
+     * @param documentPages   page count of the owning document, used as priority (smaller first, aged)
+     * @param estimatedTokens tokens reserved against the TPM budget until the real usage is known
+     * @param call            the blocking provider call
+     * @param actualTokens    extracts the real token usage from the call's result
+     */
+    public <T> CompletableFuture<T> submit(int documentPages, int estimatedTokens,
+                                           Callable<T> call, ToIntFunction<T> actualTokens) {
+        long dueAt = clock.millis() + Math.max(0, documentPages) * agingMsPerPage;
+        ScheduledCall<T> scheduled = new ScheduledCall<>(
+                dueAt, sequence.getAndIncrement(), estimatedTokens, call, actualTokens);
+        enqueue(scheduled);
+        return scheduled.future;
+    }
+
+    /**
+     * Takes a permit and {@code estimatedTokens} of the budget for a call that does not queue, or
+     * returns null when no permit is free, the budget does not fit, dispatch is paused, or queued
+     * calls are waiting (they go first).
+     */
+    public Lease tryReserve(int estimatedTokens) {
+        if (!callPermits.tryAcquire()) {
+            return null;
+        }
+        synchronized (budgetLock) {
+            long now = clock.millis();
+            if (pausedUntil <= now && queue.stream().allMatch(scheduled -> scheduled.future.isDone())) {
+                while (!window.isEmpty() && window.peekFirst().timestamp + WINDOW_MS <= now) {
+                    windowTokens -= window.pollFirst().tokens;
+                }
+                if (window.size() < requestsPerMinute && windowTokens + estimatedTokens <= tokensPerMinute) {
+                    WindowEntry entry = new WindowEntry(now, estimatedTokens);
+                    window.addLast(entry);
+                    windowTokens += estimatedTokens;
+                    return new Lease(entry);
+                }
+            }
+        }
+        callPermits.release();
+        return null;
+    }
+
+    public int getQueuedCalls() {
+        return queue.size();
+    }
+
+    public long getDispatchedCalls() {
+        return dispatchedCalls.get();
+    }
+
+    public long getRateLimitedCalls() {
+        return rateLimitedCalls.get();
+    }
+
+    private void enqueue(ScheduledCall<?> scheduled) {
+        synchronized (budgetLock) {
+            queue.add(scheduled);
+            budgetLock.notifyAll();
+        }
+    }
+
+    private void dispatchLoop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                callPermits.acquire();
+                ScheduledCall<?> next = takeWithinBudget();
+                callThreads.newThread(() -> {
+                    try {
+                        execute(next, next.reserved);
+                    } finally {
+                        callPermits.release();
+                    }
+                }).start();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private <T> void execute(ScheduledCall<T> scheduled, WindowEntry entry) {
+        dispatchedCalls.incrementAndGet();
+        scheduled.attempts++;
+
+        Thread callThread = Thread.currentThread();
+        scheduled.future.whenComplete((result, error) -> {
+            if (scheduled.future.isCancelled()) {
+                callThread.interrupt();
+            }
+        });
+
+        try {
+            T result = scheduled.call.call();
+            settle(entry, scheduled.actualTokens.applyAsInt(result));
+            scheduled.future.complete(result);
+
+        } catch (RateLimitedException e) {
+            settle(entry, 0);
+            rateLimitedCalls.incrementAndGet();
+            long backoff = e.getRetryAfterMillis() > 0 ? e.getRetryAfterMillis() : DEFAULT_RETRY_AFTER_MS;
+            pause(backoff);
+
+            if (scheduled.attempts > maxRateLimitRetries) {
+                scheduled.future.completeExceptionally(e);
+                return;
+            }
+            log.warn("Rate limited by provider, pausing dispatch for {} ms (attempt {}/{})",
+                    backoff, scheduled.attempts, maxRateLimitRetries);
+            enqueue(scheduled);
+
+        } catch (Exception e) {
+            settle(entry, 0);
+            scheduled.future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Blocks until the head of the queue fits in the current minute (one more request and its
+     * estimated tokens), then takes it with its budget reserved. The head is re-read on every wake-up,
+     * so a call that arrives while the budget is short can still overtake the one that was waiting.
+     */
+    private ScheduledCall<?> takeWithinBudget() throws InterruptedException {
+        synchronized (budgetLock) {
+            while (true) {
+                long now = clock.millis();
+                long waitMs = pausedUntil - now;
+
+                if (waitMs <= 0) {
+                    ScheduledCall<?> head = queue.peek();
+                    while (head != null && head.future.isDone()) {
+                        queue.poll(); // cancelled by its document while queued
+                        head = queue.peek();
+                    }
+                    if (head == null) {
+                        budgetLock.wait();
+                        continue;
+                    }
+
+                    while (!window.isEmpty() && window.peekFirst().timestamp + WINDOW_MS <= now) {
+                        windowTokens -= window.pollFirst().tokens;
+                    }
+                    boolean requestFits = window.size() < requestsPerMinute;
+                    boolean tokensFit = windowTokens + head.estimatedTokens <= tokensPerMinute || window.isEmpty();
+                    if (requestFits && tokensFit) {
+                        queue.poll();
+                        head.reserved = new WindowEntry(now, head.estimatedTokens);
+                        window.addLast(head.reserved);
+                        windowTokens += head.estimatedTokens;
+                        return head;
+                    }
+                    waitMs = window.peekFirst().timestamp + WINDOW_MS - now;
+                }
+
+                budgetLock.wait(Math.max(waitMs, 1));
+            }
+        }
+    }
+
+    private void settle(WindowEntry entry, int actualTokens) {
+        synchronized (budgetLock) {
+            if (window.contains(entry)) {
+                windowTokens += actualTokens - entry.tokens;
+            }
+            entry.tokens = actualTokens;
+            budgetLock.notifyAll();
+        }
+    }
+
+    private void pause(long backoffMs) {
+        synchronized (budgetLock) {
+            pausedUntil = Math.max(pausedUntil, clock.millis() + backoffMs);
+            budgetLock.notifyAll();
+        }
+    }
+}
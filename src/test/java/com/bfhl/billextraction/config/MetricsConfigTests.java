@@ -0,0 +1,93 @@
+package com.bfhl.billextraction.config;
+
+import com.bfhl.billextraction.service.ExtractionCache;
+import com.bfhl.billextraction.service.ExtractionJobService;
+import com.bfhl.billextraction.service.ExtractionMetrics;
+import com.bfhl.billextraction.service.LlmEndpoints;
+import com.bfhl.billextraction.service.OpenAiClient;
+import com.bfhl.billextraction.service.PngPageImageEncoder;
+import com.bfhl.billextraction.service.RasterMemoryGovernor;
+import com.bfhl.billextraction.service.RasterPool;
+import com.bfhl.billextraction.service.VisionCallScheduler;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.observation.ObservationRegistry;
+import io.micrometer.prometheusmetrics.PrometheusConfig;
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import org.apache.pdfbox.rendering.ImageType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MetricsConfigTests {
+
+	private final PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+	private final ExecutorService renderExecutor = Executors.newFixedThreadPool(1);
+
+	private OpenAiClient openAiClient;
+
+	@BeforeEach
+	void setUp() {
+		LlmEndpoints endpoints = new LlmEndpoints();
+		ReflectionTestUtils.setField(endpoints, "url", "https://primary/v1/chat/completions");
+		ReflectionTestUtils.setField(endpoints, "urls", "https://east/v1/chat/completions,https://west/v1/chat/completions");
+		ReflectionTestUtils.invokeMethod(endpoints, "init");
+
+		openAiClient = new OpenAiClient();
+		ReflectionTestUtils.setField(openAiClient, "pdfProcessingConfig", new PdfProcessingConfig());
+		ReflectionTestUtils.setField(openAiClient, "endpoints", endpoints);
+		ReflectionTestUtils.setField(openAiClient, "maxIdleConnections", 1);
+		ReflectionTestUtils.setField(openAiClient, "keepAliveMinutes", 1);
+		ReflectionTestUtils.invokeMethod(openAiClient, "init");
+	}
+
+	@AfterEach
+	void tearDown() {
+		ReflectionTestUtils.invokeMethod(openAiClient, "shutdown");
+		renderExecutor.shutdownNow();
+	}
+
+	@Test
+	void bindersRegisterAlongsideExtractionMetricsWithoutConflicts() {
+		ExtractionMetrics extractionMetrics = new ExtractionMetrics();
+		ReflectionTestUtils.setField(extractionMetrics, "meterRegistry", registry);
+		ReflectionTestUtils.setField(extractionMetrics, "observationRegistry", ObservationRegistry.create());
+		ReflectionTestUtils.invokeMethod(extractionMetrics, "init");
+		extractionMetrics.recordPagePaths(Map.of(1, "vision", 2, "cache"));
+
+		MetricsConfig config = new MetricsConfig();
+		RasterMemoryGovernor governor = new RasterMemoryGovernor();
+		ReflectionTestUtils.setField(governor, "rasterBudgetMb", 30L);
+		ReflectionTestUtils.setField(governor, "pdfProcessingConfig", new PdfProcessingConfig());
+		ReflectionTestUtils.setField(governor, "pageImageEncoder", new PngPageImageEncoder(ImageType.GRAY, 2048, 768));
+		ReflectionTestUtils.invokeMethod(governor, "init");
+
+		List<MeterBinder> binders = List.of(
+				config.rasterMemoryMeters(governor),
+				config.rasterPoolMeters(new RasterPool()),
+				config.llmMeters(new VisionCallScheduler(), openAiClient),
+				config.cacheMeters(new ExtractionCache()),
+				config.jobMeters(new ExtractionJobService()),
+				config.renderPoolMeters(renderExecutor));
+		binders.forEach(binder -> binder.bindTo(registry));
+
+		String scrape = registry.scrape();
+		assertThat(scrape)
+				.contains("bill_extraction_raster_memory_budget_bytes")
+				.contains("bill_extraction_raster_pool_total{result=\"hit\"}")
+				.contains("bill_extraction_llm_hedged_total")
+				.contains("bill_extraction_llm_endpoint_answer_time_seconds{endpoint=\"https://east/v1/chat/completions\"}")
+				.contains("bill_extraction_llm_endpoint_answer_time_seconds{endpoint=\"https://west/v1/chat/completions\"}")
+				.contains("bill_extraction_cache_total{level=\"document\",result=\"miss\"}")
+				.contains("bill_extraction_jobs{status=\"queued\"}")
+				.contains("bill_extraction_pages_total")
+				.contains("executor_queued_tasks{name=\"pdf.render\"}");
+	}
+}
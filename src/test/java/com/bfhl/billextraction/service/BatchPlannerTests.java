@@ -0,0 +1,52 @@
+package com.bfhl.billextraction.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BatchPlannerTests {
+
+	private final BatchPlanner planner = planner();
+
+	@Test
+	void packsSparsePagesTogetherAndDensePagesAlone() {
+		BatchPlanner.PageCost sparse = planner.textPage("Consultation 1 500.00 500.00\nTotal 500.00");
+		BatchPlanner.PageCost dense = planner.textPage(String.join("\n",
+				Collections.nCopies(110, "Paracetamol 500mg Tab 10 2.50 25.00")));
+
+		assertThat(planner.fits(Collections.nCopies(8, sparse))).isTrue();
+		assertThat(planner.fits(Collections.nCopies(9, sparse))).isFalse();
+		assertThat(planner.fits(List.of(dense, sparse))).isFalse();
+		assertThat(planner.fits(List.of(dense))).isTrue();
+	}
+
+	@Test
+	void visionEstimateFollowsObservedOutput() {
+		BatchPlanner.OutputHistory history = new BatchPlanner.OutputHistory();
+		assertThat(planner.fits(Collections.nCopies(3, planner.visionPage(history, 1105)))).isTrue();
+		assertThat(planner.fits(Collections.nCopies(4, planner.visionPage(history, 1105)))).isFalse();
+
+		history.record(2, 5000);
+		assertThat(planner.fits(Collections.nCopies(2, planner.visionPage(history, 1105)))).isFalse();
+
+		assertThat(planner.raiseMaxOutputTokens(6000)).isEqualTo(12000);
+		assertThat(planner.raiseMaxOutputTokens(12000)).isEqualTo(16384);
+		assertThat(planner.raiseMaxOutputTokens(16384)).isEqualTo(-1);
+	}
+
+	private static BatchPlanner planner() {
+		BatchPlanner planner = new BatchPlanner();
+		ReflectionTestUtils.setField(planner, "maxPages", 8);
+		ReflectionTestUtils.setField(planner, "maxInputTokens", 12000);
+		ReflectionTestUtils.setField(planner, "maxOutputTokens", 6000);
+		ReflectionTestUtils.setField(planner, "maxOutputTokensCeiling", 16384);
+		ReflectionTestUtils.setField(planner, "outputFill", 0.7);
+		ReflectionTestUtils.setField(planner, "tokensPerItem", 40);
+		ReflectionTestUtils.setField(planner, "visionPageOutputTokens", 1400);
+		return planner;
+	}
+}
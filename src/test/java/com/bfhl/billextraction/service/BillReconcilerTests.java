@@ -0,0 +1,92 @@
+package com.bfhl.billextraction.service;
+
+import com.bfhl.billextraction.model.BillItem;
+import com.bfhl.billextraction.model.PageWiseLineItems;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BillReconcilerTests {
+
+	private BillReconciler reconciler;
+
+	@BeforeEach
+	void setUp() {
+		reconciler = new BillReconciler();
+		ReflectionTestUtils.setField(reconciler, "enabled", true);
+		ReflectionTestUtils.setField(reconciler, "rowTolerance", 0.02);
+		ReflectionTestUtils.setField(reconciler, "maxDiscount", 0.5);
+		ReflectionTestUtils.setField(reconciler, "totalTolerance", 0.01);
+		ReflectionTestUtils.setField(reconciler, "maxPages", 3);
+	}
+
+	@Test
+	void flagsMisreadRowsAndTotalsButNotDiscounts() {
+		PageWiseLineItems good = page("1", null, item("Room", 2500, 4, 10000), item("Nursing", 500, 4, 1800));
+		PageWiseLineItems misread = page("2", 5150.0, item("Consultation", 800, 2, 1600), item("MRI", 3500, 1, 35000));
+
+		assertThat(reconciler.checkPage(List.of(good))).isEmpty();
+		assertThat(reconciler.checkPage(List.of(misread)))
+				.hasSize(2)
+				.anySatisfy(problem -> assertThat(problem).contains("'MRI' is 3500.00 x 1.00 = 3500.00, not 35000.00"))
+				.anySatisfy(problem -> assertThat(problem).contains("items add up to 36600.00, the page prints 5150.00"));
+	}
+
+	@Test
+	void joinsPagesWhoseRowsRepeatAcrossCallBoundary() {
+		BillItem saline = item("Saline", 120, 1, 120);
+		BillItem syringe = item("Syringe", 15, 2, 30);
+		List<PageWiseLineItems> pages = List.of(
+				page("1", null, item("Room", 2500, 1, 2500)),
+				page("2", null, item("Gloves", 40, 1, 40), saline, syringe),
+				page("3", null, saline, syringe, item("Dressing", 200, 1, 200)),
+				page("4", null, item("Scan", 1000, 1, 1000), item("Scan", 1000, 1, 10000)));
+
+		List<BillReconciler.Suspect> inOneCall = reconciler.review(pages, Map.of(1, 0, 2, 0, 3, 0, 4, 0));
+		List<BillReconciler.Suspect> acrossCalls = reconciler.review(pages, Map.of(1, 0, 2, 0, 3, 1, 4, 1));
+
+		assertThat(inOneCall).extracting(BillReconciler.Suspect::getPages).containsExactly(List.of(4));
+		assertThat(acrossCalls).extracting(BillReconciler.Suspect::getPages).containsExactly(List.of(2, 3), List.of(4));
+		assertThat(acrossCalls.get(0).getProblems()).containsExactly("page 2: 2 rows repeated at the start of page 3");
+	}
+
+	@Test
+	void queuesPagesCarryingTotalsWhenGrandTotalMisses() {
+		List<PageWiseLineItems> pages = List.of(
+				page("1", 2500.0, item("Room", 2500, 1, 2500)),
+				page("2", null, item("Pharmacy", 300, 1, 300)),
+				page("3", 999.0, item("Scan", 1000, 1, 10000)),
+				new PageWiseLineItems("4", "Final Bill", List.of(item("Net payable", 3800, 1, 3800)), 3800.0, null));
+
+		List<BillReconciler.Suspect> suspects = reconciler.review(pages, Map.of());
+		BillReconciler.Suspect totals = reconciler.grandTotalSuspect(pages, suspects);
+
+		assertThat(suspects).extracting(BillReconciler.Suspect::getPages).containsExactly(List.of(3));
+		assertThat(totals.getPages()).containsExactly(1, 4);
+		assertThat(totals.isGrandTotal()).isTrue();
+		assertThat(totals.getProblems())
+				.containsExactly("grand total: detail pages add up to 12800.00, the final bill prints 3800.00");
+
+		List<PageWiseLineItems> agreeing = List.of(pages.get(0), pages.get(1),
+				new PageWiseLineItems("4", "Final Bill", List.of(item("Net payable", 2800, 1, 2800)), 2800.0, null));
+		assertThat(reconciler.grandTotalSuspect(agreeing, List.of())).isNull();
+	}
+
+	private static PageWiseLineItems page(String pageNo, Double pageTotal, BillItem... items) {
+		return new PageWiseLineItems(pageNo, "Bill Detail", List.of(items), pageTotal, null);
+	}
+
+	private static BillItem item(String name, double rate, double quantity, double amount) {
+		BillItem item = new BillItem();
+		item.setItemName(name);
+		item.setItemRate(rate);
+		item.setItemQuantity(quantity);
+		item.setItemAmount(amount);
+		return item;
+	}
+}
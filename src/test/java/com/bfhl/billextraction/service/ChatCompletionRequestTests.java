@@ -0,0 +1,38 @@
+package com.bfhl.billextraction.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChatCompletionRequestTests {
+
+	@Test
+	void streamsImagesAsDataUrls() throws Exception {
+		byte[] image = new byte[10_000]; // not a multiple of the chunk size, forces a padded tail
+		new Random(42).nextBytes(image);
+
+		ChatCompletionRequest request = new ChatCompletionRequest(
+				"gpt-4.1", "Extract \"items\"\nplease", List.of(image, new byte[0]), "image/jpeg", 6000, 0.1);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		request.writeTo(out);
+		JsonNode body = new ObjectMapper().readTree(out.toByteArray());
+
+		JsonNode content = body.at("/messages/0/content");
+		assertThat(body.get("model").asText()).isEqualTo("gpt-4.1");
+		assertThat(body.get("max_tokens").asInt()).isEqualTo(6000);
+		assertThat(content.get(0).get("text").asText()).isEqualTo("Extract \"items\"\nplease");
+
+		String url = content.get(1).at("/image_url/url").asText();
+		assertThat(url).startsWith("data:image/jpeg;base64,");
+		assertThat(Base64.getDecoder().decode(url.substring(url.indexOf(',') + 1))).isEqualTo(image);
+		assertThat(content.get(2).at("/image_url/url").asText()).isEqualTo("data:image/jpeg;base64,");
+	}
+}
@@ -0,0 +1,59 @@
+package com.bfhl.billextraction.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CrossDocumentPackerTests {
+
+	private final List<List<String>> calls = new ArrayList<>();
+
+	private CrossDocumentPacker<String, Integer> packer(int participants) {
+		return new CrossDocumentPacker<>(participants, pages -> pages.size() <= 4, 60_000, pages -> {
+			calls.add(List.copyOf(pages));
+			return CompletableFuture.completedFuture(calls.size());
+		});
+	}
+
+	@Test
+	void packsRemaindersOfDocumentsIntoOneCall() {
+		CrossDocumentPacker<String, Integer> packer = packer(3);
+		CrossDocumentPacker<String, Integer>.Participant a = packer.participant();
+		CrossDocumentPacker<String, Integer>.Participant b = packer.participant();
+		packer.participant();
+
+		CrossDocumentPacker.Share<Integer> first = a.offer("vision", List.of("a3", "a4"));
+		CrossDocumentPacker.Share<Integer> second = b.offer("vision", List.of("b7", "b8"));
+
+		assertThat(calls).containsExactly(List.of("a3", "a4", "b7", "b8"));
+		assertThat(first.call.join()).isEqualTo(second.call.join());
+		assertThat(first.firstIndex).isZero();
+		assertThat(second.firstIndex).isEqualTo(2);
+		assertThat(second.pageCount).isEqualTo(2);
+	}
+
+	@Test
+	void lastParticipantToLeaveFlushesPendingPages() {
+		CrossDocumentPacker<String, Integer> packer = packer(2);
+		CrossDocumentPacker<String, Integer>.Participant a = packer.participant();
+		CrossDocumentPacker<String, Integer>.Participant b = packer.participant();
+
+		CrossDocumentPacker.Share<Integer> vision = a.offer("vision", List.of("a1", "a2", "a3"));
+		CrossDocumentPacker.Share<Integer> text = a.offer("text_layer", List.of("a4"));
+		b.offer("vision", List.of("b1", "b2")); // would overflow the call, so a's pages go first
+		a.leave();
+		a.leave();
+
+		assertThat(calls).containsExactly(List.of("a1", "a2", "a3"));
+		assertThat(vision.call).isCompleted();
+		assertThat(text.call).isNotDone();
+
+		b.leave();
+		assertThat(calls).hasSize(3).contains(List.of("a4"), List.of("b1", "b2"));
+		assertThat(text.call).isCompleted();
+	}
+}
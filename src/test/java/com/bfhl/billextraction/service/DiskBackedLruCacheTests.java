@@ -0,0 +1,82 @@
+package com.bfhl.billextraction.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DiskBackedLruCacheTests {
+
+	// Each value below serializes to 7 bytes ("xxxxx" with its quotes)
+	private static final long ENTRY_BYTES = 7;
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void evictsLeastRecentlyReadEntryFromDisk() throws Exception {
+		// No memory tier, so every hit is served from disk
+		DiskBackedLruCache<String> cache = cache(0, 2 * ENTRY_BYTES);
+		cache.put("a", "aaaaa");
+		cache.put("b", "bbbbb");
+
+		assertThat(cache.get("a")).contains("aaaaa");
+		cache.put("c", "ccccc");
+
+		assertThat(cache.get("b")).isEmpty();
+		assertThat(Files.exists(dir.resolve("b.json"))).isFalse();
+		assertThat(cache.get("a")).contains("aaaaa");
+		assertThat(cache.get("c")).contains("ccccc");
+		assertThat(cache.getDiskBytes()).isEqualTo(2 * ENTRY_BYTES);
+	}
+
+	@Test
+	void memoryHitsKeepEntryRecentOnDisk() throws Exception {
+		DiskBackedLruCache<String> cache = cache(1024, 2 * ENTRY_BYTES);
+		cache.put("a", "aaaaa");
+		cache.put("b", "bbbbb");
+
+		assertThat(cache.get("a")).contains("aaaaa");
+		cache.put("c", "ccccc");
+
+		assertThat(Files.exists(dir.resolve("a.json"))).isTrue();
+		assertThat(Files.exists(dir.resolve("b.json"))).isFalse();
+		assertThat(cache.getMemoryHits()).isEqualTo(1);
+	}
+
+	@Test
+	void reloadedIndexKeepsAccessOrderPersistedOnWrite() throws Exception {
+		DiskBackedLruCache<String> cache = cache(0, 3 * ENTRY_BYTES);
+		cache.put("a", "aaaaa");
+		cache.put("b", "bbbbb");
+		assertThat(cache.get("a")).contains("aaaaa");
+		cache.put("c", "ccccc");
+
+		DiskBackedLruCache<String> reopened = cache(0, 3 * ENTRY_BYTES);
+		reopened.put("d", "ddddd");
+
+		assertThat(Files.exists(dir.resolve("b.json"))).isFalse();
+		assertThat(reopened.get("a")).contains("aaaaa");
+		assertThat(reopened.get("c")).contains("ccccc");
+	}
+
+	@Test
+	void reloadedIndexServesEntriesFromDisk() throws Exception {
+		cache(1024, 1024).put("a", "aaaaa");
+
+		DiskBackedLruCache<String> reopened = cache(1024, 1024);
+
+		assertThat(reopened.get("a")).contains("aaaaa");
+		assertThat(reopened.getDiskHits()).isEqualTo(1);
+		assertThat(reopened.get("missing")).isEmpty();
+		assertThat(reopened.getMisses()).isEqualTo(1);
+	}
+
+	private DiskBackedLruCache<String> cache(long memoryMaxBytes, long diskMaxBytes) throws Exception {
+		return new DiskBackedLruCache<>("test", dir, String.class, new ObjectMapper(), memoryMaxBytes, diskMaxBytes);
+	}
+}
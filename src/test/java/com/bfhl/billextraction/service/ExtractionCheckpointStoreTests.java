@@ -0,0 +1,112 @@
+package com.bfhl.billextraction.service;
+
+import com.bfhl.billextraction.model.BillItem;
+import com.bfhl.billextraction.model.ExtractionData;
+import com.bfhl.billextraction.model.PageWiseLineItems;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ExtractionCheckpointStoreTests {
+
+	@TempDir
+	Path dir;
+
+	private ExtractionCheckpointStore store;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		store = new ExtractionCheckpointStore();
+		ReflectionTestUtils.setField(store, "enabled", true);
+		ReflectionTestUtils.setField(store, "checkpointDir", dir.toString());
+		ReflectionTestUtils.setField(store, "retentionHours", 24L);
+		store.init();
+	}
+
+	@Test
+	void reopenedJournalServesCheckpointedPages() throws Exception {
+		store.open("doc", "v2").append(List.of(1, 2), batch(1, 2), 2500, 700);
+		// a crash in the middle of the next append leaves a torn line behind
+		Files.writeString(dir.resolve("doc.jsonl"), "{\"pages\":[3,4],\"prompt", StandardOpenOption.APPEND);
+
+		store.open("doc", "v2").append(List.of(5), batch(5), 1000, 200);
+
+		ExtractionCheckpointStore.Journal journal = store.open("doc", "v2");
+
+		ExtractionCheckpointStore.Checkpoint checkpoint = journal.find(2);
+		assertThat(checkpoint.getPages()).containsExactly(1, 2);
+		assertThat(checkpoint.getTokenUsage().getTotalTokens()).isEqualTo(3200);
+		assertThat(journal.pageData(checkpoint, 2).getPagewiseLineItems())
+				.extracting(PageWiseLineItems::getPageNo).containsExactly("2");
+		assertThat(journal.find(3)).isNull();
+		assertThat(journal.find(5).getPages()).containsExactly(5);
+		assertThat(store.open("doc", "v3").find(1)).isNull();
+	}
+
+	@Test
+	void skipsBatchesThatCannotBeServedPerPageAndDropsCompletedJournals() {
+		ExtractionCheckpointStore.Journal journal = store.open("doc", "v2");
+		journal.append(List.of(5), batch(7), 1000, 200);
+		assertThat(journal.find(5)).isNull();
+
+		journal.append(List.of(5), batch(5), 1000, 200);
+		journal.complete();
+
+		assertThat(Files.exists(dir.resolve("doc.jsonl"))).isFalse();
+		assertThat(store.open("doc", "v2").find(5)).isNull();
+	}
+
+	@Test
+	void concurrentExtractionsOfOneDocumentAppendWholeLines() throws Exception {
+		ExtractionCheckpointStore.Journal first = store.open("doc", "v2");
+		ExtractionCheckpointStore.Journal retry = store.open("doc", "v2");
+		int pagesPerJournal = 50;
+
+		List<Thread> writers = new ArrayList<>();
+		for (int i = 0; i < pagesPerJournal; i++) {
+			int pageNo = i + 1;
+			writers.add(Thread.ofVirtual().start(() -> first.append(List.of(pageNo), batch(pageNo), 100, 10)));
+			writers.add(Thread.ofVirtual().start(
+					() -> retry.append(List.of(pageNo + pagesPerJournal), batch(pageNo + pagesPerJournal), 100, 10)));
+		}
+		for (Thread writer : writers) {
+			writer.join();
+		}
+
+		assertThat(Files.readAllLines(dir.resolve("doc.jsonl"))).hasSize(2 * pagesPerJournal);
+		ExtractionCheckpointStore.Journal reopened = store.open("doc", "v2");
+		for (int pageNo = 1; pageNo <= 2 * pagesPerJournal; pageNo++) {
+			assertThat(reopened.find(pageNo)).as("page %d", pageNo).isNotNull();
+		}
+		reopened.close();
+
+		// The first attempt succeeding must not delete the journal the retry is still using
+		first.complete();
+		first.close();
+		assertThat(Files.exists(dir.resolve("doc.jsonl"))).isTrue();
+		retry.close();
+		assertThat(Files.exists(dir.resolve("doc.jsonl"))).isFalse();
+	}
+
+	private static ExtractionData batch(int... pageNumbers) {
+		List<PageWiseLineItems> pages = new ArrayList<>();
+		for (int pageNo : pageNumbers) {
+			BillItem item = new BillItem();
+			item.setItemName("Room Rent - page " + pageNo);
+			item.setItemAmount(1500.0);
+			pages.add(new PageWiseLineItems(String.valueOf(pageNo), "Bill Detail", List.of(item)));
+		}
+		ExtractionData data = new ExtractionData();
+		data.setPagewiseLineItems(pages);
+		return data;
+	}
+}
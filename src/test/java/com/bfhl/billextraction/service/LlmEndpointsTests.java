@@ -0,0 +1,127 @@
+package com.bfhl.billextraction.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LlmEndpointsTests {
+
+	private LlmEndpoints endpoints;
+
+	@BeforeEach
+	void setUp() {
+		endpoints = new LlmEndpoints();
+		ReflectionTestUtils.setField(endpoints, "url", "https://primary/v1/chat/completions");
+		ReflectionTestUtils.setField(endpoints, "urls", "https://east/v1/chat/completions, https://west/v1/chat/completions");
+		ReflectionTestUtils.setField(endpoints, "maxFailures", 2);
+		ReflectionTestUtils.setField(endpoints, "cooldownSeconds", 30);
+		ReflectionTestUtils.setField(endpoints, "hedgeEnabled", true);
+		ReflectionTestUtils.setField(endpoints, "hedgePercentile", 0.9);
+		ReflectionTestUtils.setField(endpoints, "hedgeMinDelayMs", 1000L);
+		ReflectionTestUtils.setField(endpoints, "hedgeMinSamples", 10);
+		ReflectionTestUtils.setField(endpoints, "hedgeWindow", 20);
+		endpoints.init();
+	}
+
+	@Test
+	void hedgesAtPercentileOfFirstAttempts() {
+		LlmEndpoints.Endpoint east = endpoints.getEndpoints().get(0);
+		for (int i = 1; i <= 9; i++) {
+			endpoints.answered(east, i * 1000L, true);
+		}
+		assertThat(endpoints.hedgeDelayMs()).isEqualTo(-1);
+
+		endpoints.answered(east, 60_000, true);
+		endpoints.answered(east, 100, false); // a winning hedge
+		assertThat(endpoints.hedgeDelayMs()).isEqualTo(9000);
+	}
+
+	@Test
+	void hedgeDelayFollowsRecentWindowAboveMinimum() {
+		LlmEndpoints.Endpoint east = endpoints.getEndpoints().get(0);
+		for (int i = 0; i < 20; i++) {
+			endpoints.answered(east, 5000, true);
+		}
+		assertThat(endpoints.hedgeDelayMs()).isEqualTo(5000);
+
+		// A full window of faster calls pushes the old ones out
+		for (int i = 0; i < 20; i++) {
+			endpoints.answered(east, 2000, true);
+		}
+		assertThat(endpoints.hedgeDelayMs()).isEqualTo(2000);
+
+		for (int i = 0; i < 20; i++) {
+			endpoints.answered(east, 10, true);
+		}
+		assertThat(endpoints.hedgeDelayMs()).isEqualTo(1000);
+
+		ReflectionTestUtils.setField(endpoints, "hedgeEnabled", false);
+		assertThat(endpoints.hedgeDelayMs()).isEqualTo(-1);
+	}
+
+	@Test
+	void sendsMoreCallsToFasterEndpoint() {
+		LlmEndpoints.Endpoint east = endpoints.getEndpoints().get(0);
+		LlmEndpoints.Endpoint west = endpoints.getEndpoints().get(1);
+		endpoints.answered(east, 100, true);
+		endpoints.answered(west, 900, true);
+
+		int eastCalls = 0;
+		for (int i = 0; i < 2000; i++) {
+			if (endpoints.choose(null) == east) {
+				eastCalls++;
+			}
+		}
+
+		// Weights 1/100 against 1/900: nine calls in ten go east
+		assertThat(eastCalls).isBetween(1650, 1950);
+	}
+
+	@Test
+	void overtakenCallSlowsItsEndpointDown() {
+		LlmEndpoints.Endpoint east = endpoints.getEndpoints().get(0);
+		endpoints.answered(east, 1000, true);
+
+		endpoints.overtaken(east, 500, true);
+		assertThat(east.getAverageMs()).isEqualTo(1000);
+
+		endpoints.overtaken(east, 6000, true);
+		assertThat(east.getAverageMs()).isEqualTo(2000);
+	}
+
+	@Test
+	void leavesOutFailingEndpointsUntilNoneIsLeft() {
+		List<LlmEndpoints.Endpoint> all = endpoints.getEndpoints();
+		LlmEndpoints.Endpoint east = all.get(0);
+		LlmEndpoints.Endpoint west = all.get(1);
+		assertThat(all).extracting(LlmEndpoints.Endpoint::getUrl)
+				.containsExactly("https://east/v1/chat/completions", "https://west/v1/chat/completions");
+
+		endpoints.failed(east, 0);
+		assertThat(endpoints.choose(west)).isSameAs(east);
+		endpoints.failed(east, 0);
+		for (int i = 0; i < 20; i++) {
+			assertThat(endpoints.choose(null)).isSameAs(west);
+		}
+
+		endpoints.failed(west, 5000); // 429
+		assertThat(endpoints.choose(west)).isSameAs(east);
+		assertThat(endpoints.choose(east)).isSameAs(west);
+		assertThat(endpoints.choose(null)).isNotNull();
+	}
+
+	@Test
+	void choosesNothingBesideTheOnlyEndpoint() {
+		ReflectionTestUtils.setField(endpoints, "urls", "");
+		endpoints.init();
+		LlmEndpoints.Endpoint primary = endpoints.getEndpoints().get(0);
+
+		assertThat(primary.getUrl()).isEqualTo("https://primary/v1/chat/completions");
+		assertThat(endpoints.choose(null)).isSameAs(primary);
+		assertThat(endpoints.choose(primary)).isNull();
+	}
+}
@@ -0,0 +1,176 @@
+package com.bfhl.billextraction.service;
+
+import com.bfhl.billextraction.config.PdfProcessingConfig;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OpenAiClientTests {
+
+	private static final String ANSWER = "{\"choices\":[{\"message\":{\"content\":\"%s\"},\"finish_reason\":\"stop\"}],"
+			+ "\"usage\":{\"prompt_tokens\":100,\"completion_tokens\":5}}";
+
+	// Requests take the next behaviour in arrival order, whichever endpoint they were sent to
+	private final Queue<Stub> stubs = new ConcurrentLinkedQueue<>();
+	private final List<String> paths = new CopyOnWriteArrayList<>();
+	private final CountDownLatch abandoned = new CountDownLatch(1);
+
+	private HttpServer server;
+	private VisionCallScheduler scheduler;
+
+	@FunctionalInterface
+	private interface Stub {
+		void answer(HttpExchange exchange) throws IOException, InterruptedException;
+	}
+
+	@BeforeEach
+	void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+		server.createContext("/", exchange -> {
+			paths.add(exchange.getRequestURI().getPath());
+			exchange.getRequestBody().readAllBytes();
+			try {
+				stubs.remove().answer(exchange);
+			} catch (IOException e) {
+				abandoned.countDown(); // the client closed the connection
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				exchange.close();
+			}
+		});
+		server.start();
+
+		scheduler = new VisionCallScheduler();
+		ReflectionTestUtils.setField(scheduler, "maxConcurrentCalls", 4);
+		ReflectionTestUtils.setField(scheduler, "requestsPerMinute", 100);
+		ReflectionTestUtils.setField(scheduler, "tokensPerMinute", 100_000);
+		ReflectionTestUtils.setField(scheduler, "agingMsPerPage", 250L);
+		scheduler.start();
+	}
+
+	@AfterEach
+	void tearDown() {
+		scheduler.stop();
+		server.stop(0);
+	}
+
+	@Test
+	void hedgesOnAnotherEndpointAfterDelayAndCancelsTheLoser() throws Exception {
+		OpenAiClient client = client("/east", "/west");
+		stubs.add(exchange -> trickle(exchange, 10_000, "slow"));
+		stubs.add(exchange -> answer(exchange, "fast"));
+
+		OpenAiResult result = client.call(request());
+
+		assertThat(result.content).isEqualTo("fast");
+		assertThat(paths).hasSize(2).doesNotHaveDuplicates();
+		assertThat(client.getHedgedCalls()).isEqualTo(1);
+		assertThat(client.getHedgesWon()).isEqualTo(1);
+		assertThat(client.getHedgeExtraTokens()).isEqualTo(100);
+		assertThat(abandoned.await(5, TimeUnit.SECONDS)).isTrue();
+	}
+
+	@Test
+	void doesNotHedgeWithSingleEndpoint() throws Exception {
+		OpenAiClient client = client("/only");
+		stubs.add(exchange -> trickle(exchange, 500, "late"));
+
+		OpenAiResult result = client.call(request());
+
+		assertThat(result.content).isEqualTo("late");
+		assertThat(paths).containsExactly("/only");
+		assertThat(client.getHedgedCalls()).isZero();
+	}
+
+	@Test
+	void doesNotHedgeWithoutSchedulerBudget() throws Exception {
+		ReflectionTestUtils.setField(scheduler, "tokensPerMinute", 500);
+		OpenAiClient client = client("/east", "/west");
+		stubs.add(exchange -> trickle(exchange, 500, "late"));
+
+		// 1000 estimated input tokens plus max_tokens do not fit the 500 tokens a minute
+		OpenAiResult result = client.call(request());
+
+		assertThat(result.content).isEqualTo("late");
+		assertThat(paths).hasSize(1);
+		assertThat(client.getHedgedCalls()).isZero();
+	}
+
+	private OpenAiClient client(String... paths) {
+		String base = "http://127.0.0.1:" + server.getAddress().getPort();
+		LlmEndpoints endpoints = new LlmEndpoints();
+		ReflectionTestUtils.setField(endpoints, "url", base + paths[0]);
+		ReflectionTestUtils.setField(endpoints, "urls",
+				String.join(",", Arrays.stream(paths).map(path -> base + path).toList()));
+		ReflectionTestUtils.setField(endpoints, "maxFailures", 3);
+		ReflectionTestUtils.setField(endpoints, "cooldownSeconds", 30);
+		ReflectionTestUtils.setField(endpoints, "hedgeEnabled", true);
+		ReflectionTestUtils.setField(endpoints, "hedgePercentile", 0.5);
+		ReflectionTestUtils.setField(endpoints, "hedgeMinDelayMs", 100L);
+		ReflectionTestUtils.setField(endpoints, "hedgeMinSamples", 1);
+		ReflectionTestUtils.setField(endpoints, "hedgeWindow", 10);
+		endpoints.init();
+		// One earlier call answered in 100 ms: hedge after 100 ms
+		endpoints.answered(endpoints.getEndpoints().get(0), 100, true);
+
+		OpenAiClient client = new OpenAiClient();
+		ReflectionTestUtils.setField(client, "pdfProcessingConfig", new PdfProcessingConfig());
+		ReflectionTestUtils.setField(client, "endpoints", endpoints);
+		ReflectionTestUtils.setField(client, "scheduler", scheduler);
+		ReflectionTestUtils.setField(client, "openaiApiKey", "test");
+		ReflectionTestUtils.setField(client, "connectTimeoutSeconds", 5);
+		ReflectionTestUtils.setField(client, "maxIdleConnections", 4);
+		ReflectionTestUtils.setField(client, "keepAliveMinutes", 1);
+		client.init();
+		return client;
+	}
+
+	private static ChatCompletionRequest request() {
+		return ChatCompletionRequest.text("gpt-4.1-mini", "Extract line items", 200, 0.1)
+				.withEstimatedInputTokens(1000);
+	}
+
+	private static void answer(HttpExchange exchange, String content) throws IOException {
+		byte[] body = String.format(ANSWER, content).getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().add("Content-Type", "application/json");
+		exchange.sendResponseHeaders(200, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	/** Holds the answer back for {@code ms}, sending whitespace so a cancelled client is noticed. */
+	private static void trickle(HttpExchange exchange, long ms, String content) throws IOException, InterruptedException {
+		exchange.getResponseHeaders().add("Content-Type", "application/json");
+		exchange.sendResponseHeaders(200, 0);
+		OutputStream out = exchange.getResponseBody();
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ms);
+		while (System.nanoTime() < deadline) {
+			out.write(' ');
+			out.flush();
+			Thread.sleep(20);
+		}
+		out.write(String.format(ANSWER, content).getBytes(StandardCharsets.UTF_8));
+		out.close();
+	}
+}
@@ -0,0 +1,86 @@
+package com.bfhl.billextraction.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PageFingerprinterTests {
+
+	private PageFingerprinter fingerprinter;
+
+	@BeforeEach
+	void setUp() {
+		fingerprinter = new PageFingerprinter();
+		ReflectionTestUtils.setField(fingerprinter, "enabled", true);
+		ReflectionTestUtils.setField(fingerprinter, "blankMaxInkCoverage", 0.002);
+		ReflectionTestUtils.setField(fingerprinter, "nearDuplicateMaxCells", 24);
+	}
+
+	@Test
+	void separatorPageWithScannerSpecklesIsBlank() {
+		BufferedImage page = blankPage();
+		Graphics2D g = page.createGraphics();
+		g.setColor(Color.BLACK);
+		for (int i = 0; i < 40; i++) {
+			g.fillRect((i * 97) % 700 + 20, (i * 131) % 1000 + 40, 2, 2);
+		}
+		g.dispose();
+
+		assertThat(fingerprinter.isBlank(fingerprinter.fingerprint(page))).isTrue();
+		assertThat(fingerprinter.isBlank(fingerprinter.fingerprint(billPage("Patient copy", -1)))).isFalse();
+	}
+
+	@Test
+	void copiesThatDifferOnlyInTheirLabelAreDuplicates() {
+		PageFingerprinter.PageFingerprint patientCopy = fingerprinter.fingerprint(billPage("Patient copy", -1));
+		PageFingerprinter.PageFingerprint hospitalCopy = fingerprinter.fingerprint(billPage("Hospital copy", -1));
+
+		assertThat(fingerprinter.isDuplicate(hospitalCopy, patientCopy)).isTrue();
+	}
+
+	@Test
+	void pagesThatDifferInOneAmountAreNotDuplicates() {
+		PageFingerprinter.PageFingerprint original = fingerprinter.fingerprint(billPage("Patient copy", -1));
+		PageFingerprinter.PageFingerprint amended = fingerprinter.fingerprint(billPage("Patient copy", 5));
+
+		assertThat(original.distanceTo(amended)).isPositive();
+		assertThat(fingerprinter.isDuplicate(amended, original)).isFalse();
+	}
+
+	private static BufferedImage blankPage() {
+		// A4 at 93 DPI, the size pages are rendered at for the default encoder
+		BufferedImage page = new BufferedImage(769, 1087, BufferedImage.TYPE_BYTE_GRAY);
+		Graphics2D g = page.createGraphics();
+		g.setColor(Color.WHITE);
+		g.fillRect(0, 0, page.getWidth(), page.getHeight());
+		g.dispose();
+		return page;
+	}
+
+	private static BufferedImage billPage(String label, int amendedRow) {
+		BufferedImage page = blankPage();
+		Graphics2D g = page.createGraphics();
+		g.setColor(Color.BLACK);
+		g.setFont(new Font(Font.SANS_SERIF, Font.BOLD, 22));
+		g.drawString("CITY HOSPITAL - FINAL BILL", 60, 80);
+		g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 12));
+		g.drawString(label, 620, 40);
+
+		for (int row = 0; row < 18; row++) {
+			int y = 160 + row * 26;
+			g.drawLine(60, y + 8, 710, y + 8);
+			g.drawString("Consultation " + (row + 1), 70, y);
+			double rate = row == amendedRow ? 126.0 : 125.0;
+			g.drawString(String.format("%,.2f", rate * (row + 1)), 600, y);
+		}
+		g.dispose();
+		return page;
+	}
+}
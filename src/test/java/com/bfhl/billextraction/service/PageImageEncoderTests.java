@@ -0,0 +1,72 @@
+package com.bfhl.billextraction.service;
+
+import org.apache.pdfbox.rendering.ImageType;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class PageImageEncoderTests {
+
+	private final JpegPageImageEncoder jpeg = new JpegPageImageEncoder(ImageType.GRAY, 0.85f, 2048, 768);
+	private final PngPageImageEncoder png = new PngPageImageEncoder(ImageType.GRAY, 2048, 768);
+
+	@Test
+	void billsTilesOfTheFittedImage() {
+		// A4 at 300 DPI fits to 768x1086: 2x3 tiles
+		assertThat(jpeg.visionTokens(2480, 3508)).isEqualTo(85 + 170 * 6);
+		// Small images are not scaled up: one tile
+		assertThat(jpeg.visionTokens(500, 400)).isEqualTo(85 + 170);
+		// A wide strip is bound by the long edge: 2048x512, 4x1 tiles
+		assertThat(jpeg.visionScale(4000, 1000)).isEqualTo(0.512);
+		assertThat(jpeg.visionTokens(4000, 1000)).isEqualTo(85 + 170 * 4);
+	}
+
+	@Test
+	void encodesPagesDownToTheFittedSize() throws Exception {
+		BufferedImage page = new BufferedImage(2480, 3508, BufferedImage.TYPE_BYTE_GRAY);
+
+		assertThat(decode(jpeg.encode(page))).extracting(BufferedImage::getWidth, BufferedImage::getHeight)
+				.containsExactly(768, 1086);
+		assertThat(decode(png.encode(page))).extracting(BufferedImage::getWidth, BufferedImage::getHeight)
+				.containsExactly(768, 1086);
+	}
+
+	@Test
+	void leavesSmallImagesAtTheirSize() throws Exception {
+		BufferedImage image = new BufferedImage(500, 400, BufferedImage.TYPE_BYTE_GRAY);
+
+		assertThat(PageImageEncoder.fitForVision(image, 2048, 768)).isSameAs(image);
+		assertThat(decode(jpeg.encode(image))).extracting(BufferedImage::getWidth, BufferedImage::getHeight)
+				.containsExactly(500, 400);
+	}
+
+	@Test
+	void scalesBinaryPagesToGrayLevels() {
+		BufferedImage page = new BufferedImage(2480, 3508, BufferedImage.TYPE_BYTE_BINARY);
+
+		assertThat(PageImageEncoder.fitForVision(page, 2048, 768).getType()).isEqualTo(BufferedImage.TYPE_BYTE_GRAY);
+	}
+
+	@Test
+	void rendersNoFinerThanTheModelKeeps() {
+		// The short side of A4 decides: 768px over 8.27in
+		assertThat(jpeg.maxUsefulDpi(8.27, 11.69)).isCloseTo(92.9, within(0.1));
+		assertThat(jpeg.maxUsefulDpi(11.69, 8.27)).isCloseTo(92.9, within(0.1));
+	}
+
+	@Test
+	void jpegRendersFormatsItCanWrite() {
+		assertThat(new JpegPageImageEncoder(ImageType.BINARY, 0.85f, 2048, 768).renderImageType()).isEqualTo(ImageType.GRAY);
+		assertThat(new JpegPageImageEncoder(ImageType.ARGB, 0.85f, 2048, 768).renderImageType()).isEqualTo(ImageType.RGB);
+		assertThat(png.settings()).isNotEqualTo(jpeg.settings());
+	}
+
+	private static BufferedImage decode(byte[] bytes) throws Exception {
+		return ImageIO.read(new ByteArrayInputStream(bytes));
+	}
+}
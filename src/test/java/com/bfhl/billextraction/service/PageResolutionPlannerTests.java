@@ -0,0 +1,88 @@
+package com.bfhl.billextraction.service;
+
+import com.bfhl.billextraction.config.PdfProcessingConfig;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.rendering.ImageType;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.awt.image.BufferedImage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PageResolutionPlannerTests {
+
+	@Test
+	void smallPrintGetsMoreResolutionThanLargePrint() throws Exception {
+		PageResolutionPlanner planner = planner(10_000, 10_000);
+
+		try (PDDocument document = new PDDocument()) {
+			addTextPage(document, 6);
+			addTextPage(document, 36);
+
+			int smallPrint = planner.planDpi(document, 0, 300);
+			int largePrint = planner.planDpi(document, 1, 300);
+
+			assertThat(smallPrint).isBetween(100, 300);
+			assertThat(largePrint).isEqualTo(72);
+		}
+	}
+
+	@Test
+	void neverRendersAboveScanResolution() throws Exception {
+		PageResolutionPlanner planner = planner(10_000, 10_000);
+
+		try (PDDocument document = new PDDocument()) {
+			// 8.5 x 11 in page holding a 1275 x 1650 px scan: 150 DPI
+			PDPage page = new PDPage(PDRectangle.LETTER);
+			document.addPage(page);
+			BufferedImage scan = new BufferedImage(1275, 1650, BufferedImage.TYPE_BYTE_GRAY);
+			try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+				content.drawImage(LosslessFactory.createFromImage(document, scan), 0, 0,
+						PDRectangle.LETTER.getWidth(), PDRectangle.LETTER.getHeight());
+			}
+
+			assertThat(planner.planDpi(document, 0, 300)).isEqualTo(150);
+		}
+	}
+
+	@Test
+	void neverRendersAboveWhatTheEncoderKeeps() throws Exception {
+		PageResolutionPlanner planner = planner(2048, 768);
+
+		try (PDDocument document = new PDDocument()) {
+			addTextPage(document, 4);
+
+			// A4 short edge is 8.27 in; 768 px across it is ~93 DPI
+			assertThat(planner.planDpi(document, 0, 300)).isEqualTo(93);
+		}
+	}
+
+	private static PageResolutionPlanner planner(int maxLongEdge, int maxShortEdge) {
+		PageResolutionPlanner planner = new PageResolutionPlanner();
+		ReflectionTestUtils.setField(planner, "pdfProcessingConfig", new PdfProcessingConfig());
+		ReflectionTestUtils.setField(planner, "pageImageEncoder",
+				new PngPageImageEncoder(ImageType.GRAY, maxLongEdge, maxShortEdge));
+		return planner;
+	}
+
+	private static void addTextPage(PDDocument document, float fontSize) throws Exception {
+		PDPage page = new PDPage(PDRectangle.A4);
+		document.addPage(page);
+		try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+			content.beginText();
+			content.setFont(PDType1Font.HELVETICA, fontSize);
+			content.newLineAtOffset(50, 700);
+			for (int row = 0; row < 10; row++) {
+				content.showText("Consultation fee 1,250.00");
+				content.newLineAtOffset(0, -fontSize * 1.5f);
+			}
+			content.endText();
+		}
+	}
+}
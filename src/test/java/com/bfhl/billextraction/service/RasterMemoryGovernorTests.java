@@ -0,0 +1,101 @@
+package com.bfhl.billextraction.service;
+
+import com.bfhl.billextraction.config.PdfProcessingConfig;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.rendering.ImageType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RasterMemoryGovernorTests {
+
+	private RasterMemoryGovernor governor;
+	private PDDocument document;
+
+	@BeforeEach
+	void setUp() {
+		// A4 in gray at 300 DPI is ~8.7 MB per raster: 5 in flight need ~44 MB, 3 need ~26 MB
+		governor = new RasterMemoryGovernor();
+		ReflectionTestUtils.setField(governor, "rasterBudgetMb", 30L);
+		ReflectionTestUtils.setField(governor, "allowDowngrade", true);
+		ReflectionTestUtils.setField(governor, "pdfProcessingConfig", new PdfProcessingConfig());
+		ReflectionTestUtils.setField(governor, "pageImageEncoder",
+				new PngPageImageEncoder(ImageType.GRAY, 10_000, 10_000));
+		governor.init();
+
+		document = new PDDocument();
+		document.addPage(new PDPage(PDRectangle.A4));
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		document.close();
+	}
+
+	@Test
+	void downgradesWhatDoesNotFitAndTimesOutWhenNothingDoes() throws Exception {
+		RasterMemoryGovernor.Reservation first = governor.admit(document, 300, 3, 1, deadline(1000));
+
+		assertThat(first.getQueueDepth()).isEqualTo(1);
+		assertThat(first.getMaxDpi()).isEqualTo(300);
+		assertThat(governor.getDowngradedJobs()).isEqualTo(1);
+
+		assertThatThrownBy(() -> governor.admit(document, 300, 3, 1, deadline(100)))
+				.isInstanceOf(TimeoutException.class);
+
+		first.close();
+		assertThat(governor.getReservedBytes()).isZero();
+	}
+
+	@Test
+	void waitingDocumentIsAdmittedOnRelease() throws Exception {
+		RasterMemoryGovernor.Reservation first = governor.admit(document, 300, 3, 1, deadline(1000));
+
+		CompletableFuture<RasterMemoryGovernor.Reservation> second = CompletableFuture.supplyAsync(() -> {
+			try {
+				return governor.admit(document, 300, 3, 1, deadline(5000));
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		Thread.sleep(100);
+		assertThat(second).isNotDone();
+		assertThat(governor.getWaitingJobs()).isEqualTo(1);
+
+		first.close();
+		second.get(5, TimeUnit.SECONDS).close();
+		assertThat(governor.getReservedBytes()).isZero();
+	}
+
+	@Test
+	void reservesPagesAtTheirOwnDpiEvenAboveWhatTheWholePageNeeds() throws Exception {
+		// With vision limits a whole A4 page gains nothing above ~93 DPI, but a crop of it can
+		ReflectionTestUtils.setField(governor, "pageImageEncoder", new PngPageImageEncoder(ImageType.GRAY, 2048, 768));
+		long rasterAt200Dpi = (long) Math.ceil(PDRectangle.A4.getWidth() / 72 * 200)
+				* (long) Math.ceil(PDRectangle.A4.getHeight() / 72 * 200);
+
+		try (RasterMemoryGovernor.Reservation page = governor.admitPages(document, Map.of(0, 200), deadline(1000))) {
+			assertThat(page.getMaxDpi()).isEqualTo(200);
+			assertThat(governor.getReservedBytes()).isEqualTo(2 * rasterAt200Dpi);
+		}
+		try (RasterMemoryGovernor.Reservation whole = governor.admit(document, 200, 1, 1, deadline(1000))) {
+			assertThat(governor.getReservedBytes()).isLessThan(rasterAt200Dpi);
+		}
+	}
+
+	private static Deadline deadline(long millis) {
+		return Deadline.after(Duration.ofMillis(millis));
+	}
+}
@@ -0,0 +1,48 @@
+package com.bfhl.billextraction.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.awt.image.BufferedImage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RasterPoolTests {
+
+	private RasterPool pool;
+
+	@BeforeEach
+	void setUp() {
+		pool = new RasterPool();
+		ReflectionTestUtils.setField(pool, "enabled", true);
+		ReflectionTestUtils.setField(pool, "maxIdleMb", 1L);
+	}
+
+	@Test
+	void reusesRasterOfSameSizeAndType() {
+		BufferedImage first = pool.acquire(768, 1087, BufferedImage.TYPE_BYTE_GRAY);
+		pool.release(first);
+
+		assertThat(pool.acquire(768, 1087, BufferedImage.TYPE_INT_RGB)).isNotSameAs(first);
+		assertThat(pool.acquire(768, 1087, BufferedImage.TYPE_BYTE_GRAY)).isSameAs(first);
+		assertThat(pool.getHits()).isEqualTo(1);
+		assertThat(pool.getMisses()).isEqualTo(2);
+		assertThat(pool.getIdleRasters()).isZero();
+	}
+
+	@Test
+	void dropsLeastRecentlyReleasedRastersOverIdleLimit() {
+		BufferedImage a4 = new BufferedImage(768, 1087, BufferedImage.TYPE_BYTE_GRAY);
+		BufferedImage letter = new BufferedImage(791, 1024, BufferedImage.TYPE_BYTE_GRAY);
+		BufferedImage large = new BufferedImage(2480, 3508, BufferedImage.TYPE_BYTE_GRAY);
+
+		pool.release(a4);
+		pool.release(letter);
+		pool.release(large); // larger than the whole pool
+
+		assertThat(pool.getIdleRasters()).isEqualTo(1);
+		assertThat(pool.getIdleBytes()).isEqualTo(791L * 1024);
+		assertThat(pool.acquire(791, 1024, BufferedImage.TYPE_BYTE_GRAY)).isSameAs(letter);
+	}
+}
@@ -0,0 +1,75 @@
+package com.bfhl.billextraction.service;
+
+import com.bfhl.billextraction.model.BillItem;
+import com.bfhl.billextraction.model.PageWiseLineItems;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StreamingExtractionParserTests {
+
+	private static final String ITEM = "{\"item_name\":\"Nursing Charges\",\"item_amount\":300.0,"
+			+ "\"item_rate\":150.0,\"item_quantity\":2.0}";
+	private static final String ANSWER = "```json\n{\"pagewise_line_items\":["
+			+ "{\"page_no\":\"1\",\"page_type\":\"Bill Detail\",\"bill_items\":[" + ITEM + "]},"
+			+ "{\"page_no\":\"2\",\"page_type\":\"Pharmacy\",\"bill_items\":[" + ITEM.replace("Nursing", "Room") + "]}"
+			+ "]}\n```";
+
+	private final List<String> events = new ArrayList<>();
+
+	private final StreamingExtractionParser.Listener recorder = new StreamingExtractionParser.Listener() {
+		@Override
+		public void onItem(String pageNo, BillItem item) {
+			events.add("item " + pageNo + " " + item.getItemName());
+		}
+
+		@Override
+		public void onPage(PageWiseLineItems page) {
+			events.add("page " + page.getPageNo());
+		}
+	};
+
+	@Test
+	void emitsItemsAndPagesAsTheyComplete() {
+		StreamingExtractionParser parser = new StreamingExtractionParser(new ObjectMapper(), recorder, 50);
+
+		for (int start = 0; start < ANSWER.length(); start += 7) {
+			assertThat(parser.feed(ANSWER.substring(start, Math.min(ANSWER.length(), start + 7)))).isTrue();
+		}
+
+		assertThat(events).containsExactly(
+				"item 1 Nursing Charges", "page 1", "item 2 Room Charges", "page 2");
+		assertThat(parser.getCompletedPages()).extracting(PageWiseLineItems::getPageType)
+				.containsExactly("Bill Detail", "Pharmacy");
+		assertThat(parser.isPageOpen()).isFalse();
+		assertThat(parser.getFailure()).isNull();
+	}
+
+	@Test
+	void keepsCompletedPagesOfACutOffAnswer() {
+		String cutOff = ANSWER.substring(0, ANSWER.indexOf("Room"));
+
+		StreamingExtractionParser parser = StreamingExtractionParser.of(new ObjectMapper(), cutOff);
+
+		assertThat(parser.getCompletedPages()).extracting(PageWiseLineItems::getPageNo).containsExactly("1");
+		assertThat(parser.isPageOpen()).isTrue();
+		assertThat(parser.getOpenPageNo()).isEqualTo("2");
+		assertThat(parser.getFailure()).isNull();
+	}
+
+	@Test
+	void abandonsInvalidOrLoopingAnswers() {
+		StreamingExtractionParser invalid = new StreamingExtractionParser(new ObjectMapper(), recorder, 50);
+		assertThat(invalid.feed("{\"pagewise_line_items\": [}")).isFalse();
+		assertThat(invalid.getFailure()).contains("not valid extraction JSON");
+
+		StreamingExtractionParser looping = new StreamingExtractionParser(new ObjectMapper(), recorder, 2);
+		assertThat(looping.feed("{\"pagewise_line_items\":[{\"page_no\":\"1\",\"bill_items\":[" + ITEM + "," + ITEM)).isTrue();
+		assertThat(looping.feed("," + ITEM)).isFalse();
+		assertThat(looping.getFailure()).contains("repeated 3 times");
+	}
+}
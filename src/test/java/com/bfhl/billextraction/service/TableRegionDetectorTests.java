@@ -0,0 +1,93 @@
+package com.bfhl.billextraction.service;
+
+import org.apache.pdfbox.rendering.ImageType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TableRegionDetectorTests {
+
+	// A4 at 93 DPI, the size the default encoder settings render to
+	private static final int WIDTH = 768;
+	private static final int HEIGHT = 1086;
+
+	private TableRegionDetector detector;
+
+	@BeforeEach
+	void setUp() {
+		detector = new TableRegionDetector();
+		ReflectionTestUtils.setField(detector, "pageImageEncoder", new JpegPageImageEncoder(ImageType.GRAY, 0.85f, 2048, 768));
+		ReflectionTestUtils.setField(detector, "enabled", true);
+		ReflectionTestUtils.setField(detector, "minRules", 3);
+		ReflectionTestUtils.setField(detector, "minSaving", 0.2);
+		ReflectionTestUtils.setField(detector, "maxExcludedInk", 0.5);
+	}
+
+	@Test
+	void cropsRuledTableOutOfLetterheadAndSignature() {
+		BufferedImage page = blankPage();
+		Graphics2D g = page.createGraphics();
+		textLines(g, 40, 4);    // letterhead
+		textLines(g, 160, 3);   // patient details
+		rule(g, 300);
+		textLines(g, 310, 1);   // column headers
+		rule(g, 330);
+		textLines(g, 340, 18);  // line items
+		rule(g, 700);
+		textLines(g, 710, 1);   // total
+		textLines(g, 1000, 2);  // signature
+		g.dispose();
+
+		Rectangle crop = detector.detect(page);
+
+		assertThat(crop).isNotNull();
+		assertThat(crop.y).isLessThanOrEqualTo(300).isGreaterThan(160 + 3 * 20);
+		assertThat(crop.y + crop.height).isGreaterThanOrEqualTo(720).isLessThan(1000);
+		assertThat(crop.height % PageImageEncoder.VISION_TILE).isZero();
+	}
+
+	@Test
+	void keepsWholePageWhenTheRulesAreNotAroundTheItems() {
+		BufferedImage page = blankPage();
+		Graphics2D g = page.createGraphics();
+		rule(g, 40);
+		textLines(g, 50, 4);    // bordered patient box
+		rule(g, 140);
+		rule(g, 150);
+		textLines(g, 200, 30);  // line items without rules
+		g.dispose();
+
+		assertThat(detector.detect(page)).isNull();
+	}
+
+	private static BufferedImage blankPage() {
+		BufferedImage page = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+		Graphics2D g = page.createGraphics();
+		g.setColor(Color.WHITE);
+		g.fillRect(0, 0, WIDTH, HEIGHT);
+		g.dispose();
+		return page;
+	}
+
+	/** Lines of "words": short dark runs, 20px apart, never long enough to read as a rule. */
+	private static void textLines(Graphics2D g, int top, int lines) {
+		g.setColor(Color.BLACK);
+		for (int line = 0; line < lines; line++) {
+			for (int x = 60; x < WIDTH - 60; x += 40) {
+				g.fillRect(x, top + line * 20, 30, 9);
+			}
+		}
+	}
+
+	private static void rule(Graphics2D g, int y) {
+		g.setColor(Color.BLACK);
+		g.fillRect(50, y, WIDTH - 100, 2);
+	}
+}
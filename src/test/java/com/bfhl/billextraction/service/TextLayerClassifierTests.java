@@ -0,0 +1,106 @@
+package com.bfhl.billextraction.service;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TextLayerClassifierTests {
+
+	private TextLayerClassifier classifier;
+	private PDDocument document;
+
+	@BeforeEach
+	void setUp() {
+		classifier = new TextLayerClassifier();
+		ReflectionTestUtils.setField(classifier, "enabled", true);
+		ReflectionTestUtils.setField(classifier, "minChars", 200);
+		ReflectionTestUtils.setField(classifier, "minAmountRows", 3);
+		document = new PDDocument();
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		document.close();
+	}
+
+	@Test
+	void usesTextOfDigitallyGeneratedPage() throws Exception {
+		addTextPage(12);
+
+		String text = classifier.extractUsableText(document, 0);
+
+		assertThat(text).isNotNull().contains("Room Rent 3 1,250.00 3,750.00");
+		assertThat(text.lines().filter(line -> line.contains(".00")).count()).isEqualTo(12);
+	}
+
+	@Test
+	void rendersScannedPageEvenWithTextOnTop() throws Exception {
+		addTextPage(12);
+		// A page-sized image under an OCR layer is a scan: its text cannot be trusted
+		PDPage page = document.getPage(0);
+		try (PDPageContentStream content = new PDPageContentStream(
+				document, page, PDPageContentStream.AppendMode.PREPEND, false)) {
+			content.drawImage(LosslessFactory.createFromImage(document, scan()),
+					0, 0, PDRectangle.A4.getWidth(), PDRectangle.A4.getHeight());
+		}
+
+		assertThat(classifier.extractUsableText(document, 0)).isNull();
+	}
+
+	@Test
+	void rendersPageWithTooFewAmountRows() throws Exception {
+		addTextPage(2);
+
+		assertThat(classifier.extractUsableText(document, 0)).isNull();
+	}
+
+	@Test
+	void rendersEveryPageWhenDisabled() throws Exception {
+		ReflectionTestUtils.setField(classifier, "enabled", false);
+		addTextPage(12);
+
+		assertThat(classifier.extractUsableText(document, 0)).isNull();
+	}
+
+	private void addTextPage(int rows) throws Exception {
+		PDPage page = new PDPage(PDRectangle.A4);
+		document.addPage(page);
+		try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+			content.beginText();
+			content.setFont(PDType1Font.HELVETICA_BOLD, 14);
+			content.newLineAtOffset(50, 790);
+			content.showText("CITY HOSPITAL - BILL DETAIL");
+			content.setFont(PDType1Font.HELVETICA, 9);
+			content.newLineAtOffset(0, -30);
+			content.showText("Patient: A. Kumar   Admission No: 2024/0113   Ward: General   Consultant: Dr. Rao");
+			for (int row = 0; row < rows; row++) {
+				content.newLineAtOffset(0, -20);
+				content.showText("Room Rent " + (row + 3) + " 1,250.00 " + String.format("%,.2f", (row + 3) * 1250.0));
+			}
+			content.endText();
+		}
+	}
+
+	/** A4 at 150 DPI: well over the pixel count of a scanned page. */
+	private static BufferedImage scan() {
+		BufferedImage image = new BufferedImage(1240, 1754, BufferedImage.TYPE_BYTE_GRAY);
+		Graphics2D g = image.createGraphics();
+		g.setColor(Color.WHITE);
+		g.fillRect(0, 0, image.getWidth(), image.getHeight());
+		g.dispose();
+		return image;
+	}
+}
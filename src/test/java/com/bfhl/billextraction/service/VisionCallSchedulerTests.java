@@ -0,0 +1,219 @@
+package com.bfhl.billextraction.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class VisionCallSchedulerTests {
+
+	private final TestClock clock = new TestClock();
+
+	private VisionCallScheduler scheduler;
+
+	@BeforeEach
+	void setUp() {
+		scheduler = new VisionCallScheduler();
+		ReflectionTestUtils.setField(scheduler, "maxConcurrentCalls", 1);
+		ReflectionTestUtils.setField(scheduler, "requestsPerMinute", 100);
+		ReflectionTestUtils.setField(scheduler, "tokensPerMinute", 10_000);
+		ReflectionTestUtils.setField(scheduler, "maxRateLimitRetries", 3);
+		ReflectionTestUtils.setField(scheduler, "agingMsPerPage", 250L);
+		ReflectionTestUtils.setField(scheduler, "clock", clock);
+		scheduler.start();
+	}
+
+	@AfterEach
+	void tearDown() {
+		scheduler.stop();
+	}
+
+	@Test
+	void retriesAfterRateLimitInsteadOfFailing() throws Exception {
+		AtomicInteger attempts = new AtomicInteger();
+		CountDownLatch limited = new CountDownLatch(1);
+
+		CompletableFuture<String> result = scheduler.submit(1, 100, () -> {
+			if (attempts.incrementAndGet() == 1) {
+				limited.countDown();
+				throw new RateLimitedException("429", 20, null);
+			}
+			return "ok";
+		}, r -> 100);
+
+		// The call is queued again only after the pause is set, so the pause can then be passed
+		assertThat(limited.await(5, TimeUnit.SECONDS)).isTrue();
+		awaitQueuedCalls(1);
+		assertThat(result).isNotDone();
+		clock.advance(20);
+
+		assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("ok");
+		assertThat(attempts.get()).isEqualTo(2);
+		assertThat(scheduler.getRateLimitedCalls()).isEqualTo(1);
+	}
+
+	@Test
+	void servesSmallDocumentsFirst() throws Exception {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch blocker = new CountDownLatch(1);
+		List<Integer> order = new CopyOnWriteArrayList<>();
+
+		// Occupy the single worker so the following calls queue up
+		CompletableFuture<Integer> first = scheduler.submit(1, 10, () -> {
+			started.countDown();
+			blocker.await();
+			return 0;
+		}, r -> 10);
+		assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+		CompletableFuture<Integer> large = scheduler.submit(40, 10, () -> {
+			order.add(40);
+			return 40;
+		}, r -> 10);
+		CompletableFuture<Integer> small = scheduler.submit(2, 10, () -> {
+			order.add(2);
+			return 2;
+		}, r -> 10);
+
+		blocker.countDown();
+		CompletableFuture.allOf(first, large, small).get(5, TimeUnit.SECONDS);
+
+		assertThat(order).containsExactly(2, 40);
+	}
+
+	@Test
+	void largeDocumentCallAgesPastNewerSmallOnes() throws Exception {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch blocker = new CountDownLatch(1);
+		List<Integer> order = new CopyOnWriteArrayList<>();
+
+		CompletableFuture<Integer> first = scheduler.submit(1, 10, () -> {
+			started.countDown();
+			blocker.await();
+			return 0;
+		}, r -> 10);
+		assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+		// 40 pages at 250 ms each: after 10 s of waiting it is ahead of any new 2-page call
+		CompletableFuture<Integer> large = scheduler.submit(40, 10, () -> {
+			order.add(40);
+			return 40;
+		}, r -> 10);
+		clock.advance(10_000);
+		CompletableFuture<Integer> small = scheduler.submit(2, 10, () -> {
+			order.add(2);
+			return 2;
+		}, r -> 10);
+
+		blocker.countDown();
+		CompletableFuture.allOf(first, large, small).get(5, TimeUnit.SECONDS);
+
+		assertThat(order).containsExactly(40, 2);
+	}
+
+	@Test
+	void smallCallOvertakesWhileDispatchIsPaused() throws Exception {
+		ReflectionTestUtils.setField(scheduler, "maxRateLimitRetries", 0);
+		List<Integer> order = new CopyOnWriteArrayList<>();
+
+		// A 429 pauses dispatch for 300 ms with nothing else queued; the pause is set before the call fails
+		CompletableFuture<Integer> limited = scheduler.submit(1, 10, () -> {
+			throw new RateLimitedException("429", 300, null);
+		}, r -> 10);
+		assertThat(limited).failsWithin(5, TimeUnit.SECONDS);
+
+		// The large call is queued first, but must not be claimed while the budget is paused
+		CompletableFuture<Integer> large = scheduler.submit(40, 10, () -> {
+			order.add(40);
+			return 40;
+		}, r -> 10);
+		CompletableFuture<Integer> small = scheduler.submit(2, 10, () -> {
+			order.add(2);
+			return 2;
+		}, r -> 10);
+		assertThat(large).isNotDone();
+		clock.advance(300);
+
+		CompletableFuture.allOf(large, small).get(5, TimeUnit.SECONDS);
+
+		assertThat(order).containsExactly(2, 40);
+	}
+
+	@Test
+	void cancellingInterruptsInFlightCall() throws Exception {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch interrupted = new CountDownLatch(1);
+
+		CompletableFuture<String> call = scheduler.submit(1, 10, () -> {
+			started.countDown();
+			try {
+				new CountDownLatch(1).await();
+			} catch (InterruptedException e) {
+				interrupted.countDown();
+				throw e;
+			}
+			return "late";
+		}, r -> 10);
+
+		assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+		call.cancel(true);
+
+		assertThat(interrupted.await(5, TimeUnit.SECONDS)).isTrue();
+
+		// The freed slot serves the next call
+		CompletableFuture<String> next = scheduler.submit(1, 10, () -> "ok", r -> 10);
+		assertThat(next.get(5, TimeUnit.SECONDS)).isEqualTo("ok");
+	}
+
+	private void awaitQueuedCalls(int count) {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (scheduler.getQueuedCalls() != count) {
+			assertThat(System.nanoTime()).as("queued calls").isLessThan(deadline);
+			Thread.onSpinWait();
+		}
+	}
+
+	/** Stands still until the test moves it, so pauses and aging do not depend on how fast the test runs. */
+	private static final class TestClock extends Clock {
+
+		private final AtomicLong millis = new AtomicLong(1_000_000);
+
+		void advance(long ms) {
+			millis.addAndGet(ms);
+		}
+
+		@Override
+		public long millis() {
+			return millis.get();
+		}
+
+		@Override
+		public Instant instant() {
+			return Instant.ofEpochMilli(millis());
+		}
+
+		@Override
+		public ZoneId getZone() {
+			return ZoneOffset.UTC;
+		}
+
+		@Override
+		public Clock withZone(ZoneId zone) {
+			return this;
+		}
+	}
+}